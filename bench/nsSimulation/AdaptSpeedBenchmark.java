@@ -0,0 +1,77 @@
+package nsSimulation;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*==============================================================================
+CarNS.adaptSpeed() for all cars of a road (whatever their class),
+without the neighbour lookups: the neighbourhood of every car is taken once
+from a road in motion, as RoadNS.moveCar() does. The cars keep their state
+between calls, so lane changes and speeds vary as they would on the road.
+Besides invocations/s (all cars) it reports carUpdates, the calls per second.
+==============================================================================*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdaptSpeedBenchmark extends RoadBenchmark {
+
+    private List<CarNS> cars;
+    private SpeedDistance[] front;
+    private SpeedDistance[] frontNextLane;
+    private SpeedDistance[] behindNextLane;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class CarUpdates {
+        public long carUpdates;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            carUpdates = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RoadNS road = warmRoad();
+        cars = road.getCars();
+        int n = cars.size();
+        front = new SpeedDistance[n];
+        frontNextLane = new SpeedDistance[n];
+        behindNextLane = new SpeedDistance[n];
+
+        for (int c = 0; c < n; c++) {
+            CarNS car = cars.get(c);
+            int lane = car.getLane();
+            int otherLane = lane == RoadNS.RIGHT_LANE ? RoadNS.LEFT_LANE : RoadNS.RIGHT_LANE;
+            front[c] = road.getStatusWithFrontCar(lane, car.getPosition(), new SpeedDistance(0, 0));
+            frontNextLane[c] = road.getStatusWithFrontCar(otherLane, car.getPosition() - 1, new SpeedDistance(0, 0));
+            behindNextLane[c] = road.getStatusWithBehindCar(otherLane, car.getPosition() + 1, new SpeedDistance(0, 0));
+        }
+    }
+
+    @Benchmark
+    public void adaptSpeed(CarUpdates counter, Blackhole bh) {
+        for (int c = 0; c < front.length; c++) {
+            bh.consume(cars.get(c).adaptSpeed(front[c], frontNextLane[c], behindNextLane[c]));
+        }
+        counter.carUpdates += front.length;
+    }
+}
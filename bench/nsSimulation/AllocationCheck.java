@@ -0,0 +1,97 @@
+package nsSimulation;
+
+import java.lang.management.ManagementFactory;
+
+/*==============================================================================
+Checks that a simulation step allocates nothing after warm-up.
+
+For every engine and lane index (and SpeedKernel, and ParallelRoadNS with
+several segments, on a road long enough for them, see
+ParallelRoadNS.MIN_SEGMENT_LENGTH) a road is warmed up (so that the JIT has
+compiled the step),
+then the bytes allocated during a number of steps are measured with
+com.sun.management.ThreadMXBean: by the current thread, and for ParallelRoadNS
+by all threads, since its segments run in the common ForkJoinPool. Exits with
+status 1 if any configuration allocates.
+
+It is compiled with the benchmarks (ant bench-compile) and runs without JMH:
+    java -cp build/classes:build/bench/classes nsSimulation.AllocationCheck [roadSize] [density] [steps]
+==============================================================================*/
+
+public class AllocationCheck {
+
+    private static final int WARM_UP_STEPS = 20000;
+    private static final int NUM_SEGMENTS = 4;
+
+    private static final String[] LANE_INDEX_NAMES = {"scan", "sparse", "bitboard"};
+
+    public static void main(String[] args) {
+        int roadSize = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        double density = args.length > 1 ? Double.parseDouble(args[1]) : 0.15;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadAllocatedMemorySupported()) {
+            System.out.println("Thread allocation counters are not supported by this JVM");
+            return;
+        }
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        SimulationConfig.Builder base = road(roadSize, density);
+        boolean allocationFree = true;
+
+        for (int engine : new int[] {SimulationConfig.ENGINE_OBJECTS, SimulationConfig.ENGINE_ARRAYS}) {
+            for (int laneIndex = SimulationConfig.LANE_INDEX_SCAN; laneIndex <= SimulationConfig.LANE_INDEX_BITBOARD; laneIndex++) {
+                SimulationConfig config = base.engine(engine).laneIndex(laneIndex).build();
+                allocationFree &= check(bean, Road.create(config), LANE_INDEX_NAMES[laneIndex] + " lane index", steps, false);
+            }
+        }
+        allocationFree &= check(bean, Road.create(base.engine(SimulationConfig.ENGINE_ARRAYS).speedKernel(true).build()), "SpeedKernel", steps, false);
+
+        // shorter roads get fewer segments
+        int parallelRoadSize = Math.max(roadSize, NUM_SEGMENTS * ParallelRoadNS.MIN_SEGMENT_LENGTH);
+        ParallelRoadNS parallel = new ParallelRoadNS(road(parallelRoadSize, density).engine(SimulationConfig.ENGINE_PARALLEL)
+                .numSegments(NUM_SEGMENTS).build());
+        allocationFree &= check(bean, parallel, parallel.getNumSegments() + " segments, " + parallelRoadSize + " cells", steps, true);
+
+        if (!allocationFree) System.exit(1);
+    }
+
+    private static SimulationConfig.Builder road(int roadSize, double density) {
+        int totalCars = (int) (roadSize * density);
+        return new SimulationConfig.Builder()
+                .roadSize(roadSize)
+                .density(density)
+                .fastCarRatio(0.5)
+                .numFastCars(totalCars / 2)
+                .numSlowCars(totalCars - totalCars / 2 + 1)
+                .hasBrokenCar(true);
+    }
+
+    /*
+     * @param allThreads True to count the allocations of all threads, not
+     * only of the current one.
+     * @return True if the steps allocated nothing.
+     */
+    private static boolean check(com.sun.management.ThreadMXBean bean, Road road, String variant, int steps, boolean allThreads) {
+        for (int i = 0; i < WARM_UP_STEPS; i++) road.nextState();
+
+        long overhead = -allocatedBytes(bean, allThreads);
+        overhead += allocatedBytes(bean, allThreads);           // the arrays of the counters themselves
+        long before = allocatedBytes(bean, allThreads);
+        for (int i = 0; i < steps; i++) road.nextState();
+        long allocated = allocatedBytes(bean, allThreads) - before - overhead;
+
+        System.out.println(road.getClass().getSimpleName() + " (" + variant + "): " + allocated + " bytes allocated in " + steps + " steps");
+        return allocated == 0;
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean bean, boolean allThreads) {
+        if (!allThreads) return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long total = 0;
+        for (long bytes : bean.getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;              // -1 for a thread which ended
+        }
+        return total;
+    }
+}
@@ -0,0 +1,42 @@
+package nsSimulation;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*==============================================================================
+AnimatedSimulation.calculateMeasures(): the statistics of a run (a RunResult),
+on a road in motion.
+==============================================================================*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalculateMeasuresBenchmark extends RoadBenchmark {
+
+    private RoadNS road;
+    private SimulationConfig config;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        config = config(SimulationConfig.ENGINE_OBJECTS);
+        road = warmRoad();
+    }
+
+    @Benchmark
+    public RunResult calculateMeasures() {
+        return AnimatedSimulation.calculateMeasures(road, config, 0);
+    }
+}
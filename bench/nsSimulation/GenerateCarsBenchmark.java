@@ -0,0 +1,49 @@
+package nsSimulation;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*==============================================================================
+Setting up a run: RoadNS.generateCars() is called by the constructor of
+RoadNS, so this measures a new road (cars, lanes and lane indices), which is
+the per-run cost of a repetition. The cars come from Fleet.generateCars(),
+the generator of every engine, newFleet() measures it alone.
+==============================================================================*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerateCarsBenchmark extends RoadBenchmark {
+
+    private SimulationConfig config;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        config = config(SimulationConfig.ENGINE_OBJECTS);
+    }
+
+    @Benchmark
+    public Road newRoadNS() {
+        return new RoadNS(config);
+    }
+
+    @Benchmark
+    public Fleet fleetGenerateCars() {
+        Fleet fleet = new Fleet(config.getNumCars());
+        fleet.generateCars(config, new RandomStreams(config.seed, config.getNumCars(), config.probabilityFluctuation).placement());
+        return fleet;
+    }
+}
@@ -0,0 +1,72 @@
+package nsSimulation;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*==============================================================================
+RoadNS.getStatusWithFrontCar() and getStatusWithBehindCar() from positions
+spread over the road, for every lane index (SimulationConfig.LANE_INDEX_*).
+One operation is one lookup.
+==============================================================================*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeighbourScanBenchmark extends RoadBenchmark {
+
+    private static final int NUM_LOOKUPS = 1024;
+
+    @Param({"0", "1", "2"})
+    public int laneIndex;
+
+    private RoadNS road;
+    private final int[] positions = new int[NUM_LOOKUPS];
+    private final SpeedDistance result = new SpeedDistance(0, 0);
+
+    @Override
+    protected SimulationConfig config(int engine) {
+        return super.config(engine).toBuilder().laneIndex(laneIndex).build();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        road = warmRoad();
+        for (int i = 0; i < NUM_LOOKUPS; i++) {
+            positions[i] = (int) ((long) i * roadSize / NUM_LOOKUPS);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * NUM_LOOKUPS)
+    public void front(Blackhole bh) {
+        for (int i = 0; i < NUM_LOOKUPS; i++) {
+            bh.consume(road.getStatusWithFrontCar(RoadNS.RIGHT_LANE, positions[i], result).getDistance());
+            bh.consume(road.getStatusWithFrontCar(RoadNS.LEFT_LANE, positions[i], result).getDistance());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * NUM_LOOKUPS)
+    public void behind(Blackhole bh) {
+        for (int i = 0; i < NUM_LOOKUPS; i++) {
+            bh.consume(road.getStatusWithBehindCar(RoadNS.RIGHT_LANE, positions[i], result).getDistance());
+            bh.consume(road.getStatusWithBehindCar(RoadNS.LEFT_LANE, positions[i], result).getDistance());
+        }
+    }
+}
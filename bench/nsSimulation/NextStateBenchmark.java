@@ -0,0 +1,58 @@
+package nsSimulation;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*==============================================================================
+One step of the road, for every engine (SimulationConfig.ENGINE_*).
+Besides steps/s it reports cellUpdates, the number of cells (both lanes)
+updated per second, which can be compared across road sizes.
+==============================================================================*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NextStateBenchmark extends RoadBenchmark {
+
+    @Param({"0", "1", "2"})
+    public int engine;
+
+    private Road road;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class CellUpdates {
+        public long cellUpdates;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            cellUpdates = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        road = Road.create(config(engine));
+    }
+
+    @Benchmark
+    public void nextState(CellUpdates counter) {
+        road.nextState();
+        counter.cellUpdates += RoadNS.NUM_LANES * roadSize;
+    }
+}
@@ -0,0 +1,65 @@
+package nsSimulation;
+
+import org.openjdk.jmh.annotations.Param;
+
+/*==============================================================================
+Parameters shared by the benchmarks of the simulation core.
+
+Every benchmark runs on a road built like the cells of the sweep in
+TrafficSimulation.main, for every combination of the parameters below
+(narrow them with -p, e.g. -p roadSize=1000 -p brokenCar=false). The
+benchmarks are in the package nsSimulation so that they can call the
+package private parts of the engines.
+==============================================================================*/
+
+public abstract class RoadBenchmark {
+
+    @Param({"1000", "10000"})
+    public int roadSize;
+
+    @Param({"0.05", "0.15", "0.4"})
+    public double density;
+
+    @Param({"0", "0.5", "1"})
+    public double fastCarRatio;
+
+    @Param({"false", "true"})
+    public boolean brokenCar;
+
+    /**
+     * @param engine SimulationConfig.ENGINE_*
+     * @return The configuration of the benchmarked road, see TrafficSimulation.main().
+     */
+    protected SimulationConfig config(int engine) {
+        int totalCars = (int) (roadSize * density);
+        int numFastCars = (int) (fastCarRatio * totalCars);
+        int numSlowCars = totalCars - numFastCars;
+        if (brokenCar) numSlowCars++;       // broken car is counted in number of slow cars
+
+        return new SimulationConfig.Builder()
+                .roadSize(roadSize)
+                .density(density)
+                .fastCarRatio(fastCarRatio)
+                .numFastCars(numFastCars)
+                .numSlowCars(numSlowCars)
+                .hasBrokenCar(brokenCar)
+                .maxSpeedSlowCar(3)
+                .maxSpeedFastCar(8)
+                .breakingDownProbability(brokenCar ? TrafficSimulation.BREAKING_DOWN_PROBABILITY : 0.0)
+                .gettingRepairedProbability(TrafficSimulation.GETTING_REPAIRED_PROBABILITY)
+                .seed(42)
+                .engine(engine)
+                .build();
+    }
+
+    /**
+     * @return A RoadNS which has left its initial (generated) state.
+     */
+    protected RoadNS warmRoad() {
+        RoadNS road = new RoadNS(config(SimulationConfig.ENGINE_OBJECTS));
+        for (int i = 0; i < 100; i++) {
+            road.nextState();
+        }
+        return road;
+    }
+}
@@ -4,14 +4,20 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.IOException;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 final public class AnimatedSimulation {
 
-    private RoadNS road;
+    private Road road;
+    private SimulationConfig config;
     private static final int cooldown = TrafficSimulation.SIMULATION_STEP_COOLDOWN; //cooldown between steps of the simulation
     private final int carWidth = TrafficSimulation.CAR_WIDTH;
     private final int carHeight = 10;
@@ -19,46 +25,104 @@ final public class AnimatedSimulation {
     
     private int numIterations;
     
+    private TrajectoryRecorder recorder;        // null: not recorded
+    private SweepMonitor monitor;               // null: no progress reported
+    
     private JFrame frame;
     private DrawPanel drawPanel;
+    private volatile LaneSnapshots snapshots;   // null: not shown
+    private static final int FRAME_INTERVAL = 40;       // ms
 
     /**
      * This method initialises and performs the simulation.
+     * @param config The configuration of the run, numberOfIterations is the 
+     * number of states the simulation will run for.
      */
-    public void initialiseSimulation(int numIterations) {
-        this.numIterations = numIterations;
+    public void initialiseSimulation(SimulationConfig config) {
+        this.config = config;
+        this.numIterations = config.numberOfIterations;
         
-        road = new RoadNS();
+        road = Road.create(config);
+    }
+
+    /**
+     * Initialises the simulation with a road in a given state instead of
+     * new cars, e.g. forked from an equilibrated road (see RoadSnapshot).
+     * @param road The road, numberOfIterations of its configuration is the
+     * number of states the simulation will run for.
+     */
+    public void initialiseSimulation(RoadNS road) {
+        this.config = road.getConfig();
+        this.numIterations = config.numberOfIterations;
         
-//        // set window title and stop running if X is pressed
-//        frame = new JFrame("Simulation");
-//        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-//
-//        // initialise the simulation
-////        for (int i = 0; i < 10; i++) // skip the first states
-////            road.nextState();
-//
-//        for (CarNS c : road.getCars())
-//            c.clearTraveledDistance();
-//        
-//        if (TrafficSimulation.DEBUG)
-//            road.printTrafficSituation();
-//
-//        // create a panel that will contain the painting
-//        drawPanel = new DrawPanel();
-//        drawPanel.setPreferredSize(new Dimension(TrafficSimulation.ROAD_SIZE * carWidth, 300));
-//
-//        // create a panel that makes the scrollbars appear
-//        JScrollPane jsp = new JScrollPane(drawPanel);
-//        // put the painting panel inside the scrollable panel
-//        jsp.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS);
-//
-//        // put everything on the frame
-//        frame.getContentPane().add(BorderLayout.CENTER, jsp);
-//        frame.setResizable(true);
-//        frame.setSize(2000, 400);
-//        frame.setLocationByPlatform(true);
-//        frame.setVisible(true);
+        this.road = road;
+    }
+
+    /**
+     * @return The road of the simulation, e.g. to read its detectors (see
+     * LoopDetectors) after runSimulation().
+     */
+    public Road getRoad() {
+        return road;
+    }
+
+    /**
+     * Shows the following runs in a window. The window is drawn on the event
+     * dispatch thread at its own frame rate from the snapshots which the run
+     * publishes (see LaneSnapshots), so the run does not wait for it.
+     * Call after initialiseSimulation().
+     */
+    public void show() {
+        final LaneSnapshots view = new LaneSnapshots(road.getNumCars());
+        snapshots = view;
+        SwingUtilities.invokeLater(() -> {
+            // set window title, closing the window does not stop the run
+            frame = new JFrame("Simulation");
+            frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+            // create a panel that will contain the painting
+            drawPanel = new DrawPanel(view);
+            drawPanel.setPreferredSize(new Dimension(config.roadSize * carWidth, 300));
+
+            // create a panel that makes the scrollbars appear
+            JScrollPane jsp = new JScrollPane(drawPanel);
+            // put the painting panel inside the scrollable panel
+            jsp.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS);
+
+            // put everything on the frame
+            frame.getContentPane().add(BorderLayout.CENTER, jsp);
+            frame.setResizable(true);
+            frame.setSize(2000, 400);
+            frame.setLocationByPlatform(true);
+
+            // repaint at the frame rate, whatever the speed of the run
+            Timer timer = new Timer(FRAME_INTERVAL, e -> drawPanel.repaint());
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    timer.stop();
+                    snapshots = null;
+                }
+            });
+            timer.start();
+            frame.setVisible(true);
+        });
+    }
+
+    /**
+     * @param monitor Receives the progress of the following runs, which stop
+     * with a CancellationException if it cancels the sweep. null for none.
+     */
+    public void setMonitor(SweepMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * @param recorder Records the states of the following runs (the caller
+     * closes it), null for none.
+     */
+    public void setRecorder(TrajectoryRecorder recorder) {
+        this.recorder = recorder;
     }
 
     /**
@@ -66,14 +130,35 @@ final public class AnimatedSimulation {
      * @param numberOfIterations The number of states the simulation will run
      * for. If 0, then it never stops running.
      */
-    public String runSimulation(int repetition) throws IOException {
+    public RunResult runSimulation(int repetition) throws IOException {
         numRuns = 0;
+        SteadyStateDetector detector = config.steadyState ? new SteadyStateDetector(config) : null;
+        SweepMonitor.Worker worker = monitor == null ? null : monitor.worker();
+        long cellUpdates = (long) RoadNS.NUM_LANES * config.roadSize;      // per step
+        if (recorder != null) recorder.record(road);
 
         while (numIterations == 0 || numRuns < numIterations) {
             numRuns++;
 
             road.nextState(); // calculates the next state
-//            frame.repaint(); // calls paintComponent(g) to draw the new state
+            if (recorder != null) recorder.record(road);
+            if (detector != null && detector.step(road))
+                break;  // steady state measured precisely enough
+            if (worker != null && (numRuns & (SweepMonitor.CHECK_INTERVAL - 1)) == 0)
+                monitor.progress(worker, SweepMonitor.CHECK_INTERVAL, SweepMonitor.CHECK_INTERVAL * cellUpdates);
+
+            LaneSnapshots view = snapshots;
+            if (view != null) {
+                if (view.wantsNext()) view.publish(road, numRuns);     // otherwise the window has not drawn the last one yet
+                if (cooldown > 0) {
+                    try {
+                        Thread.sleep(cooldown);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
 //            
 //            if (TrafficSimulation.DEBUG)
 //                road.printTrafficSituation();
@@ -81,57 +166,160 @@ final public class AnimatedSimulation {
 //            // print the current flow every 100 iterations
 //            if (TrafficSimulation.DEBUG && numRuns % 100 == 0)
 //                road.printFlow(numRuns);
-//
-//            try {
-//                Thread.sleep(cooldown);
-//            } catch (Exception e) {
-//                e.printStackTrace();
-//            }
         }
 
-        return calculateMeasures(repetition);
+        if (worker != null) {
+            int steps = numRuns & (SweepMonitor.CHECK_INTERVAL - 1);
+            monitor.progress(worker, steps, steps * cellUpdates);
+            if (numRuns > 0) monitor.runFinished(road.getFlow(numRuns), road.getFlow2(numRuns));
+        }
+
+        RunResult result = calculateMeasures(road, config, repetition);
+        result.warmUpSteps = detector == null ? 0 : detector.getWarmUpSteps();
+        result.measuredSteps = numRuns - result.warmUpSteps;
+        return result;
     }
 
     /**
-     * Helper panel used to draw the animation. Translates the current data
-     * about the cars on the road to an image.
+     * Runs several repetitions of a configuration in lockstep, see
+     * EnsembleRoadNS. The results are the same as those of runSimulation() for
+     * the same seeds and the ENGINE_ARRAYS engine.
+     * @param config The configuration of the runs (its seed is not used).
+     * @param seeds The seed of every repetition.
+     * @param repetitions The index of every repetition (the "ith run" column).
+     * @return One result per repetition, in the order of the seeds.
+     */
+    public RunResult[] runEnsemble(SimulationConfig config, long[] seeds, int[] repetitions) {
+        this.config = config;
+        this.numIterations = config.numberOfIterations;
+
+        EnsembleRoadNS ensemble = new EnsembleRoadNS(config, seeds);
+        RoadView[] replicas = new RoadView[seeds.length];
+        SteadyStateDetector[] detectors = new SteadyStateDetector[seeds.length];
+        for (int k = 0; k < seeds.length; k++) {
+            replicas[k] = ensemble.getReplica(k);
+            if (config.steadyState) detectors[k] = new SteadyStateDetector(config);
+        }
+
+        // a replica which has reached its steady state precision keeps moving with the others, its result is taken at that step
+        RunResult[] results = new RunResult[seeds.length];
+        int numRunning = seeds.length;
+        SweepMonitor.Worker worker = monitor == null ? null : monitor.worker();
+        long cellUpdates = (long) RoadNS.NUM_LANES * config.roadSize * seeds.length;      // per step
+        for (numRuns = 0; numRuns < numIterations && numRunning > 0; ) {
+            ensemble.nextState();
+            numRuns++;
+            if (worker != null && (numRuns & (SweepMonitor.CHECK_INTERVAL - 1)) == 0)
+                monitor.progress(worker, (long) SweepMonitor.CHECK_INTERVAL * seeds.length, SweepMonitor.CHECK_INTERVAL * cellUpdates);
+            for (int k = 0; k < seeds.length; k++) {
+                if (detectors[k] != null && results[k] == null && detectors[k].step(replicas[k])) {
+                    results[k] = measure(replicas[k], config, seeds[k], repetitions[k], detectors[k]);
+                    numRunning--;
+                }
+            }
+        }
+
+        for (int k = 0; k < seeds.length; k++) {
+            if (results[k] == null) results[k] = measure(replicas[k], config, seeds[k], repetitions[k], detectors[k]);
+        }
+        if (worker != null) {
+            int steps = numRuns & (SweepMonitor.CHECK_INTERVAL - 1);
+            monitor.progress(worker, (long) steps * seeds.length, steps * cellUpdates);
+            for (int k = 0; k < seeds.length && numRuns > 0; k++) {
+                monitor.runFinished(replicas[k].getFlow(numRuns), replicas[k].getFlow2(numRuns));
+            }
+        }
+        return results;
+    }
+
+    private RunResult measure(RoadView replica, SimulationConfig config, long seed, int repetition, SteadyStateDetector detector) {
+        RunResult result = calculateMeasures(replica, config.toBuilder().seed(seed).build(), repetition);
+        result.warmUpSteps = detector == null ? 0 : detector.getWarmUpSteps();
+        result.measuredSteps = numRuns - result.warmUpSteps;
+        return result;
+    }
+
+    /**
+     * Helper panel used to draw the animation. Translates the newest snapshot
+     * of the cars on the road to an image.
      */
     private class DrawPanel extends JPanel {
 
+        private final LaneSnapshots view;
+        private int[] rgb = new int[0];         // the colours of the cars, as the snapshot
+        private Color[] colors = new Color[0];
+
+        DrawPanel(LaneSnapshots view) {
+            this.view = view;
+        }
+
+        @Override
         public void paintComponent(Graphics g) {
+            super.paintComponent(g);
             setBackground(new Color(240, 240, 185));
             g.setColor(Color.BLACK);
 
             //Draw the road
-            g.fillRect(0, 100, TrafficSimulation.ROAD_SIZE * carWidth, carHeight * 2 + 10); // xpos, ypos, width, height
+            g.fillRect(0, 100, config.roadSize * carWidth, carHeight * 2 + 10); // xpos, ypos, width, height
 
             //Draw the line that separates the two lanes.
             g.setColor(Color.white);
-            for (int i = 0; i < TrafficSimulation.ROAD_SIZE * carWidth / 20; i++) {
+            for (int i = 0; i < config.roadSize * carWidth / 20; i++) {
                 g.drawLine(i * 20, 100 + carHeight + 5, i * 20 + 10, 100 + carHeight + 5);
             }
 
-            //Draw all cars as color filled round rectangles.
-            for (CarNS c : road.getCars()) {
-                g.setColor(c.getColor()); // individual colour for each car
-                if (c.getLane() == 1)
-                    g.fillRoundRect(c.getPosition() * carWidth, 117, carWidth - 5, carHeight, 2, 2);
-                if (c.getLane() == 2)
-                    g.fillRoundRect(c.getPosition() * carWidth, 103, carWidth - 5, carHeight, 2, 2);
+            LaneSnapshots.Snapshot s = view.latest();
+            if (s.step < 0) return;
+            g.drawString("step " + s.step, 5, 90);
+
+            if (colors.length != s.color.length) {
+                rgb = new int[s.color.length];
+                colors = new Color[s.color.length];
+            }
+
+            //Draw the visible cars as color filled round rectangles.
+            Rectangle clip = g.getClipBounds();
+            int first = clip == null ? 0 : clip.x / carWidth - 1;
+            int last = clip == null ? config.roadSize : (clip.x + clip.width) / carWidth + 1;
+            for (int c = 0; c < s.position.length; c++) {
+                int p = s.position[c];
+                if (p < first || p > last) continue;
+                g.setColor(color(c, s.color[c])); // individual colour for each car
+                g.fillRoundRect(p * carWidth, s.lane[c] == RoadNS.RIGHT_LANE ? 117 : 103, carWidth - 5, carHeight, 2, 2);
             }
         }
+
+        private Color color(int car, int value) {
+            if (colors[car] == null || rgb[car] != value) {
+                colors[car] = new Color(value);
+                rgb[car] = value;
+            }
+            return colors[car];
+        }
     }
     
-    private String calculateMeasures(int repetition) {
+    static RunResult calculateMeasures(RoadView road, SimulationConfig config, int repetition) {
         //Flow is measures in number of cars passing a certain point.
         //Equivalently: Sum over all cars: number of cells traveled / road size
-        int totalDistance = 0;
+        // additional classes of vehicle are counted with the type they replace
+        RoadStatistics statistics = road.getStatistics();
+        VehicleClasses classes = config.vehicleClasses;
         int totalSlowDistance = 0;
         int totalFastDistance = 0;
-        
         int maxSpeedSlow = -1;
         int maxSpeedFast = -1;
+        for (int t = 1; t < classes.size(); t++) {
+            if (classes.getGroup(t) == RoadNS.TYPE_CAR_SLOW) {
+                totalSlowDistance += (int) statistics.getDistance(t);
+                maxSpeedSlow = Math.max(maxSpeedSlow, statistics.getMaxSpeed(t));
+            } else if (classes.getGroup(t) == RoadNS.TYPE_CAR_FAST) {
+                totalFastDistance += (int) statistics.getDistance(t);
+                maxSpeedFast = Math.max(maxSpeedFast, statistics.getMaxSpeed(t));
+            }
+        }
+        int totalDistance = totalSlowDistance + totalFastDistance;  // do not count that of broken car
         
+        // the best and worst car need the distance of every car
         int bestFlowFast = -1;
         int bestFlowSlow = -1;
         int worstFlowFast = 999999999;
@@ -140,36 +328,41 @@ final public class AnimatedSimulation {
         int numSlow = 0;
         int numFast = 0;
         
-        for (CarNS c : road.getCars()) {
-            String type = c.getType();
+        for (int c = 0; c < road.getNumCars(); c++) {
+            int type = classes.getGroup(road.getCarType(c));
+            int traveledDistance = road.getTraveledDistance(c);
             
-            if (type.equals("S")) {
+            if (type == RoadNS.TYPE_CAR_SLOW) {
                 numSlow++;
-                bestFlowSlow = c.getTraveledDistance() > bestFlowSlow ? c.getTraveledDistance() : bestFlowSlow;
-                worstFlowSlow = c.getTraveledDistance() < worstFlowSlow ? c.getTraveledDistance() : worstFlowSlow;
-                
-                totalSlowDistance += c.getTraveledDistance();
-                
-                maxSpeedSlow = c.getMaxReachedSpeed() > maxSpeedSlow ? c.getMaxReachedSpeed() : maxSpeedSlow;
-                
-            } else if (type.equals("F")) {
+                bestFlowSlow = traveledDistance > bestFlowSlow ? traveledDistance : bestFlowSlow;
+                worstFlowSlow = traveledDistance < worstFlowSlow ? traveledDistance : worstFlowSlow;
+            } else if (type == RoadNS.TYPE_CAR_FAST) {
                 numFast++;
-                bestFlowFast = c.getTraveledDistance() > bestFlowFast ? c.getTraveledDistance() : bestFlowFast;
-                worstFlowFast = c.getTraveledDistance() < worstFlowFast ? c.getTraveledDistance() : worstFlowFast;
-                
-                totalFastDistance += c.getTraveledDistance();
-                
-                maxSpeedFast = c.getMaxReachedSpeed() > maxSpeedFast ? c.getMaxReachedSpeed() : maxSpeedFast;
+                bestFlowFast = traveledDistance > bestFlowFast ? traveledDistance : bestFlowFast;
+                worstFlowFast = traveledDistance < worstFlowFast ? traveledDistance : worstFlowFast;
             }
-            
-//            totalDistance += c.getTraveledDistance();
         }
-        
-        totalDistance = totalSlowDistance + totalFastDistance;  // do not count that of broken car
                 
-        //model, road_block, max_speed_slow, max_speed_fast, fast_car_ratio, density, total_all_cars_distance, total_slow_cars_distance, total_fast_cars_distance, worst_case_distance_slow_cars, worst_cast_distance_fast_cars, best_case_distance_slow_car, best_case_distance_fast_car,num_slow_cars,num_fast_cars,global_rule,slack,distance_look_ahead
-        String return_ =  "NS,"+repetition+","+(TrafficSimulation.BREAKING_DOWN_PROBABILITY == 0 ? "0" : "1") + "," + maxSpeedSlow + "," + maxSpeedFast + ",";
-        return_ += TrafficSimulation.FAST_CAR_RATIO + "," + TrafficSimulation.DENSITY + "," + totalDistance + "," + totalSlowDistance + "," + totalFastDistance + "," +  worstFlowSlow + "," + worstFlowFast + "," + bestFlowSlow + "," + bestFlowFast + "," + numSlow + "," + numFast + "," + TrafficSimulation.GLOBAL_SPEED_RULE + "," + TrafficSimulation.SLACK + "," + TrafficSimulation.DISTANCE_TO_LOOK_AHEAD;
-        return return_;
+        RunResult result = new RunResult();
+        result.repetition = repetition;
+        result.roadBlock = config.breakingDownProbability != 0;
+        result.maxSpeedSlow = maxSpeedSlow;
+        result.maxSpeedFast = maxSpeedFast;
+        result.fastCarRatio = config.fastCarRatio;
+        result.density = config.density;
+        result.totalDistance = totalDistance;
+        result.totalSlowDistance = totalSlowDistance;
+        result.totalFastDistance = totalFastDistance;
+        result.worstSlowDistance = worstFlowSlow;
+        result.worstFastDistance = worstFlowFast;
+        result.bestSlowDistance = bestFlowSlow;
+        result.bestFastDistance = bestFlowFast;
+        result.numSlowCars = numSlow;
+        result.numFastCars = numFast;
+        result.globalSpeedRule = config.globalSpeedRule;
+        result.slack = config.slack;
+        result.distanceToLookAhead = config.distanceToLookAhead;
+        result.seed = config.seed;
+        return result;
     }
 }
@@ -0,0 +1,425 @@
+package nsSimulation;
+
+import java.util.Arrays;
+
+/*==============================================================================
+Road engine which stores the cars as parallel primitive arrays
+(structure of arrays) instead of a list of CarNS objects.
+
+The rules of CarNS.adaptSpeed are applied in a single loop over these
+arrays, with the parameters of each car taken from the row of its type id
+in VehicleClasses, so one step touches a few contiguous arrays and makes no
+virtual calls. Cars are generated and updated in the same
+order as in RoadNS, so the statistics of a run have the same meaning.
+
+With SimulationConfig.speedKernel the rules are evaluated by SpeedKernel
+instead: the neighbourhood of all cars is gathered first, then the kernel
+applies the rules to all cars at once, then the cars are moved. The result
+is the same as that of the scalar loop.
+==============================================================================*/
+
+public class ArrayRoadNS implements Road {
+
+    private final SimulationConfig config;
+    private final int numCars;
+    private final Fleet fleet;                  // per car state, indexed by car ID
+
+    private int numCarsPassingEnd = 0;
+
+    private int[] rightLane;                    // values: current speed of car (or -1 if no car)
+    private int[] leftLane;
+
+    private int[] helperRight;
+    private int[] helperLeft;
+
+    private final LaneIndex rightIndex;         // neighbour lookup on rightLane/leftLane
+    private final LaneIndex leftIndex;
+
+    private final RandomStreams streams;
+    private final VehicleClasses classes;
+    private final RoadStatistics statistics;
+    private final LoopDetectors detectors;      // null: none
+    private final SpeedKernel kernel;           // null: scalar loop
+
+    public ArrayRoadNS(SimulationConfig config) {
+        this.config = config;
+        numCars = config.getNumCars();
+        streams = new RandomStreams(config.seed, numCars, config.probabilityFluctuation);
+
+        fleet = new Fleet(numCars);
+        classes = config.vehicleClasses;
+        statistics = new RoadStatistics(config.roadSize, classes.size());
+        detectors = config.detectors.isEmpty() ? null : new LoopDetectors(config);
+        kernel = config.speedKernel ? new SpeedKernel(config, numCars) : null;
+
+        rightLane = new int[config.roadSize];
+        leftLane = new int[config.roadSize];
+        helperRight = new int[config.roadSize];
+        helperLeft = new int[config.roadSize];
+
+        for (int i = 0; i < rightLane.length; i++) {
+            rightLane[i] = -1;
+            leftLane[i] = -1;
+        }
+
+        rightIndex = LaneIndex.create(config);
+        leftIndex = LaneIndex.create(config);
+
+        fleet.generateCars(config, streams.placement());
+        streams.setDawdleProbabilities(classes, fleet.type, 0);
+        for (int c = 0; c < numCars; c++) {
+            if (fleet.lane[c] == RoadNS.RIGHT_LANE) rightLane[fleet.position[c]] = fleet.speed[c];
+            else leftLane[fleet.position[c]] = fleet.speed[c];
+        }
+        rightIndex.update(rightLane);
+        leftIndex.update(leftLane);
+        if (TrafficSimulation.DEBUG) printTrafficSituation();
+    }
+
+    @Override
+    public void nextState() {
+        long start = Probes.ENABLED ? System.nanoTime() : 0;
+        int passed = numCarsPassingEnd;
+
+        // clear helper lanes
+        for (int i = 0; i < helperRight.length; i++) {
+            helperRight[i] = -1;
+            helperLeft[i] = -1;
+        }
+        rightIndex.clearNext();
+        leftIndex.clearNext();
+
+        // draw the random numbers of this step in bulk
+        streams.nextStep();
+
+        // move cars (check rules on current road and save new positions in next road)
+        if (kernel != null) applyKernel();
+        else applyRules();
+        statistics.addStep();
+        if (detectors != null) detectors.addStep();
+
+        // set new state
+        swapLanes();
+        if (Probes.ENABLED) Probes.step(System.nanoTime() - start, numCarsPassingEnd - passed);
+    }
+
+    private void applyRules() {
+        numCarsPassingEnd += applyRules(config, fleet, 0, numCars, rightLane, leftLane, rightIndex, leftIndex,
+                helperRight, helperLeft, streams, statistics, detectors);
+    }
+
+    /*
+     * The rules of one step of a road whose car c is at index first + c of
+     * the fleet (0 for ArrayRoadNS, k*numCars for replica k of
+     * EnsembleRoadNS): lane change, acceleration, dawdling, braking,
+     * breakdowns and movement, in the order of the car IDs. The new state of
+     * the lanes goes to helperRight/helperLeft and the setNext() of the lane
+     * indices.
+     * @return The number of cars which passed the end of the road.
+     */
+    static int applyRules(SimulationConfig config, Fleet fleet, int first, int numCars,
+            int[] rightLane, int[] leftLane, LaneIndex rightIndex, LaneIndex leftIndex, int[] helperRight, int[] helperLeft,
+            RandomStreams streams, RoadStatistics statistics, LoopDetectors detectors) {
+        final VehicleClasses classes = config.vehicleClasses;
+        final int roadSize = config.roadSize;
+        final int noCarSpeed = config.maxSpeedFastCar;
+        final byte[] type = fleet.type;
+        final int[] lane = fleet.lane;
+        final int[] position = fleet.position;
+        final int[] speed = fleet.speed;
+        final int[] maxSpeed = fleet.maxSpeed;
+        final int[] traveledDistance = fleet.traveledDistance;
+        final int[] maxReachedSpeed = fleet.maxReachedSpeed;
+        final boolean[] brokenDown = fleet.brokenDown;
+        final int[] acceleration = classes.acceleration;
+        final int[] slack = classes.slack;
+        final int[] lookAhead = classes.lookAhead;
+        int numCarsPassingEnd = 0;
+
+        for (int c = 0, idx = first; c < numCars; c++, idx++) {
+            int t = type[idx];
+            int l = lane[idx];
+            int pos = position[idx];
+            int v = speed[idx];
+
+            int[] arr, otherArr;
+            LaneIndex index, otherIndex;
+            if (l == RoadNS.RIGHT_LANE) {
+                arr = rightLane; index = rightIndex; otherArr = leftLane; otherIndex = leftIndex;
+            } else {
+                arr = leftLane; index = leftIndex; otherArr = rightLane; otherIndex = rightIndex;
+            }
+
+            if (brokenDown[idx]) {
+                // if it broke decelerate by 1 until it stops
+                v = v == 0 ? 0 : v - 1;
+            } else {
+                // neighbours, see RoadNS.moveCar()
+                int i = index.front(pos);
+                int frontSpeed = i == -1 ? noCarSpeed : arr[i];
+                int frontDistance = i == -1 ? Integer.MAX_VALUE : (i > pos ? i - pos - 1 : i + roadSize - pos - 1);
+
+                i = otherIndex.front(pos - 1);
+                int frontNextSpeed = i == -1 ? noCarSpeed : otherArr[i];
+                int frontNextDistance = i == -1 ? Integer.MAX_VALUE : (i > pos - 1 ? i - pos : i + roadSize - pos);
+
+                i = otherIndex.behind(pos + 1);
+                int behindNextDistance = i == -1 ? Integer.MAX_VALUE : (i < pos + 1 ? pos - i : pos + roadSize - i);
+
+                if (Probes.ENABLED) {
+                    Probes.neighbourLookup(Math.min(frontDistance, roadSize));
+                    Probes.neighbourLookup(Math.min(frontNextDistance, roadSize));
+                    Probes.neighbourLookup(Math.min(behindNextDistance, roadSize));
+                }
+
+                // lane change, see CarNS.adaptSpeed()
+                boolean goodGapToChange = behindNextDistance >= config.maxSpeedFastCar && frontNextDistance >= v;
+
+                if (frontDistance <= lookAhead[t] || frontNextDistance <= lookAhead[t]) {
+                    if (config.applySymmetricRule && v == 0) {
+                        // symmetric rule - paper section VIII-B
+                        if (goodGapToChange && frontNextDistance > frontDistance)
+                            l = 3 - l;
+                    } else if (l == RoadNS.RIGHT_LANE) {
+                        if ((frontSpeed <= v || frontNextSpeed <= v) && goodGapToChange)
+                            l = RoadNS.LEFT_LANE;
+                    } else {
+                        if (frontSpeed > v + slack[t] && frontNextSpeed > v + slack[t] && goodGapToChange)
+                            l = RoadNS.RIGHT_LANE;
+                    }
+                }
+
+                // forward movement - paper section VI-B
+                if (v < maxSpeed[idx]) v += acceleration[t];
+                if (v > frontDistance) v = frontDistance;
+                if (v >= 1 && streams.dawdles(c)) {
+                    v--;
+                    if (Probes.ENABLED) Probes.increment(Probes.DAWDLES);
+                }
+
+                if (maxReachedSpeed[idx] < v) maxReachedSpeed[idx] = v;
+            }
+
+            if (classes.breaksDown[t]) breakDown(fleet, idx, classes, t, streams, v);
+
+            // move, see RoadNS.moveCar() and CarNS.setPosition()
+            int newPosition = Math.floorMod(pos + v, roadSize);
+            if (pos + v >= roadSize) {
+                numCarsPassingEnd++;
+                traveledDistance[idx] += roadSize - pos + newPosition;
+            } else traveledDistance[idx] += newPosition - pos;
+
+            if (l != lane[idx]) {
+                statistics.addLaneChange(t);
+                if (Probes.ENABLED) Probes.increment(l == RoadNS.LEFT_LANE ? Probes.LANE_CHANGES_LEFT : Probes.LANE_CHANGES_RIGHT);
+            }
+            statistics.addCar(t, l, v);
+            if (detectors != null) detectors.addMove(t, l, pos, v, newPosition);
+
+            speed[idx] = v;
+            lane[idx] = l;
+            position[idx] = newPosition;
+
+            if (l == RoadNS.LEFT_LANE) {
+                helperLeft[newPosition] = v;
+                leftIndex.setNext(newPosition);
+            } else {
+                helperRight[newPosition] = v;
+                rightIndex.setNext(newPosition);
+            }
+        }
+        return numCarsPassingEnd;
+    }
+
+    /*
+     * Same as applyRules(), with the rules evaluated by the kernel.
+     */
+    private void applyKernel() {
+        final int roadSize = config.roadSize;
+        final int noCarSpeed = config.maxSpeedFastCar;
+        final int[] lane = fleet.lane;
+        final int[] position = fleet.position;
+        final int[] speed = fleet.speed;
+        final int[] traveledDistance = fleet.traveledDistance;
+        final boolean[] brokenDown = fleet.brokenDown;
+
+        // gather the neighbourhood of every car ("no car" gap = roadSize)
+        for (int c = 0; c < numCars; c++) {
+            int pos = position[c];
+            boolean active = !brokenDown[c];
+            kernel.active[c] = active;
+            if (!active) continue;
+
+            int[] arr, otherArr;
+            LaneIndex index, otherIndex;
+            if (lane[c] == RoadNS.RIGHT_LANE) {
+                arr = rightLane; index = rightIndex; otherArr = leftLane; otherIndex = leftIndex;
+            } else {
+                arr = leftLane; index = leftIndex; otherArr = rightLane; otherIndex = rightIndex;
+            }
+
+            int i = index.front(pos);
+            kernel.frontSpeed[c] = i == -1 ? noCarSpeed : arr[i];
+            kernel.frontGap[c] = i == -1 ? roadSize : (i > pos ? i - pos - 1 : i + roadSize - pos - 1);
+
+            i = otherIndex.front(pos - 1);
+            kernel.frontNextSpeed[c] = i == -1 ? noCarSpeed : otherArr[i];
+            kernel.frontNextGap[c] = i == -1 ? roadSize : (i > pos - 1 ? i - pos : i + roadSize - pos);
+
+            i = otherIndex.behind(pos + 1);
+            kernel.behindNextGap[c] = i == -1 ? roadSize : (i < pos + 1 ? pos - i : pos + roadSize - i);
+
+            if (Probes.ENABLED) {
+                Probes.neighbourLookup(kernel.frontGap[c]);
+                Probes.neighbourLookup(kernel.frontNextGap[c]);
+                Probes.neighbourLookup(kernel.behindNextGap[c]);
+            }
+        }
+
+        kernel.apply(fleet, streams.getDawdleFlags());
+
+        // breakdowns and movement, in the order of the cars
+        for (int c = 0; c < numCars; c++) {
+            int pos = position[c];
+            int v = speed[c];
+
+            if (classes.breaksDown[fleet.type[c]]) breakDown(fleet, c, classes, fleet.type[c], streams, v);
+
+            int newPosition = Math.floorMod(pos + v, roadSize);
+            if (pos + v >= roadSize) {
+                numCarsPassingEnd++;
+                traveledDistance[c] += roadSize - pos + newPosition;
+            } else traveledDistance[c] += newPosition - pos;
+            position[c] = newPosition;
+            if (kernel.changedLane[c]) {
+                statistics.addLaneChange(fleet.type[c]);
+                if (Probes.ENABLED) Probes.increment(lane[c] == RoadNS.LEFT_LANE ? Probes.LANE_CHANGES_LEFT : Probes.LANE_CHANGES_RIGHT);
+            }
+            statistics.addCar(fleet.type[c], lane[c], v);
+            if (detectors != null) detectors.addMove(fleet.type[c], lane[c], pos, v, newPosition);
+
+            if (lane[c] == RoadNS.LEFT_LANE) {
+                helperLeft[newPosition] = v;
+                leftIndex.setNext(newPosition);
+            } else {
+                helperRight[newPosition] = v;
+                rightIndex.setNext(newPosition);
+            }
+        }
+    }
+
+    /*
+     * Breaking down and getting repaired of the car at index idx of the fleet,
+     * of a class t which breaks down, after its speed v of the step is known.
+     */
+    private static void breakDown(Fleet fleet, int idx, VehicleClasses classes, int t, RandomStreams streams, int v) {
+        double rand = streams.nextBreakdown();
+        if (fleet.brokenDown[idx]) {
+            double repairProbability = classes.repairProbability[t];
+            if (repairProbability > 0 && rand > 1 - repairProbability) {
+                fleet.brokenDown[idx] = false;
+                if (Probes.ENABLED) Probes.increment(Probes.REPAIRS);
+            }
+        } else if (rand < classes.breakdownProbability[t]) {
+            fleet.brokenDown[idx] = true;
+            if (Probes.ENABLED) Probes.increment(Probes.BREAKDOWNS);
+        }
+        if (fleet.maxReachedSpeed[idx] < v) fleet.maxReachedSpeed[idx] = v;
+    }
+
+    private void swapLanes() {
+        int[] tmp = rightLane;
+        rightLane = helperRight;
+        helperRight = tmp;
+        tmp = leftLane;
+        leftLane = helperLeft;
+        helperLeft = tmp;
+        rightIndex.nextState(rightLane);
+        leftIndex.nextState(leftLane);
+    }
+
+    @Override
+    public void printTrafficSituation() {
+        StringBuilder traffic_rightLane = new StringBuilder("|"), traffic_leftLane = new StringBuilder("|");
+
+        for (int i = 0; i < rightLane.length; i++) {
+            traffic_rightLane.append(RoadNS.toSymbol(rightLane[i]));
+            traffic_leftLane.append(RoadNS.toSymbol(leftLane[i]));
+        }
+
+        traffic_rightLane.append('|');
+        traffic_leftLane.append('|');
+
+        System.out.println(traffic_leftLane + "\n" + traffic_rightLane + "\n");
+    }
+
+    @Override
+    public double getFlow(int numIterations) {
+        int totalDistance = fleet.getTotalDistance();
+        return Math.round(totalDistance * 100/numIterations) /100.0;    // round up to 2 digit after zero
+    }
+
+    @Override
+    public double getFlow2(int numIterations) {
+        return Math.round(numCarsPassingEnd * 100/numIterations) /100.0;    // round up to 2 digit after zero
+    }
+
+    @Override
+    public void clearStatistics() {
+        Arrays.fill(fleet.traveledDistance, 0);
+        Arrays.fill(fleet.maxReachedSpeed, -1);
+        numCarsPassingEnd = 0;
+        statistics.clear();
+        if (detectors != null) detectors.clear();
+    }
+
+    @Override
+    public LoopDetectors getDetectors() {
+        return detectors;
+    }
+
+    @Override
+    public RoadStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public int getNumCars() {
+        return numCars;
+    }
+
+    @Override
+    public int getCarType(int car) {
+        return fleet.type[car];
+    }
+
+    @Override
+    public int getCarLane(int car) {
+        return fleet.lane[car];
+    }
+
+    @Override
+    public int getCarPosition(int car) {
+        return fleet.position[car];
+    }
+
+    @Override
+    public int getCarSpeed(int car) {
+        return fleet.speed[car];
+    }
+
+    @Override
+    public int getCarColor(int car) {
+        return fleet.color[car];
+    }
+
+    @Override
+    public int getTraveledDistance(int car) {
+        return fleet.traveledDistance[car];
+    }
+
+    @Override
+    public int getMaxReachedSpeed(int car) {
+        return fleet.maxReachedSpeed[car];
+    }
+}
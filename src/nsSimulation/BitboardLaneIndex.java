@@ -0,0 +1,89 @@
+package nsSimulation;
+
+import java.util.Arrays;
+
+/*==============================================================================
+Lane index which keeps the occupancy of the lane as a bitset (bit i of word
+i/64 is set if there is a car in cell i).
+
+A lookup skips 64 empty cells per word with Long.numberOfTrailingZeros /
+numberOfLeadingZeros, so it costs O(gap/64) instead of O(gap). The bitset of
+the next state is filled while the step writes the next lane and then
+swapped, so the index never rescans the lane.
+==============================================================================*/
+
+public class BitboardLaneIndex implements LaneIndex {
+
+    private long[] bits;                // occupancy of the current lane
+    private long[] nextBits;            // occupancy of the next lane, filled during a step
+
+    public BitboardLaneIndex(int roadSize) {
+        bits = new long[(roadSize + 63) >>> 6];
+        nextBits = new long[bits.length];
+    }
+
+    @Override
+    public void update(int[] lane) {
+        Arrays.fill(bits, 0L);
+        for (int i = 0; i < lane.length; i++) {
+            if (lane[i] != -1) bits[i >>> 6] |= 1L << i;
+        }
+    }
+
+    @Override
+    public void clearNext() {
+        Arrays.fill(nextBits, 0L);
+    }
+
+    @Override
+    public void setNext(int cell) {
+        nextBits[cell >>> 6] |= 1L << cell;
+    }
+
+    @Override
+    public void nextState(int[] lane) {
+        long[] tmp = bits;
+        bits = nextBits;
+        nextBits = tmp;
+    }
+
+    @Override
+    public int front(int position) {
+        int start = position + 1;
+        int w = start >>> 6;
+        if (w < bits.length) {
+            long word = bits[w] & (-1L << start);       // drop the cells before start
+            while (true) {
+                if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+                if (++w == bits.length) break;
+                word = bits[w];
+            }
+        }
+
+        // continue searching from the beginning of the lane
+        for (w = 0; w < bits.length; w++) {
+            if (bits[w] != 0) return (w << 6) + Long.numberOfTrailingZeros(bits[w]);
+        }
+        return -1;  // no car
+    }
+
+    @Override
+    public int behind(int position) {
+        int start = position - 1;
+        if (start >= 0) {
+            int w = start >>> 6;
+            long word = bits[w] & (-1L >>> (63 - (start & 63)));     // drop the cells after start
+            while (true) {
+                if (word != 0) return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+                if (--w < 0) break;
+                word = bits[w];
+            }
+        }
+
+        // continue searching from the end of the lane
+        for (int w = bits.length - 1; w >= 0; w--) {
+            if (bits[w] != 0) return (w << 6) + 63 - Long.numberOfLeadingZeros(bits[w]);
+        }
+        return -1;  // no car
+    }
+}
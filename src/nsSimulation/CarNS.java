@@ -1,11 +1,14 @@
 package nsSimulation;
 
 import java.awt.Color;
-import java.util.Random;
 
 /*==============================================================================
 Implement Car class for NS model based on 
 Nagel, K., Wolf, D. E., Wagner, P., & Simon, P. (1998). Two-lane traffic rules for cellular automata: A systematic approach. Physical Review E, 58(2), 1425–1437. http://doi.org/10.1103/PhysRevE.58.1425
+
+Every class of vehicle (slow, fast, the broken car, additional classes) is
+a CarNS with a type id; its parameters are the row of that id in
+VehicleClasses, so there is no subclass per class.
 ===============================================================================*/
 
 /*
@@ -22,6 +25,7 @@ Nagel, K., Wolf, D. E., Wagner, P., & Simon, P. (1998). Two-lane traffic rules f
 public class CarNS {
 
     protected int ID;
+    protected final byte type;                  // row of VehicleClasses
     protected int speed;
     protected int lane;
     protected int position;
@@ -29,18 +33,47 @@ public class CarNS {
     protected Color color;
     protected int traveledDistance;
     protected int maxReachedSpeed = -1;
+    protected final SimulationConfig config;
+    protected final RandomStreams streams;      // random numbers of the road, shared by its cars
+    protected final VehicleClasses classes;
+    protected boolean isBrokenDown = false;
 
-    public CarNS(int ID, int lane, int position) {
+    /*
+    Constructor, the state of the car comes from a Fleet (see RoadNS.generateCars())
+    or a RoadSnapshot. Nothing is drawn from the streams.
+    Input:
+        ID          ID of car, for debugging purpose
+        type        type id of car, RoadNS.TYPE_CAR_* or an additional class
+        lane        lane of car
+        position    position of car
+        speed       speed of car
+        color       RGB colour of car
+        isBrokenDown  the car is broken down
+        config      configuration of the simulation run
+        streams     random numbers of the road
+    */
+    public CarNS(int ID, int type, int lane, int position, int speed, int color, boolean isBrokenDown, SimulationConfig config, RandomStreams streams) {
+        this.config = config;
+        this.streams = streams;
+        this.classes = config.vehicleClasses;
         this.ID = ID;
+        this.type = (byte) type;
         this.lane = lane;
         this.position = position;
-        this.traveledDistance = 0;
+        this.speed = speed;
+        this.color = new Color(color);
+        this.maxSpeed = classes.maxSpeed[type];
+        this.isBrokenDown = isBrokenDown;
     }
     
     public void clearTraveledDistance() {
         traveledDistance = 0;
     }
 
+    public void clearMaxReachedSpeed() {
+        maxReachedSpeed = -1;
+    }
+
     public int getTraveledDistance() {
         return traveledDistance;
     }
@@ -72,8 +105,8 @@ public class CarNS {
     }
 
     public void setPosition(int newPosition) {
-        if (this.position + speed >= TrafficSimulation.ROAD_SIZE) {
-            traveledDistance += TrafficSimulation.ROAD_SIZE - this.position;
+        if (this.position + speed >= config.roadSize) {
+            traveledDistance += config.roadSize - this.position;
             traveledDistance += newPosition;
         } else traveledDistance += newPosition - this.position;
         
@@ -88,14 +121,31 @@ public class CarNS {
         return color;
     }
 
+    /*
+     * @return RoadNS.TYPE_CAR_SLOW, RoadNS.TYPE_CAR_FAST, RoadNS.TYPE_CAR_BROKEN or an additional class
+     */
+    public int getTypeId() {
+        return type;
+    }
+
+    public boolean isBrokenDown() {
+        return isBrokenDown;
+    }
+
+    /*
+     * Breaks the car down or repairs it (what-if runs, see RoadSnapshot). A
+     * car of a class which does not break down is not repaired by chance.
+     */
+    public void setBrokenDown(boolean isBrokenDown) {
+        this.isBrokenDown = isBrokenDown;
+    }
+
     public String getType() {
-        switch (this.getClass().toString()) {
-            case "class nsSimulation.SlowCarNS":
-                return "S";
-            case "class nsSimulation.FastCarNS":
-                return "F";
-        }
-        return "E";
+        int type = getTypeId();
+        if (type == RoadNS.TYPE_CAR_SLOW) return "S";
+        if (type == RoadNS.TYPE_CAR_FAST) return "F";
+        if (type == RoadNS.TYPE_CAR_BROKEN) return "E";
+        return classes.getName(type);
     }
 
     @Override
@@ -104,9 +154,36 @@ public class CarNS {
     }
 
     /*
-     * This method adjusts the speed of the car based on neighbour cars
+     * This method adjusts the speed of the car based on neighbour cars.
+     * A car of a class which breaks down decelerates by 1 until it stops
+     * while it is broken down.
      */
     public int adaptSpeed(SpeedDistance carFront, SpeedDistance carFrontNextLane, SpeedDistance carBehindNextLane){
+        if (isBrokenDown) { // if it broke decelerate by 1 until it stops
+            speed = speed == 0 ? 0 : speed - 1;
+        } else changeLaneAndMove(carFront, carFrontNextLane, carBehindNextLane);
+
+        if (classes.breaksDown[type]) {
+            double rand = streams.nextBreakdown();
+            double repairProbability = classes.repairProbability[type];
+            if (isBrokenDown) {
+                if (repairProbability > 0 && rand > 1 - repairProbability) { // car gets fixed with a small probability
+                    isBrokenDown = false;
+                    if (Probes.ENABLED) Probes.increment(Probes.REPAIRS);
+                }
+            } else {
+                if (rand < classes.breakdownProbability[type]) { // car breaks down with a small probability
+                    isBrokenDown = true;
+                    if (Probes.ENABLED) Probes.increment(Probes.BREAKDOWNS);
+                }
+            }
+        }
+
+        setMaxReachedSpeed(speed);
+        return speed;
+    }
+
+    private void changeLaneAndMove(SpeedDistance carFront, SpeedDistance carFrontNextLane, SpeedDistance carBehindNextLane){
             
 //        if (TrafficSimulation.DEBUG)
 //            System.out.print("Lane " + lane + " pos " + position + " speed " + speed + 
@@ -114,12 +191,15 @@ public class CarNS {
 //                    ", sFrontNext " + carFrontNextLane.getSpeed() + ", dFrontNext " + carFrontNextLane.getDistance() + 
 //                    ", sBehindNext " + carBehindNextLane.getSpeed() + " dBehindNext " + carBehindNextLane.getDistance() + ". ");
 
-        boolean goodGapToChange = (carBehindNextLane.getDistance() >= TrafficSimulation.MAX_SPEED_FAST_CAR && carFrontNextLane.getDistance() >= speed);
+        int oldLane = lane;
+        boolean goodGapToChange = (carBehindNextLane.getDistance() >= config.maxSpeedFastCar && carFrontNextLane.getDistance() >= speed);
         
-        if (carFront.getDistance() <= TrafficSimulation.DISTANCE_TO_LOOK_AHEAD || carFrontNextLane.getDistance() <= TrafficSimulation.DISTANCE_TO_LOOK_AHEAD){            
+        int lookAhead = classes.lookAhead[type];
+        int slack = classes.slack[type];
+        if (carFront.getDistance() <= lookAhead || carFrontNextLane.getDistance() <= lookAhead){            
             
             if (lane==RoadNS.RIGHT_LANE) {                
-                if (TrafficSimulation.APPLY_SYMMETRIC_RULE && speed==0){
+                if (config.applySymmetricRule && speed==0){
                     // symmetric rule - paper section VIII-B
                     if (goodGapToChange && carFrontNextLane.getDistance()>carFront.getDistance()){
 //                    if (goodGapToChange){
@@ -133,7 +213,7 @@ public class CarNS {
                         System.out.print("Change to left lane. ");  
                 }
             } else {                
-                if (TrafficSimulation.APPLY_SYMMETRIC_RULE && speed==0){
+                if (config.applySymmetricRule && speed==0){
                     // symmetric rule - paper section VIII-B
                     if (goodGapToChange && carFrontNextLane.getDistance()>carFront.getDistance()){
 //                    if (goodGapToChange){
@@ -141,7 +221,7 @@ public class CarNS {
                         if (TrafficSimulation.DEBUG)
                             System.out.print("Change to left lane. ");                          
                     }
-                } else if ((carFront.getSpeed() > (speed + TrafficSimulation.SLACK) && carFrontNextLane.getSpeed() > (speed + TrafficSimulation.SLACK)) && goodGapToChange) {
+                } else if ((carFront.getSpeed() > (speed + slack) && carFrontNextLane.getSpeed() > (speed + slack)) && goodGapToChange) {
                     lane = RoadNS.RIGHT_LANE;     // switch lane
                     if (TrafficSimulation.DEBUG)
                         System.out.print("Change to right lane. ");                      
@@ -149,16 +229,18 @@ public class CarNS {
             }            
         }
         
+        if (Probes.ENABLED && lane != oldLane)
+            Probes.increment(lane == RoadNS.LEFT_LANE ? Probes.LANE_CHANGES_LEFT : Probes.LANE_CHANGES_RIGHT);
+        
         // forward movement - paper section VI-B
-        if (speed < maxSpeed) speed += TrafficSimulation.MAX_ACCELERATION;
+        if (speed < maxSpeed) speed += classes.acceleration[type];
         if (speed > carFront.getDistance()) speed = carFront.getDistance();
         if (speed >= 1){
-            Random r = new Random();
-            if (r.nextDouble() < TrafficSimulation.PROBABILITY_FLUCTUATION) speed--;
+            if (streams.dawdles(ID)) {              // with PROBABILITY_FLUCTUATION, see RandomStreams
+                speed--;
+                if (Probes.ENABLED) Probes.increment(Probes.DAWDLES);
+            }
         }
-        
-        setMaxReachedSpeed(speed);
-        return speed;
     }
     
 }
@@ -0,0 +1,269 @@
+package nsSimulation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/*==============================================================================
+Reads a file written by ColumnarResultSink through a memory mapping.
+
+The rows can be filtered by ranges of columns (e.g. density, fast car ratio
+or the max speeds). A block is skipped when the min/max of a filtered column
+shows that no row of it can match, without decoding anything; otherwise the
+filtered columns are decoded first, and the other columns only if some row
+of the block matches.
+
+As a tool it exports a file to CSV on the standard output:
+    java nsSimulation.ColumnarResultReader simulations.nsr [column=min:max ...]
+e.g. density=0.1:0.15 max_speed_fast=8:8 (the names of ResultColumns).
+==============================================================================*/
+
+public class ColumnarResultReader implements Closeable {
+
+    private static final int COLUMN_HEADER_SIZE = 8 + 8 + 4 + 4;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer map;
+
+    private final Inflater inflater = new Inflater();
+    private byte[] compressed = new byte[0];
+    private byte[] raw = new byte[0];
+    private final long[][] values = new long[ResultColumns.NUM_COLUMNS][0];
+    private boolean[] match = new boolean[0];
+
+    private int numBlocks;
+    private int numBlocksDecoded;
+
+    /*
+     * A range [min, max] (inclusive) of the values of a column.
+     */
+    public static final class Range {
+        final int column;
+        final double min;
+        final double max;
+
+        public Range(int column, double min, double max) {
+            this.column = column;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * @param spec column=min:max, or column=value
+         */
+        public static Range parse(String spec) {
+            int eq = spec.indexOf('=');
+            int column = eq < 0 ? -1 : ResultColumns.find(spec.substring(0, eq));
+            if (column < 0) throw new IllegalArgumentException("Expected column=min:max: " + spec);
+            String value = spec.substring(eq + 1);
+            int colon = value.indexOf(':');
+            if (colon < 0) {
+                double v = Double.parseDouble(value);
+                return new Range(column, v, v);
+            }
+            return new Range(column, Double.parseDouble(value.substring(0, colon)), Double.parseDouble(value.substring(colon + 1)));
+        }
+
+        boolean contains(double v) {
+            return v >= min && v <= max;
+        }
+    }
+
+    public ColumnarResultReader(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("File too large to map: " + path);
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.remaining() < 12 || map.getInt(0) != ColumnarResultSink.MAGIC)
+                throw new IOException("Not a result file: " + path);
+            if (map.getInt(4) != ColumnarResultSink.VERSION)
+                throw new IOException("Unsupported version " + map.getInt(4) + ": " + path);
+            if (map.getInt(8) != ResultColumns.NUM_COLUMNS)
+                throw new IOException("Unexpected number of columns " + map.getInt(8) + ": " + path);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands the matching rows to a sink, in the order in which they were written.
+     * @param sink The destination of the rows (not closed).
+     * @param filters The ranges a row must be in (all of them).
+     */
+    public void read(ResultSink sink, Range... filters) throws IOException {
+        ByteBuffer b = map.duplicate();
+        b.position(12);
+        numBlocks = 0;
+        numBlocksDecoded = 0;
+
+        while (b.remaining() >= 4) {
+            int numRows = b.getInt();
+            if (numRows == 0) return;           // end of file
+            int header = b.position();
+            int data = header + ResultColumns.NUM_COLUMNS * COLUMN_HEADER_SIZE;
+            if (numRows < 0 || data > b.limit()) throw new IOException("Corrupt or truncated file");
+
+            // offsets of the columns
+            int[] offset = new int[ResultColumns.NUM_COLUMNS + 1];
+            offset[0] = data;
+            for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+                offset[c + 1] = offset[c] + b.getInt(header + c * COLUMN_HEADER_SIZE + 20);
+            }
+            if (offset[ResultColumns.NUM_COLUMNS] > b.limit()) throw new IOException("Corrupt or truncated file");
+            b.position(offset[ResultColumns.NUM_COLUMNS]);
+            numBlocks++;
+
+            // skip the block if a filter excludes all of its rows
+            boolean skip = false;
+            for (Range f : filters) {
+                double lo = ResultColumns.toDouble(f.column, b.getLong(header + f.column * COLUMN_HEADER_SIZE));
+                double hi = ResultColumns.toDouble(f.column, b.getLong(header + f.column * COLUMN_HEADER_SIZE + 8));
+                if (hi < f.min || lo > f.max) skip = true;
+            }
+            if (skip) continue;
+            numBlocksDecoded++;
+
+            // filtered columns first
+            if (match.length < numRows) match = new boolean[numRows];
+            for (int i = 0; i < numRows; i++) {
+                match[i] = true;
+            }
+            boolean[] decoded = new boolean[ResultColumns.NUM_COLUMNS];
+            for (Range f : filters) {
+                if (!decoded[f.column]) decodeColumn(b, header, offset, f.column, numRows);
+                decoded[f.column] = true;
+                long[] v = values[f.column];
+                for (int i = 0; i < numRows; i++) {
+                    match[i] &= f.contains(ResultColumns.toDouble(f.column, v[i]));
+                }
+            }
+            boolean any = false;
+            for (int i = 0; i < numRows; i++) {
+                any |= match[i];
+            }
+            if (!any) continue;
+
+            for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+                if (!decoded[c]) decodeColumn(b, header, offset, c, numRows);
+            }
+            for (int i = 0; i < numRows; i++) {
+                if (!match[i]) continue;
+                RunResult r = new RunResult();
+                for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+                    ResultColumns.set(r, c, values[c][i]);
+                }
+                sink.accept(r);
+            }
+        }
+    }
+
+    private void decodeColumn(ByteBuffer b, int header, int[] offset, int column, int numRows) throws IOException {
+        int rawLength = b.getInt(header + column * COLUMN_HEADER_SIZE + 16);
+        int compressedLength = offset[column + 1] - offset[column];
+        if (compressed.length < compressedLength) compressed = new byte[compressedLength];
+        if (raw.length < rawLength) raw = new byte[rawLength];
+        ByteBuffer src = b.duplicate();
+        src.position(offset[column]);
+        src.get(compressed, 0, compressedLength);
+
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            if (inflater.inflate(raw, 0, rawLength) != rawLength) throw new IOException("Corrupt column " + column);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt column " + column, e);
+        }
+
+        if (values[column].length < numRows) values[column] = new long[numRows];
+        long[] v = values[column];
+        boolean isDouble = ResultColumns.getType(column) == ResultColumns.DOUBLE;
+        long previous = 0;
+        int p = 0;
+        for (int i = 0; i < numRows; i++) {
+            long d = 0;
+            int shift = 0;
+            byte x;
+            do {
+                if (p == rawLength) throw new IOException("Corrupt column " + column);
+                x = raw[p++];
+                d |= (long) (x & 0x7f) << shift;
+                shift += 7;
+            } while (x < 0);
+            previous = isDouble ? previous ^ d : previous + ColumnarResultSink.unzigzag(d);
+            v[i] = previous;
+        }
+    }
+
+    /**
+     * @return The matching rows.
+     */
+    public List<RunResult> readAll(Range... filters) throws IOException {
+        final List<RunResult> rows = new ArrayList<>();
+        read(new ResultSink() {
+            @Override
+            public void accept(RunResult result) {
+                rows.add(result);
+            }
+
+            @Override
+            public void close() {
+            }
+        }, filters);
+        return rows;
+    }
+
+    /**
+     * Writes the matching rows as CSV (the format of simulations.csv).
+     * @param out The destination, closed when done.
+     */
+    public void exportCsv(OutputStream out, Range... filters) throws IOException {
+        try (ResultSink csv = new CsvResultSink(out)) {
+            read(csv, filters);
+        }
+    }
+
+    /*
+     * @return The number of blocks seen by the last read().
+     */
+    public int getNumBlocks() {
+        return numBlocks;
+    }
+
+    /*
+     * @return The number of blocks the last read() had to decode (the others were skipped).
+     */
+    public int getNumBlocksDecoded() {
+        return numBlocksDecoded;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        file.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: ColumnarResultReader file.nsr [column=min:max ...]");
+            System.exit(2);
+        }
+        Range[] filters = new Range[args.length - 1];
+        for (int i = 1; i < args.length; i++) {
+            filters[i - 1] = Range.parse(args[i]);
+        }
+        try (ColumnarResultReader reader = new ColumnarResultReader(new File(args[0]))) {
+            reader.exportCsv(System.out, filters);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package nsSimulation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/*==============================================================================
+Writes the results of a sweep in a binary, column oriented, block compressed
+file (simulations.nsr), see ColumnarResultReader.
+
+The results are collected in blocks of blockSize rows. A block stores every
+column (see ResultColumns) separately, so a reader only decodes the columns
+it needs, together with the minimum and the maximum of the column in the
+block, so a reader can skip the blocks which cannot match a filter. A column
+is encoded as varints of the differences between consecutive values (the
+XOR of consecutive bit patterns for DOUBLE columns), which turns the many
+repeated configuration values of a sweep into single zero bytes, and then
+compressed with Deflater.
+
+File layout (big endian, as DataOutputStream):
+    int MAGIC, int VERSION, int NUM_COLUMNS
+    blocks:
+        int rowCount (> 0)
+        per column: long min, long max, int rawLength, int compressedLength
+        per column: compressedLength bytes
+    int 0 (end of file)
+
+Blocks are encoded when they are full, on the thread calling accept(); a
+block takes far less time than a run.
+==============================================================================*/
+
+public class ColumnarResultSink implements ResultSink {
+
+    public static final int MAGIC = 0x4e535243;         // "NSRC"
+    public static final int VERSION = 3;
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    private final DataOutputStream out;
+    private final RunResult[] block;
+    private int numRows = 0;
+    private boolean closed = false;
+
+    private final Deflater deflater = new Deflater();
+    private final long[] min = new long[ResultColumns.NUM_COLUMNS];
+    private final long[] max = new long[ResultColumns.NUM_COLUMNS];
+    private final int[] rawLength = new int[ResultColumns.NUM_COLUMNS];
+    private final byte[][] compressed = new byte[ResultColumns.NUM_COLUMNS][];
+    private final int[] compressedLength = new int[ResultColumns.NUM_COLUMNS];
+    private byte[] raw;
+
+    /**
+     * @param out The destination, closed by close().
+     * @param blockSize The number of rows per block.
+     */
+    public ColumnarResultSink(OutputStream out, int blockSize) throws IOException {
+        if (blockSize <= 0) throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        block = new RunResult[blockSize];
+        raw = new byte[blockSize * 10];             // at most 10 bytes per varint
+
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+        this.out.writeInt(ResultColumns.NUM_COLUMNS);
+    }
+
+    public ColumnarResultSink(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    @Override
+    public void accept(RunResult result) throws IOException {
+        if (closed) throw new IOException("The sink is closed");
+        block[numRows++] = result;
+        if (numRows == block.length) writeBlock();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (numRows > 0) writeBlock();
+            out.writeInt(0);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+            encodeColumn(c);
+        }
+
+        out.writeInt(numRows);
+        for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+            out.writeLong(min[c]);
+            out.writeLong(max[c]);
+            out.writeInt(rawLength[c]);
+            out.writeInt(compressedLength[c]);
+        }
+        for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+            out.write(compressed[c], 0, compressedLength[c]);
+        }
+        out.flush();
+
+        for (int i = 0; i < numRows; i++) {
+            block[i] = null;
+        }
+        numRows = 0;
+    }
+
+    private void encodeColumn(int column) {
+        boolean isDouble = ResultColumns.getType(column) == ResultColumns.DOUBLE;
+        long lo = ResultColumns.get(block[0], column), hi = lo, previous = 0;
+        int length = 0;
+
+        for (int i = 0; i < numRows; i++) {
+            long v = ResultColumns.get(block[i], column);
+            if (ResultColumns.compare(column, v, lo) < 0) lo = v;
+            if (ResultColumns.compare(column, v, hi) > 0) hi = v;
+
+            long d = isDouble ? v ^ previous : zigzag(v - previous);
+            previous = v;
+            while ((d & ~0x7fL) != 0) {
+                raw[length++] = (byte) ((d & 0x7f) | 0x80);
+                d >>>= 7;
+            }
+            raw[length++] = (byte) d;
+        }
+        min[column] = lo;
+        max[column] = hi;
+        rawLength[column] = length;
+
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+        byte[] dst = compressed[column];
+        if (dst == null || dst.length < length + 64) dst = compressed[column] = new byte[length + 64];
+        int n = 0;
+        while (!deflater.finished()) {
+            if (n == dst.length) dst = compressed[column] = Arrays.copyOf(dst, 2 * dst.length);
+            n += deflater.deflate(dst, n, dst.length - n);
+        }
+        compressedLength[column] = n;
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
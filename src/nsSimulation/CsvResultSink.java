@@ -0,0 +1,162 @@
+package nsSimulation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*==============================================================================
+Writes the results of a sweep as CSV (the format of simulations.csv) on a
+dedicated writer thread.
+
+accept() only puts the record into a bounded queue; when the queue is full
+it blocks until the writer thread catches up (backpressure), so a slow disk
+cannot make the results pile up in memory. The writer thread takes the
+records in batches, formats them into one reusable buffer and writes the
+buffer when it holds flushSize characters, or when flushIntervalMillis have
+passed since the last write, whichever comes first. close() writes the
+remaining records and waits for the writer thread to end.
+==============================================================================*/
+
+public class CsvResultSink implements ResultSink {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_FLUSH_SIZE = 64 * 1024;         // characters
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;         // milliseconds
+
+    private static final RunResult END = new RunResult();           // put by close()
+    private static final String NEWLINE = System.lineSeparator();   // as PrintWriter.println()
+
+    private final BlockingQueue<RunResult> queue;
+    private final Writer out;
+    private final int flushSize;
+    private final long flushIntervalMillis;
+    private final Thread writerThread;
+
+    private final StringBuilder buffer;
+    private char[] chars;
+    private long lastWrite;
+
+    private volatile IOException failure;
+    private boolean closed = false;
+
+    /**
+     * @param out The destination, closed by close().
+     * @param header The first line, or null.
+     * @param queueCapacity The number of results accept() can run ahead of the writer.
+     * @param flushSize The number of characters after which the buffer is written.
+     * @param flushIntervalMillis The longest time a result stays in the buffer.
+     */
+    public CsvResultSink(OutputStream out, String header, int queueCapacity, int flushSize, long flushIntervalMillis) {
+        this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flushSize = flushSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        buffer = new StringBuilder(flushSize + 256);
+        chars = new char[flushSize + 256];
+        if (header != null) buffer.append(header).append(NEWLINE);
+
+        writerThread = new Thread(this::writeLoop, "CsvResultSink");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public CsvResultSink(OutputStream out) {
+        this(out, RunResult.CSV_HEADER, DEFAULT_QUEUE_CAPACITY, DEFAULT_FLUSH_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    @Override
+    public void accept(RunResult result) throws IOException {
+        if (closed) throw new IOException("The sink is closed");
+        checkFailure();
+        try {
+            queue.put(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            queue.put(END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) throw new IOException("Writing the results failed", e);
+    }
+
+    private void writeLoop() {
+        List<RunResult> batch = new ArrayList<>(queue.remainingCapacity());
+        lastWrite = System.currentTimeMillis();
+        boolean end = false;
+
+        while (!end) {
+            try {
+                RunResult first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                }
+            } catch (InterruptedException e) {
+                end = true;         // not expected, write what we have and stop
+            }
+
+            for (RunResult r : batch) {
+                if (r == END) {
+                    end = true;
+                    break;
+                }
+                r.appendCsv(buffer).append(NEWLINE);
+                if (buffer.length() >= flushSize) write();
+            }
+            batch.clear();
+
+            if (buffer.length() > 0 && (end || System.currentTimeMillis() - lastWrite >= flushIntervalMillis))
+                write();
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (failure == null) failure = e;
+        }
+    }
+
+    /*
+     * Writes and flushes the buffer. After a failure the results are dropped,
+     * so that accept() does not block forever; accept() and close() report it.
+     */
+    private void write() {
+        int length = buffer.length();
+        if (failure == null) {
+            if (chars.length < length) chars = new char[length];
+            buffer.getChars(0, length, chars, 0);
+            try {
+                out.write(chars, 0, length);
+                out.flush();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        buffer.setLength(0);
+        lastWrite = System.currentTimeMillis();
+    }
+}
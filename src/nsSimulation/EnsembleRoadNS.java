@@ -0,0 +1,248 @@
+package nsSimulation;
+
+/*==============================================================================
+K replicas of the same road, advanced in lockstep.
+
+The replicas share one configuration and differ only in their seed. Their
+cars are stored in one Fleet, replica after replica: car c of replica k is
+at index k*numCars + c, so that the step of a replica runs over its own
+contiguous part of the arrays. Every replica has its own lanes, lane
+indices and RandomStreams, and one step applies the rules of ArrayRoadNS
+(the same ArrayRoadNS.applyRules(), from the first car of the replica) to
+the replicas one after the other, each in the order of its car IDs, so a
+replica gives the same result as an ArrayRoadNS run with its seed.
+
+This is meant for the repetitions of small roads, where a run is dominated
+by setting up the road and warming up the caches rather than by the steps.
+The statistics of a replica are read through getReplica(), which returns a
+RoadView: a replica cannot be advanced on its own.
+==============================================================================*/
+
+public class EnsembleRoadNS {
+
+    private final SimulationConfig config;
+    private final int numReplicas;
+    private final int numCars;                  // per replica
+    private final Fleet fleet;                  // index k*numCars + c
+
+    private final int[] numCarsPassingEnd;
+
+    // [replica][cell] = current speed of car (or -1 if no car)
+    private final int[][] rightLane;
+    private final int[][] leftLane;
+
+    private final int[][] helperRight;
+    private final int[][] helperLeft;
+
+    private final LaneIndex[] rightIndex;
+    private final LaneIndex[] leftIndex;
+
+    private final RandomStreams[] streams;
+    private final VehicleClasses classes;
+    private final RoadStatistics[] statistics;
+    private final LoopDetectors[] detectors;    // null: none
+
+    /**
+     * @param config The configuration shared by the replicas (its seed is not used).
+     * @param seeds The seed of every replica, the number of replicas is seeds.length.
+     */
+    public EnsembleRoadNS(SimulationConfig config, long[] seeds) {
+        if (seeds.length == 0) throw new IllegalArgumentException("An ensemble needs at least one replica");
+        this.config = config;
+        numReplicas = seeds.length;
+        numCars = config.getNumCars();
+
+        fleet = new Fleet(numCars * numReplicas);
+        numCarsPassingEnd = new int[numReplicas];
+        rightLane = new int[numReplicas][config.roadSize];
+        leftLane = new int[numReplicas][config.roadSize];
+        helperRight = new int[numReplicas][config.roadSize];
+        helperLeft = new int[numReplicas][config.roadSize];
+        rightIndex = new LaneIndex[numReplicas];
+        leftIndex = new LaneIndex[numReplicas];
+        streams = new RandomStreams[numReplicas];
+        statistics = new RoadStatistics[numReplicas];
+        detectors = config.detectors.isEmpty() ? null : new LoopDetectors[numReplicas];
+        classes = config.vehicleClasses;
+
+        for (int k = 0; k < numReplicas; k++) {
+            streams[k] = new RandomStreams(seeds[k], numCars, config.probabilityFluctuation);
+            statistics[k] = new RoadStatistics(config.roadSize, classes.size());
+            if (detectors != null) detectors[k] = new LoopDetectors(config);
+            fleet.generateCars(config, streams[k].placement(), k*numCars);
+            streams[k].setDawdleProbabilities(classes, fleet.type, k*numCars);
+
+            for (int i = 0; i < config.roadSize; i++) {
+                rightLane[k][i] = -1;
+                leftLane[k][i] = -1;
+            }
+            for (int c = 0; c < numCars; c++) {
+                int idx = k*numCars + c;
+                if (fleet.lane[idx] == RoadNS.RIGHT_LANE) rightLane[k][fleet.position[idx]] = fleet.speed[idx];
+                else leftLane[k][fleet.position[idx]] = fleet.speed[idx];
+            }
+
+            rightIndex[k] = LaneIndex.create(config);
+            leftIndex[k] = LaneIndex.create(config);
+            rightIndex[k].update(rightLane[k]);
+            leftIndex[k].update(leftLane[k]);
+        }
+    }
+
+    /*
+     * Calculates the next state of all replicas (one time step).
+     */
+    public void nextState() {
+        for (int k = 0; k < numReplicas; k++) {
+            int[] hr = helperRight[k], hl = helperLeft[k];
+            for (int i = 0; i < hr.length; i++) {
+                hr[i] = -1;
+                hl[i] = -1;
+            }
+            rightIndex[k].clearNext();
+            leftIndex[k].clearNext();
+            streams[k].nextStep();
+        }
+
+        // the cars of replica k are at k*numCars .. (k+1)*numCars-1 of the fleet
+        for (int k = 0; k < numReplicas; k++) {
+            long start = Probes.ENABLED ? System.nanoTime() : 0;
+            int passed = ArrayRoadNS.applyRules(config, fleet, k*numCars, numCars, rightLane[k], leftLane[k],
+                    rightIndex[k], leftIndex[k], helperRight[k], helperLeft[k], streams[k], statistics[k],
+                    detectors == null ? null : detectors[k]);
+            numCarsPassingEnd[k] += passed;
+            if (Probes.ENABLED) Probes.step(System.nanoTime() - start, passed);       // a step of a replica: its rules
+        }
+
+        for (int k = 0; k < numReplicas; k++) {
+            int[] tmp = rightLane[k];
+            rightLane[k] = helperRight[k];
+            helperRight[k] = tmp;
+            tmp = leftLane[k];
+            leftLane[k] = helperLeft[k];
+            helperLeft[k] = tmp;
+            rightIndex[k].nextState(rightLane[k]);
+            leftIndex[k].nextState(leftLane[k]);
+            statistics[k].addStep();
+            if (detectors != null) detectors[k].addStep();
+        }
+    }
+
+    public int getNumReplicas() {
+        return numReplicas;
+    }
+
+    /**
+     * @param k The replica, 0 .. getNumReplicas()-1.
+     * @return A view of the replica; it cannot be advanced on its own.
+     */
+    public RoadView getReplica(int k) {
+        return new Replica(k);
+    }
+
+    /*==========================================================================
+    One replica seen as a RoadView
+    ==========================================================================*/
+    private final class Replica implements RoadView {
+
+        private final int k;
+
+        Replica(int k) {
+            this.k = k;
+        }
+
+        private int index(int car) {
+            return k*numCars + car;
+        }
+
+        @Override
+        public void printTrafficSituation() {
+            StringBuilder traffic_rightLane = new StringBuilder("|"), traffic_leftLane = new StringBuilder("|");
+
+            for (int i = 0; i < config.roadSize; i++) {
+                traffic_rightLane.append(RoadNS.toSymbol(rightLane[k][i]));
+                traffic_leftLane.append(RoadNS.toSymbol(leftLane[k][i]));
+            }
+
+            traffic_rightLane.append('|');
+            traffic_leftLane.append('|');
+
+            System.out.println(traffic_leftLane + "\n" + traffic_rightLane + "\n");
+        }
+
+        @Override
+        public double getFlow(int numIterations) {
+            int totalDistance = 0;
+            for (int c = 0; c < numCars; c++) {
+                totalDistance += fleet.traveledDistance[index(c)];
+            }
+            return Math.round(totalDistance * 100/numIterations) /100.0;    // round up to 2 digit after zero
+        }
+
+        @Override
+        public double getFlow2(int numIterations) {
+            return Math.round(numCarsPassingEnd[k] * 100/numIterations) /100.0;    // round up to 2 digit after zero
+        }
+
+        @Override
+        public void clearStatistics() {
+            for (int c = 0; c < numCars; c++) {
+                fleet.traveledDistance[index(c)] = 0;
+                fleet.maxReachedSpeed[index(c)] = -1;
+            }
+            numCarsPassingEnd[k] = 0;
+            statistics[k].clear();
+            if (detectors != null) detectors[k].clear();
+        }
+
+        @Override
+        public LoopDetectors getDetectors() {
+            return detectors == null ? null : detectors[k];
+        }
+
+        @Override
+        public RoadStatistics getStatistics() {
+            return statistics[k];
+        }
+
+        @Override
+        public int getNumCars() {
+            return numCars;
+        }
+
+        @Override
+        public int getCarType(int car) {
+            return fleet.type[index(car)];
+        }
+
+        @Override
+        public int getCarLane(int car) {
+            return fleet.lane[index(car)];
+        }
+
+        @Override
+        public int getCarPosition(int car) {
+            return fleet.position[index(car)];
+        }
+
+        @Override
+        public int getCarSpeed(int car) {
+            return fleet.speed[index(car)];
+        }
+
+        @Override
+        public int getCarColor(int car) {
+            return fleet.color[index(car)];
+        }
+
+        @Override
+        public int getTraveledDistance(int car) {
+            return fleet.traveledDistance[index(car)];
+        }
+
+        @Override
+        public int getMaxReachedSpeed(int car) {
+            return fleet.maxReachedSpeed[index(car)];
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package nsSimulation;
+
+import java.util.SplittableRandom;
+
+/*==============================================================================
+The cars of a road stored as parallel primitive arrays (structure of arrays),
+indexed by car ID. Shared by the array based engines.
+==============================================================================*/
+
+public class Fleet {
+
+    public final int numCars;
+
+    public final byte[] type;                   // type id, the row of VehicleClasses
+    public final int[] lane;
+    public final int[] position;
+    public final int[] speed;
+    public final int[] maxSpeed;
+    public final int[] traveledDistance;
+    public final int[] maxReachedSpeed;
+    public final int[] color;                   // RGB
+    public final boolean[] brokenDown;
+
+    public Fleet(int numCars) {
+        this.numCars = numCars;
+        type = new byte[numCars];
+        lane = new int[numCars];
+        position = new int[numCars];
+        speed = new int[numCars];
+        maxSpeed = new int[numCars];
+        traveledDistance = new int[numCars];
+        maxReachedSpeed = new int[numCars];
+        color = new int[numCars];
+        brokenDown = new boolean[numCars];
+    }
+
+    public void generateCars(SimulationConfig config, SplittableRandom r) {
+        generateCars(config, r, 0);
+    }
+
+    /*==============================================================================
+    Generate cars for the model (all engines, RoadNS makes its CarNS from a fleet)
+    - position of car, lane of car, speed of car are randomly generated
+    - distance between a car and the car in front of it (same lane) is 2 x speed of the car (2-seconds rule)
+    - due to road situation, speed of cars may be limitted:
+        road length (both lanes) = 2 x L
+        num car = N
+        mean gap between cars = 2L/N
+        therefore v should be <= L/N (to satisfy 2-seconds rule )
+    The initial state of a car comes from the row of its class.
+    Car ID j of the road is stored at index offset + j, so that several roads
+    can share one fleet, one after the other (see EnsembleRoadNS).
+    *==============================================================================*/
+    public void generateCars(SimulationConfig config, SplittableRandom r, int offset) {
+        int rightLane_dummyPosition = 0, leftLane_dummyPosition = 0, dummyPosition, slow_generated = 0, fast_generated = 0, l, type_of_car;
+        int numCarsOfRoad = config.getNumCars();
+        int limitSpeed = config.roadSize / numCarsOfRoad;
+        boolean createdBrokenCar = ! config.hasBrokenCar;
+        VehicleClasses classes = config.vehicleClasses;
+        VehicleClasses.Placement placement = classes.new Placement();
+
+        for (int j = 0; j < numCarsOfRoad; j++) {
+            int i = offset + j;
+
+            // randomly choose the lane (unless the limit is reached)
+            if (rightLane_dummyPosition >= config.roadSize)
+                l = RoadNS.LEFT_LANE;
+            else if (leftLane_dummyPosition >= config.roadSize)
+                l = RoadNS.RIGHT_LANE;
+            else l = r.nextInt(RoadNS.NUM_LANES) + 1;
+
+            if (l == RoadNS.RIGHT_LANE) dummyPosition = rightLane_dummyPosition;
+            else dummyPosition = leftLane_dummyPosition;
+
+            // randomly choose the type of car (unless the limit is reached)
+            if (slow_generated == config.numSlowCars)
+                type_of_car = RoadNS.TYPE_CAR_FAST;
+            else if (fast_generated == config.numFastCars)
+                type_of_car = RoadNS.TYPE_CAR_SLOW;
+            else type_of_car = r.nextInt(RoadNS.NUM_TYPE_CAR) + 1;
+
+            if (type_of_car == RoadNS.TYPE_CAR_SLOW) {
+                if (!createdBrokenCar && config.numSlowCars <= 4*(slow_generated+1)) {
+                    createdBrokenCar = true;
+                    type_of_car = RoadNS.TYPE_CAR_BROKEN;
+                } else type_of_car = placement.next(type_of_car);
+                slow_generated++;
+            } else {
+                type_of_car = placement.next(type_of_car);
+                fast_generated++;
+            }
+            maxSpeed[i] = classes.maxSpeed[type_of_car];
+            color[i] = classes.initialColor(type_of_car, r);
+            speed[i] = classes.initialSpeed(type_of_car, limitSpeed, r);
+            type[i] = (byte) type_of_car;
+            lane[i] = l;
+            position[i] = dummyPosition;
+            maxReachedSpeed[i] = -1;
+
+            // follow the 2-seconds rule
+            dummyPosition = dummyPosition + 2*speed[i];
+            if (speed[i] == 0) dummyPosition += 1;
+
+            if (l == RoadNS.RIGHT_LANE) rightLane_dummyPosition = dummyPosition;
+            else leftLane_dummyPosition = dummyPosition;
+        }
+    }
+
+    /*
+     * Sum of the travelled distance of all cars (the broken car included).
+     */
+    public int getTotalDistance() {
+        int totalDistance = 0;
+        for (int c = 0; c < numCars; c++) {
+            totalDistance += traveledDistance[c];
+        }
+        return totalDistance;
+    }
+}
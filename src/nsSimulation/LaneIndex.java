@@ -0,0 +1,77 @@
+package nsSimulation;
+
+/*==============================================================================
+Neighbour lookup on one lane of the road.
+
+A lane is an int[] with the speed of the car in each cell, or -1 if there is
+no car. The lookups are cyclic (the road is a ring), and they only return the
+cell of the neighbour; the caller derives speed and distance from it.
+
+During a step the road also reports the cars it writes into the next lane
+(clearNext/setNext), so that an index can build its next state while the
+step runs instead of rebuilding it from the lane afterwards.
+==============================================================================*/
+
+public interface LaneIndex {
+
+    /**
+     * Called whenever the content of the lane has changed (once per step).
+     * @param lane The lane the following lookups refer to.
+     */
+    void update(int[] lane);
+
+    /**
+     * Called at the beginning of a step, when the next lane is cleared.
+     */
+    default void clearNext() {
+    }
+
+    /**
+     * Called when a car is written into the next lane.
+     * @param cell The cell of the car in the next lane.
+     */
+    default void setNext(int cell) {
+    }
+
+    /**
+     * Called at the end of a step, when the next lane becomes the current one.
+     * @param lane The new current lane.
+     */
+    default void nextState(int[] lane) {
+        update(lane);
+    }
+
+    /**
+     * Finds the first car in front of a position, continuing from the
+     * beginning of the lane when the end is reached. The position itself is
+     * the last cell checked.
+     * @param position A cell of the lane, or -1.
+     * @return The cell of the car, or -1 if the lane is empty.
+     */
+    int front(int position);
+
+    /**
+     * Finds the first car behind a position, continuing from the end of the
+     * lane when the beginning is reached. The position itself is the last
+     * cell checked.
+     * @param position A cell of the lane, or the size of the lane.
+     * @return The cell of the car, or -1 if the lane is empty.
+     */
+    int behind(int position);
+
+    /**
+     * @param config The configuration of the run.
+     * @return A new index of the kind selected by the configuration.
+     */
+    static LaneIndex create(SimulationConfig config) {
+        switch (config.laneIndex) {
+            case SimulationConfig.LANE_INDEX_SCAN:
+                return new ScanLaneIndex();
+            case SimulationConfig.LANE_INDEX_SPARSE:
+                return new SparseLaneIndex(config.roadSize);
+            case SimulationConfig.LANE_INDEX_BITBOARD:
+                return new BitboardLaneIndex(config.roadSize);
+        }
+        throw new IllegalArgumentException("Unknown lane index: " + config.laneIndex);
+    }
+}
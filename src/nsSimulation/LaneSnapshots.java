@@ -0,0 +1,83 @@
+package nsSimulation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*==============================================================================
+Hands the state of a running road to a viewer on another thread without
+locks (a triple buffer), see AnimatedSimulation.show().
+
+There are three snapshots: the simulation fills the back one and publishes
+it by swapping it with the middle one, the viewer takes the newest one by
+swapping the middle one with its front one. Each side only ever touches its
+own snapshot, so neither waits for the other. The simulation only copies the
+road when the viewer has taken the previous snapshot (wantsNext()), so it
+copies at the frame rate of the viewer at most, and intermediate steps are
+simply not shown.
+==============================================================================*/
+
+public class LaneSnapshots {
+
+    private static final int FRESH = 4;                 // bit of middle: published and not taken yet
+
+    /*==========================================================================
+    The cars of the road at one step, as primitive arrays indexed by car
+    ==========================================================================*/
+    public static final class Snapshot {
+        public long step = -1;                          // -1: nothing published yet
+        public final int[] position;
+        public final int[] lane;
+        public final int[] speed;
+        public final int[] color;                       // RGB
+
+        Snapshot(int numCars) {
+            position = new int[numCars];
+            lane = new int[numCars];
+            speed = new int[numCars];
+            color = new int[numCars];
+        }
+    }
+
+    private final Snapshot[] snapshots = new Snapshot[3];
+    private int back = 0;                               // simulation thread only
+    private int front = 1;                              // viewer thread only
+    private final AtomicInteger middle = new AtomicInteger(2);
+
+    public LaneSnapshots(int numCars) {
+        for (int i = 0; i < snapshots.length; i++) {
+            snapshots[i] = new Snapshot(numCars);
+        }
+    }
+
+    /*
+     * @return True if the viewer has taken the last snapshot (simulation thread).
+     */
+    public boolean wantsNext() {
+        return (middle.get() & FRESH) == 0;
+    }
+
+    /**
+     * Copies the road into the back snapshot and publishes it (simulation thread).
+     * @param road The road.
+     * @param step The number of steps of the road so far.
+     */
+    public void publish(RoadView road, long step) {
+        Snapshot s = snapshots[back];
+        for (int c = 0; c < s.position.length; c++) {
+            s.position[c] = road.getCarPosition(c);
+            s.lane[c] = road.getCarLane(c);
+            s.speed[c] = road.getCarSpeed(c);
+            s.color[c] = road.getCarColor(c);
+        }
+        s.step = step;
+        back = middle.getAndSet(back | FRESH) & ~FRESH;
+    }
+
+    /*
+     * @return The newest published snapshot (viewer thread); it is not
+     * changed until the next call.
+     */
+    public Snapshot latest() {
+        if ((middle.get() & FRESH) != 0) front = middle.getAndSet(front) & ~FRESH;
+        return snapshots[front];
+    }
+}
@@ -0,0 +1,32 @@
+package nsSimulation;
+
+/*==============================================================================
+The place of a virtual loop detector: a cell of a lane, see
+SimulationConfig.Builder.detector() and LoopDetectors.
+==============================================================================*/
+
+public final class LoopDetector {
+
+    public final int lane;                      // RoadNS.RIGHT_LANE or RoadNS.LEFT_LANE
+    public final int position;                  // cell, 0 .. roadSize-1
+
+    public LoopDetector(int lane, int position) {
+        this.lane = lane;
+        this.position = position;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LoopDetector && ((LoopDetector) o).lane == lane && ((LoopDetector) o).position == position;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * lane + position;
+    }
+
+    @Override
+    public String toString() {
+        return (lane == RoadNS.LEFT_LANE ? "left" : "right") + " lane, cell " + position;
+    }
+}
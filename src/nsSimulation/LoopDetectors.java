@@ -0,0 +1,272 @@
+package nsSimulation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+/*==============================================================================
+The virtual loop detectors of a road (see SimulationConfig.Builder.detector()),
+updated by the engine while it moves the cars, like RoadStatistics.
+
+Per detector and aggregation interval (detectorInterval steps):
+    count           cars which crossed the cell of the detector, i.e. moved
+                    from a cell before it to it or beyond it in its lane
+                    (after their lane change), in total and per type id
+    flow            count per step
+    time mean speed the mean speed of the cars which crossed it
+    occupancy       the fraction of the steps after which a car was on the cell
+So one run gives the fundamental diagram (flow against occupancy) at as
+many places as it has detectors.
+
+A move costs O(1) plus one update per crossed detector: every cell knows the
+distance to the next detector of its lane, so the cells a car jumps over are
+not looked at. The last interval is partial until it has detectorInterval
+steps.
+==============================================================================*/
+
+public final class LoopDetectors {
+
+    // the longs of a detector in a record
+    private static final int COUNT = 0;
+    private static final int SPEED_SUM = 1;
+    private static final int OCCUPIED_STEPS = 2;
+    private static final int TYPE_COUNT = 3;            // + type id
+
+    private final VehicleClasses classes;
+    private final int roadSize;
+    private final int interval;
+    private final int[] lane;                   // [detector]
+    private final int[] position;
+    private final int stride;                   // longs per detector in a record
+
+    // shared with the copies of emptyCopy(), read only
+    private final int[][] at;                   // [lane - 1][cell] the detector on the cell, or -1
+    private final int[][] gap;                  // [lane - 1][cell] cells to the next detector of the lane (0 on a detector), or Integer.MAX_VALUE
+
+    private final long[] current;               // record of the current interval
+    private final boolean[] occupied;           // [detector] in the current step
+    private int steps = 0;                      // of the current interval
+
+    private long[] history = new long[0];       // records of the completed intervals
+    private int numIntervals = 0;
+
+    /**
+     * @param config The configuration of the road, with at least one detector.
+     */
+    public LoopDetectors(SimulationConfig config) {
+        List<LoopDetector> detectors = config.detectors;
+        classes = config.vehicleClasses;
+        roadSize = config.roadSize;
+        interval = config.detectorInterval;
+        lane = new int[detectors.size()];
+        position = new int[detectors.size()];
+        stride = TYPE_COUNT + classes.size();
+
+        at = new int[RoadNS.NUM_LANES][roadSize];
+        gap = new int[RoadNS.NUM_LANES][roadSize];
+        for (int l = 0; l < RoadNS.NUM_LANES; l++) {
+            Arrays.fill(at[l], -1);
+        }
+        for (int d = 0; d < detectors.size(); d++) {
+            lane[d] = detectors.get(d).lane;
+            position[d] = detectors.get(d).position;
+            at[lane[d] - 1][position[d]] = d;
+        }
+        for (int l = 0; l < RoadNS.NUM_LANES; l++) {
+            // two rounds backwards over the ring, so that the cells after the last detector see the first one
+            int next = Integer.MAX_VALUE;
+            for (int i = 2 * roadSize - 1; i >= 0; i--) {
+                int cell = i < roadSize ? i : i - roadSize;
+                if (at[l][cell] != -1) next = i;
+                gap[l][cell] = next == Integer.MAX_VALUE ? next : next - i;
+            }
+        }
+
+        current = new long[lane.length * stride];
+        occupied = new boolean[lane.length];
+    }
+
+    private LoopDetectors(LoopDetectors shape) {
+        classes = shape.classes;
+        roadSize = shape.roadSize;
+        interval = shape.interval;
+        lane = shape.lane;
+        position = shape.position;
+        stride = shape.stride;
+        at = shape.at;
+        gap = shape.gap;
+        current = new long[shape.current.length];
+        occupied = new boolean[shape.occupied.length];
+    }
+
+    /*
+     * @return Detectors at the same places which share the lookup tables,
+     * for the cars moved on another thread (see add()).
+     */
+    LoopDetectors emptyCopy() {
+        return new LoopDetectors(this);
+    }
+
+    /**
+     * Adds the move of one car in the current step.
+     * @param type The type id of the car.
+     * @param lane The lane of the car after its lane change.
+     * @param position The cell of the car before the move.
+     * @param speed The speed of the car after the step (the cells it moves).
+     * @param newPosition The cell of the car after the move.
+     */
+    public void addMove(int type, int lane, int position, int speed, int newPosition) {
+        int[] gap = this.gap[lane - 1];
+        int[] at = this.at[lane - 1];
+        int cell = position + 1 == roadSize ? 0 : position + 1;
+        int remaining = speed;                  // cells still to move over, from cell on
+        while (remaining > 0) {
+            int g = gap[cell];
+            if (g >= remaining) break;          // usually at once
+            cell += g;
+            if (cell >= roadSize) cell -= roadSize;
+            int base = at[cell] * stride;
+            current[base + COUNT]++;
+            current[base + SPEED_SUM] += speed;
+            current[base + TYPE_COUNT + type]++;
+            remaining -= g + 1;
+            if (++cell == roadSize) cell = 0;
+        }
+
+        int d = at[newPosition];
+        if (d != -1) occupied[d] = true;
+    }
+
+    /**
+     * Ends the current step (after all cars have been moved).
+     */
+    public void addStep() {
+        for (int d = 0; d < occupied.length; d++) {
+            if (occupied[d]) {
+                current[d * stride + OCCUPIED_STEPS]++;
+                occupied[d] = false;
+            }
+        }
+        if (++steps == interval) {
+            if (history.length < (numIntervals + 1) * current.length)
+                history = Arrays.copyOf(history, Math.max(2 * history.length, 16 * current.length));
+            System.arraycopy(current, 0, history, numIntervals * current.length, current.length);
+            numIntervals++;
+            Arrays.fill(current, 0);
+            steps = 0;
+        }
+    }
+
+    /*
+     * Adds the moves of the current step of an emptyCopy().
+     */
+    void add(LoopDetectors other) {
+        for (int i = 0; i < current.length; i++) {
+            current[i] += other.current[i];
+        }
+        for (int d = 0; d < occupied.length; d++) {
+            occupied[d] |= other.occupied[d];
+        }
+    }
+
+    /**
+     * Clears all intervals, the next step starts the first interval.
+     */
+    public void clear() {
+        Arrays.fill(current, 0);
+        Arrays.fill(occupied, false);
+        steps = 0;
+        numIntervals = 0;
+    }
+
+    public int getNumDetectors() {
+        return lane.length;
+    }
+
+    public int getLane(int detector) {
+        return lane[detector];
+    }
+
+    public int getPosition(int detector) {
+        return position[detector];
+    }
+
+    /*
+     * @return The number of intervals, the last one may be partial.
+     */
+    public int getNumIntervals() {
+        return numIntervals + (steps > 0 ? 1 : 0);
+    }
+
+    /*
+     * @return The number of steps of an interval.
+     */
+    public int getSteps(int interval) {
+        return interval < numIntervals ? this.interval : steps;
+    }
+
+    private long get(int interval, int detector, int field) {
+        if (interval < 0 || interval >= getNumIntervals())
+            throw new IndexOutOfBoundsException("Interval " + interval + " of " + getNumIntervals());
+        int i = detector * stride + field;
+        return interval < numIntervals ? history[interval * current.length + i] : current[i];
+    }
+
+    public long getCount(int interval, int detector) {
+        return get(interval, detector, COUNT);
+    }
+
+    /*
+     * @param type The type id, see VehicleClasses.
+     */
+    public long getCount(int interval, int detector, int type) {
+        return get(interval, detector, TYPE_COUNT + type);
+    }
+
+    /*
+     * @return The cars which crossed the detector per step.
+     */
+    public double getFlow(int interval, int detector) {
+        return (double) getCount(interval, detector) / getSteps(interval);
+    }
+
+    /*
+     * @return The mean speed of the cars which crossed the detector, NaN if none did.
+     */
+    public double getTimeMeanSpeed(int interval, int detector) {
+        long count = getCount(interval, detector);
+        return count == 0 ? Double.NaN : (double) get(interval, detector, SPEED_SUM) / count;
+    }
+
+    /*
+     * @return The fraction of the steps after which a car was on the detector.
+     */
+    public double getOccupancy(int interval, int detector) {
+        return (double) get(interval, detector, OCCUPIED_STEPS) / getSteps(interval);
+    }
+
+    /**
+     * Writes one line per interval and detector, with a header.
+     * @param out The destination (not closed).
+     */
+    public void writeCsv(Writer out) throws IOException {
+        out.write("interval,first_step,steps,lane,position,count,flow,time_mean_speed,occupancy");
+        for (int t = 1; t < classes.size(); t++) {
+            out.write(",count_" + classes.getName(t));
+        }
+        out.write('\n');
+        for (int i = 0; i < getNumIntervals(); i++) {
+            for (int d = 0; d < lane.length; d++) {
+                double speed = getTimeMeanSpeed(i, d);
+                out.write(i + "," + (long) i * interval + "," + getSteps(i) + "," + lane[d] + "," + position[d]
+                        + "," + getCount(i, d) + "," + getFlow(i, d) + "," + (Double.isNaN(speed) ? "" : Double.toString(speed))
+                        + "," + getOccupancy(i, d));
+                for (int t = 1; t < classes.size(); t++) {
+                    out.write("," + getCount(i, d, t));
+                }
+                out.write('\n');
+            }
+        }
+    }
+}
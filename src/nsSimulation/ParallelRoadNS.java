@@ -0,0 +1,444 @@
+package nsSimulation;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/*==============================================================================
+Road engine for very long roads which updates one step on several cores.
+
+The step is synchronous and has two phases, both computed from the state at
+the end of the previous phase:
+    1. lane change: every car decides to change lane from the current lanes,
+       the result is written into the middle lanes (at the same cell)
+    2. movement: every car accelerates, keeps its distance to the car in front
+       in its (new) lane, dawdles and moves, the result is written into the
+       next lanes
+Because no car reads anything written in the same phase, the result does not
+depend on the order of the cars, and the ring can be split into contiguous
+segments which are updated concurrently, with a barrier (see runPhase())
+after every phase.
+
+A car only sees the cars within HALO = max(MAX_SPEED_FAST_CAR, the highest
+max speed and the longest look ahead of the classes of vehicle) cells of it,
+farther cars count as no car. A segment
+therefore only reads HALO cells of its neighbours, and only writes into the
+cells of its neighbour which a car can reach in one step. The broken car also
+keeps its distance to the car in front, so two cars never end up in the same
+cell. Breaking down and getting repaired only change the next step, so the
+cars which can break down draw them after the movement phase, in the order
+of their IDs on the calling thread.
+
+The lanes hold the ID of the car in each cell (or -1), the cars are stored in
+a Fleet. Dawdling uses the counter based RandomStreams.dawdles(step, car), so
+the result does not depend on the number of segments.
+==============================================================================*/
+
+public class ParallelRoadNS implements Road {
+
+    static final int MIN_SEGMENT_LENGTH = 4096;             // shorter segments cost more in barriers than they gain
+
+    private final SimulationConfig config;
+    private final int numCars;
+    private final Fleet fleet;
+    private final RandomStreams streams;
+    private final VehicleClasses classes;
+    private final int halo;
+    private final int[] breakingDown;           // IDs of the cars whose class breaks down
+
+    // [lane - 1][cell] = ID of the car, or -1
+    private int[][] current;
+    private final int[][] middle;
+    private int[][] next;
+
+    private final Segment[] segments;
+    private long step = 0;
+
+    private final RoadStatistics statistics;    // the statistics of the segments are added after every step
+    private final LoopDetectors detectors;      // null: none, like the statistics
+
+    public ParallelRoadNS(SimulationConfig config) {
+        this.config = config;
+        numCars = config.getNumCars();
+        streams = new RandomStreams(config.seed, numCars, config.probabilityFluctuation);
+        classes = config.vehicleClasses;
+        halo = Math.max(config.maxSpeedFastCar, Math.max(classes.getMaxSpeed(), classes.getMaxLookAhead()));
+
+        current = new int[RoadNS.NUM_LANES][config.roadSize];
+        middle = new int[RoadNS.NUM_LANES][config.roadSize];
+        next = new int[RoadNS.NUM_LANES][config.roadSize];
+        for (int l = 0; l < RoadNS.NUM_LANES; l++) {
+            Arrays.fill(current[l], -1);
+        }
+
+        statistics = new RoadStatistics(config.roadSize, classes.size());
+        detectors = config.detectors.isEmpty() ? null : new LoopDetectors(config);
+        fleet = new Fleet(numCars);
+        fleet.generateCars(config, streams.placement());
+        streams.setDawdleProbabilities(classes, fleet.type, 0);
+        int numBreakingDown = 0;
+        for (int c = 0; c < numCars; c++) {
+            current[fleet.lane[c] - 1][fleet.position[c]] = c;
+            if (classes.breaksDown[fleet.type[c]]) numBreakingDown++;
+        }
+        breakingDown = new int[numBreakingDown];
+        for (int c = 0, i = 0; c < numCars; c++) {
+            if (classes.breaksDown[fleet.type[c]]) breakingDown[i++] = c;
+        }
+
+        int numSegments = config.numSegments > 0 ? config.numSegments : Runtime.getRuntime().availableProcessors();
+        numSegments = Math.max(1, Math.min(numSegments, config.roadSize / MIN_SEGMENT_LENGTH));
+        segments = new Segment[numSegments];
+        for (int s = 0; s < numSegments; s++) {
+            segments[s] = new Segment((int) ((long) config.roadSize * s / numSegments), (int) ((long) config.roadSize * (s + 1) / numSegments));
+        }
+
+        if (TrafficSimulation.DEBUG) printTrafficSituation();
+    }
+
+    @Override
+    public void nextState() {
+        long start = Probes.ENABLED ? System.nanoTime() : 0;
+        int passed = Probes.ENABLED ? getNumCarsPassingEnd() : 0;
+
+        runPhase(Segment.LANE_CHANGE);
+        runPhase(Segment.MOVEMENT);
+        for (int c : breakingDown) {
+            breakDown(c);
+        }
+
+        for (Segment s : segments) {
+            statistics.add(s.statistics);
+            s.statistics.clear();
+            if (detectors != null) {
+                detectors.add(s.detectors);
+                s.detectors.clear();
+            }
+        }
+        statistics.addStep();
+        if (detectors != null) detectors.addStep();
+
+        int[][] tmp = current;
+        current = next;
+        next = tmp;
+        step++;
+        if (Probes.ENABLED) Probes.step(System.nanoTime() - start, getNumCarsPassingEnd() - passed);
+    }
+
+    /*
+     * Runs a phase on all segments and returns when all of them are done
+     * (the barrier). The calling thread runs the first segment and those
+     * which no worker has taken, and spins on the others instead of joining
+     * them: a join which has to block allocates a wait node.
+     */
+    private void runPhase(int phase) {
+        for (Segment s : segments) {
+            s.reinitialize();
+            s.phase = phase;
+        }
+        for (int i = 1; i < segments.length; i++) {
+            segments[i].fork();
+        }
+        segments[0].compute();
+        for (int i = segments.length - 1; i >= 1; i--) {
+            Segment s = segments[i];
+            if (s.tryUnfork()) s.compute();
+            else {
+                while (!s.isDone()) Thread.yield();
+                s.join();                               // done: rethrows the exception of the segment, if any
+            }
+        }
+    }
+
+    /*
+     * Distance to the first car in cells from+1 .. from+limit of the lane (cyclic), or Integer.MAX_VALUE.
+     * @return The number of free cells between from and the car.
+     */
+    private int gapFront(int[] arr, int from, int limit) {
+        int roadSize = arr.length;
+        for (int k = 1; k <= limit; k++) {
+            int i = from + k;
+            if (i >= roadSize) i -= roadSize;
+            if (arr[i] != -1) return k - 1;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /*
+     * Distance to the first car in cells from-1 .. from-limit of the lane (cyclic), or Integer.MAX_VALUE.
+     */
+    private int gapBehind(int[] arr, int from, int limit) {
+        int roadSize = arr.length;
+        for (int k = 1; k <= limit; k++) {
+            int i = from - k;
+            if (i < 0) i += roadSize;
+            if (arr[i] != -1) return k - 1;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /*
+     * Speed of the car gap+1 cells in front of a cell, or the "no car" speed.
+     */
+    private int speedInFront(int[] arr, int from, int gap) {
+        if (gap == Integer.MAX_VALUE) return config.maxSpeedFastCar;
+        return fleet.speed[arr[(from + gap + 1) % arr.length]];
+    }
+
+    /*
+     * Phase 1 for the car in the given cell, see CarNS.adaptSpeed().
+     * @return The lane of the car after the lane change.
+     */
+    private int changeLane(int c, int l, int pos) {
+        if (fleet.brokenDown[c]) return l;
+
+        int t = fleet.type[c];
+        int v = fleet.speed[c];
+        int[] arr = current[l - 1];
+        int[] otherArr = current[2 - l];
+
+        int frontDistance = gapFront(arr, pos, halo);
+        // cells pos .. pos+halo-1 of the other lane, as getStatusWithFrontCar(otherLane, position-1)
+        int frontNextDistance = gapFront(otherArr, pos - 1 < 0 ? pos - 1 + arr.length : pos - 1, halo);
+        // cells pos .. pos-halo+1 of the other lane, as getStatusWithBehindCar(otherLane, position+1)
+        int behindNextDistance = gapBehind(otherArr, pos + 1 == arr.length ? 0 : pos + 1, halo);
+        if (Probes.ENABLED) {
+            // the cells looked at: at most the halo
+            Probes.neighbourLookup(Math.min(frontDistance, halo));
+            Probes.neighbourLookup(Math.min(frontNextDistance, halo));
+            Probes.neighbourLookup(Math.min(behindNextDistance, halo));
+        }
+
+        if (frontDistance > classes.lookAhead[t] && frontNextDistance > classes.lookAhead[t]) return l;
+
+        boolean goodGapToChange = behindNextDistance >= config.maxSpeedFastCar && frontNextDistance >= v;
+        if (!goodGapToChange) return l;
+
+        if (config.applySymmetricRule && v == 0) {
+            // symmetric rule - paper section VIII-B
+            return frontNextDistance > frontDistance ? 3 - l : l;
+        }
+
+        int frontSpeed = speedInFront(arr, pos, frontDistance);
+        int frontNextSpeed = speedInFront(otherArr, pos - 1 < 0 ? pos - 1 + arr.length : pos - 1, frontNextDistance);
+        if (l == RoadNS.RIGHT_LANE) {
+            if (frontSpeed <= v || frontNextSpeed <= v) return RoadNS.LEFT_LANE;
+        } else {
+            if (frontSpeed > v + classes.slack[t] && frontNextSpeed > v + classes.slack[t]) return RoadNS.RIGHT_LANE;
+        }
+        return l;
+    }
+
+    /*
+     * Phase 2 for the car in the given cell, see CarNS.adaptSpeed().
+     * @return 1 if the car passed the end of the road, 0 otherwise.
+     */
+    private int move(int c, int l, int pos) {
+        int t = fleet.type[c];
+        int v = fleet.speed[c];
+        int[] arr = middle[l - 1];
+
+        if (fleet.brokenDown[c]) {
+            // if it broke decelerate by 1 until it stops
+            v = v <= 0 ? 0 : v - 1;
+            v = Math.min(v, gapFront(arr, pos, v));
+        } else {
+            // forward movement - paper section VI-B
+            if (v < fleet.maxSpeed[c]) v += classes.acceleration[t];
+            v = Math.min(v, gapFront(arr, pos, v));
+            if (v >= 1 && streams.dawdles(step, c)) {
+                v--;
+                if (Probes.ENABLED) Probes.increment(Probes.DAWDLES);
+            }
+            if (v < 0) v = 0;           // never move backwards (initial speed of the broken car can be -1)
+        }
+
+        if (fleet.maxReachedSpeed[c] < v) fleet.maxReachedSpeed[c] = v;
+
+        int roadSize = arr.length;
+        int newPosition = pos + v;
+        int passed = 0;
+        if (newPosition >= roadSize) {
+            newPosition -= roadSize;
+            passed = 1;
+        }
+        fleet.traveledDistance[c] += v;
+        fleet.speed[c] = v;
+        fleet.position[c] = newPosition;
+        next[l - 1][newPosition] = c;           // unique cell: v never exceeds the gap
+        return passed;
+    }
+
+    /*
+     * Breaking down and getting repaired of a car after the movement phase.
+     */
+    private void breakDown(int c) {
+        int t = fleet.type[c];
+        double rand = streams.nextBreakdown();
+        if (fleet.brokenDown[c]) {
+            if (classes.repairProbability[t] > 0 && rand > 1 - classes.repairProbability[t]) {
+                fleet.brokenDown[c] = false;
+                if (Probes.ENABLED) Probes.increment(Probes.REPAIRS);
+            }
+        } else if (rand < classes.breakdownProbability[t]) {
+            fleet.brokenDown[c] = true;
+            if (Probes.ENABLED) Probes.increment(Probes.BREAKDOWNS);
+        }
+    }
+
+    /*==========================================================================
+    A contiguous range of cells [start, end) of both lanes
+    ==========================================================================*/
+    private final class Segment extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        static final int LANE_CHANGE = 0;
+        static final int MOVEMENT = 1;
+
+        final int start;
+        final int end;
+        int phase;
+        int numCarsPassingEnd = 0;
+        final RoadStatistics statistics = new RoadStatistics(config.roadSize, classes.size());     // of the current step
+        final LoopDetectors detectors = ParallelRoadNS.this.detectors == null ? null : ParallelRoadNS.this.detectors.emptyCopy();
+
+        Segment(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (phase == LANE_CHANGE) {
+                for (int l = 0; l < RoadNS.NUM_LANES; l++) {
+                    Arrays.fill(middle[l], start, end, -1);
+                    Arrays.fill(next[l], start, end, -1);     // written by phase 2 (also by the previous segment)
+                }
+                for (int l = 1; l <= RoadNS.NUM_LANES; l++) {
+                    int[] cur = current[l - 1];
+                    for (int i = start; i < end; i++) {
+                        int c = cur[i];
+                        if (c == -1) continue;
+                        int newLane = changeLane(c, l, i);
+                        if (newLane != l) {
+                            statistics.addLaneChange(fleet.type[c]);
+                            if (Probes.ENABLED) Probes.increment(newLane == RoadNS.LEFT_LANE ? Probes.LANE_CHANGES_LEFT : Probes.LANE_CHANGES_RIGHT);
+                        }
+                        fleet.lane[c] = newLane;
+                        middle[newLane - 1][i] = c;     // a car never changes into an occupied cell
+                    }
+                }
+            } else {
+                for (int l = 1; l <= RoadNS.NUM_LANES; l++) {
+                    int[] mid = middle[l - 1];
+                    for (int i = start; i < end; i++) {
+                        int c = mid[i];
+                        if (c == -1) continue;
+                        numCarsPassingEnd += move(c, l, i);
+                        statistics.addCar(fleet.type[c], l, fleet.speed[c]);
+                        if (detectors != null) detectors.addMove(fleet.type[c], l, i, fleet.speed[c], fleet.position[c]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void printTrafficSituation() {
+        StringBuilder traffic_rightLane = new StringBuilder("|"), traffic_leftLane = new StringBuilder("|");
+
+        for (int i = 0; i < config.roadSize; i++) {
+            int right = current[RoadNS.RIGHT_LANE - 1][i], left = current[RoadNS.LEFT_LANE - 1][i];
+            traffic_rightLane.append(RoadNS.toSymbol(right == -1 ? -1 : fleet.speed[right]));
+            traffic_leftLane.append(RoadNS.toSymbol(left == -1 ? -1 : fleet.speed[left]));
+        }
+
+        traffic_rightLane.append('|');
+        traffic_leftLane.append('|');
+
+        System.out.println(traffic_leftLane + "\n" + traffic_rightLane + "\n");
+    }
+
+    private int getNumCarsPassingEnd() {
+        int n = 0;
+        for (Segment s : segments) n += s.numCarsPassingEnd;
+        return n;
+    }
+
+    @Override
+    public double getFlow(int numIterations) {
+        return Math.round(fleet.getTotalDistance() * 100/numIterations) /100.0;    // round up to 2 digit after zero
+    }
+
+    @Override
+    public double getFlow2(int numIterations) {
+        return Math.round(getNumCarsPassingEnd() * 100/numIterations) /100.0;    // round up to 2 digit after zero
+    }
+
+    @Override
+    public void clearStatistics() {
+        Arrays.fill(fleet.traveledDistance, 0);
+        Arrays.fill(fleet.maxReachedSpeed, -1);
+        for (Segment s : segments) s.numCarsPassingEnd = 0;
+        statistics.clear();
+        if (detectors != null) detectors.clear();
+    }
+
+    /*
+     * @return The number of segments, at most config.numSegments (one per
+     * MIN_SEGMENT_LENGTH cells).
+     */
+    public int getNumSegments() {
+        return segments.length;
+    }
+
+    @Override
+    public LoopDetectors getDetectors() {
+        return detectors;
+    }
+
+    @Override
+    public RoadStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public int getNumCars() {
+        return numCars;
+    }
+
+    @Override
+    public int getCarType(int car) {
+        return fleet.type[car];
+    }
+
+    @Override
+    public int getCarLane(int car) {
+        return fleet.lane[car];
+    }
+
+    @Override
+    public int getCarPosition(int car) {
+        return fleet.position[car];
+    }
+
+    @Override
+    public int getCarSpeed(int car) {
+        return fleet.speed[car];
+    }
+
+    @Override
+    public int getCarColor(int car) {
+        return fleet.color[car];
+    }
+
+    @Override
+    public int getTraveledDistance(int car) {
+        return fleet.traveledDistance[car];
+    }
+
+    @Override
+    public int getMaxReachedSpeed(int car) {
+        return fleet.maxReachedSpeed[car];
+    }
+}
@@ -0,0 +1,127 @@
+package nsSimulation;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*==============================================================================
+Counters on the hot path of the engines (RoadNS and CarNS, ArrayRoadNS,
+EnsembleRoadNS, ParallelRoadNS), to see where a run spends its time without
+the DEBUG prints.
+
+The probes are off unless the JVM is started with -DnsSimulation.probes=true.
+ENABLED is a static final, so when it is false the JIT drops the probes (and
+the calls to System.nanoTime() for them) from the compiled code. When on, the
+counters are LongAdders, so the concurrent runs of a sweep do not contend on
+them. They are cumulative over all runs of the JVM and can be read at any
+time (get()) or printed (report()).
+
+Counters:
+    steps, step_nanos           steps of a road and their total duration (see
+                                also getMaxStepNanos()); every replica of an
+                                ensemble counts a step, timed by its rules
+    neighbour_lookups           calls of getStatusWithFrontCar/BehindCar, or
+                                the three neighbours of a car in the other
+                                engines
+    neighbour_cells             cells between a car and the neighbour found
+                                (the road size if there is none; at most
+                                the halo for ParallelRoadNS, which looks no
+                                further)
+    lane_changes_left/right     lane changes
+    dawdles                     cars slowing down at random (not counted
+                                with SpeedKernel, which dawdles branch free)
+    breakdowns, repairs         of the cars of classes which break down
+    cars_passing_end            numCarsPassingEnd of the steps
+==============================================================================*/
+
+public final class Probes {
+
+    public static final boolean ENABLED = Boolean.getBoolean("nsSimulation.probes");
+
+    public static final int STEPS = 0;
+    public static final int STEP_NANOS = 1;
+    public static final int NEIGHBOUR_LOOKUPS = 2;
+    public static final int NEIGHBOUR_CELLS = 3;
+    public static final int LANE_CHANGES_LEFT = 4;
+    public static final int LANE_CHANGES_RIGHT = 5;
+    public static final int DAWDLES = 6;
+    public static final int BREAKDOWNS = 7;
+    public static final int REPAIRS = 8;
+    public static final int CARS_PASSING_END = 9;
+
+    public static final int NUM_COUNTERS = 10;
+
+    private static final String[] NAMES = {
+        "steps", "step_nanos", "neighbour_lookups", "neighbour_cells", "lane_changes_left", "lane_changes_right",
+        "dawdles", "breakdowns", "repairs", "cars_passing_end"
+    };
+
+    private static final LongAdder[] counters = new LongAdder[NUM_COUNTERS];
+    private static final LongAccumulator maxStepNanos = new LongAccumulator(Math::max, 0);
+
+    static {
+        for (int i = 0; i < NUM_COUNTERS; i++) {
+            counters[i] = new LongAdder();
+        }
+    }
+
+    private Probes() {
+    }
+
+    public static void increment(int counter) {
+        counters[counter].increment();
+    }
+
+    /**
+     * Records one step of a road.
+     * @param nanos The duration of the step.
+     * @param carsPassingEnd The number of cars which passed the end of the road in the step.
+     */
+    public static void step(long nanos, int carsPassingEnd) {
+        counters[STEPS].increment();
+        counters[STEP_NANOS].add(nanos);
+        counters[CARS_PASSING_END].add(carsPassingEnd);
+        maxStepNanos.accumulate(nanos);
+    }
+
+    /**
+     * Records one neighbour lookup.
+     * @param cells The cells between the car and the neighbour found.
+     */
+    public static void neighbourLookup(int cells) {
+        counters[NEIGHBOUR_LOOKUPS].increment();
+        counters[NEIGHBOUR_CELLS].add(cells);
+    }
+
+    public static long get(int counter) {
+        return counters[counter].sum();
+    }
+
+    public static String getName(int counter) {
+        return NAMES[counter];
+    }
+
+    public static long getMaxStepNanos() {
+        return maxStepNanos.get();
+    }
+
+    public static void reset() {
+        for (LongAdder counter : counters) {
+            counter.reset();
+        }
+        maxStepNanos.reset();
+    }
+
+    /**
+     * Prints the counters and the averages per step.
+     */
+    public static void report(PrintStream out) {
+        long steps = Math.max(1, get(STEPS));
+        for (int i = 0; i < NUM_COUNTERS; i++) {
+            out.println(NAMES[i] + " = " + get(i) + (i == STEPS ? "" : " (" + String.format("%.2f", get(i) / (double) steps) + " per step)"));
+        }
+        out.println("max step_nanos = " + getMaxStepNanos());
+        long lookups = get(NEIGHBOUR_LOOKUPS);
+        if (lookups > 0) out.println("neighbour_cells per lookup = " + String.format("%.2f", get(NEIGHBOUR_CELLS) / (double) lookups));
+    }
+}
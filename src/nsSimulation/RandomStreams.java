@@ -0,0 +1,175 @@
+package nsSimulation;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*==============================================================================
+Random numbers of one simulation run.
+
+The seed of the run is split into independent streams, one per source of
+randomness, so that a run is reproducible from its seed and the engines
+draw the same numbers in the same order:
+    placement   generateCars() and the initial state of the cars
+    dawdle      the fluctuation of the NS model (PROBABILITY_FLUCTUATION, or
+                the dawdle probability of the class of the car), generated
+                in bulk for all cars at the beginning of a step
+    breakdown   breaking down and getting repaired of the cars which break
+                down (the broken car)
+A SplittableRandom is not thread-safe, every road has its own streams.
+Engines which update a step on several threads use dawdles(step, car)
+instead, a stateless (counter based) version of the dawdle stream.
+The state of a SplittableRandom cannot be read, so the position of the
+streams is kept as the number of steps and of breakdown numbers drawn since
+the seed; skip() brings new streams of the same seed to that position (see
+RoadSnapshot).
+==============================================================================*/
+
+public class RandomStreams {
+
+    private final SplittableRandom placement;
+    private final SplittableRandom dawdle;
+    private final SplittableRandom breakdown;
+    private final long dawdleKey;                   // key of the counter based dawdle decisions
+    private final long seed;
+    private long numSteps = 0;                      // nextStep() calls
+    private long numBreakdowns = 0;                 // nextBreakdown() calls
+
+    private final boolean[] dawdleFlags;            // per car, for the current step
+    private final long[] dawdleThreshold;           // per car: nextDouble() < p  <=>  (nextLong() >>> 11) < dawdleThreshold
+
+    public RandomStreams(long seed, int numCars, double probabilityFluctuation) {
+        this.seed = seed;
+        SplittableRandom master = new SplittableRandom(seed);
+        placement = master.split();
+        dawdle = master.split();
+        breakdown = master.split();
+        dawdleKey = master.nextLong();
+
+        dawdleFlags = new boolean[numCars];
+        dawdleThreshold = new long[numCars];
+        Arrays.fill(dawdleThreshold, threshold(probabilityFluctuation));
+    }
+
+    private static long threshold(double probability) {
+        return (long) Math.ceil(probability * (1L << 53));
+    }
+
+    /*
+     * Sets the dawdle probability of one car (the probability of the
+     * configuration by default), see VehicleClasses.
+     */
+    public void setDawdleProbability(int car, double probability) {
+        dawdleThreshold[car] = threshold(probability);
+    }
+
+    /*
+     * Sets the dawdle probability of every car from the table of its class.
+     * @param type The type id of every car, car c at offset + c, see Fleet.
+     */
+    public void setDawdleProbabilities(VehicleClasses classes, byte[] type, int offset) {
+        for (int c = 0; c < dawdleThreshold.length; c++) {
+            dawdleThreshold[c] = threshold(classes.dawdleProbability[type[offset + c]]);
+        }
+    }
+
+    public SplittableRandom placement() {
+        return placement;
+    }
+
+    /*
+     * Draws the dawdle decisions of all cars for the next step.
+     */
+    public void nextStep() {
+        final SplittableRandom d = dawdle;
+        final long[] threshold = dawdleThreshold;
+        for (int i = 0; i < dawdleFlags.length; i++) {
+            dawdleFlags[i] = (d.nextLong() >>> 11) < threshold[i];
+        }
+        numSteps++;
+    }
+
+    /*
+     * @return True if the car slows down by 1 in the current step (if it moves).
+     */
+    public boolean dawdles(int car) {
+        return dawdleFlags[car];
+    }
+
+    /*
+     * @return The dawdle decisions of all cars for the current step (read only).
+     */
+    public boolean[] getDawdleFlags() {
+        return dawdleFlags;
+    }
+
+    /*
+     * Counter based dawdle decision, can be called from any thread in any order.
+     * @return True if the car slows down by 1 in the given step (if it moves).
+     */
+    public boolean dawdles(long step, int car) {
+        long z = mix64(dawdleKey + step * 0x9e3779b97f4a7c15L + car);
+        return (z >>> 11) < dawdleThreshold[car];
+    }
+
+    /*
+     * @return A uniform number in [0, 1) deciding whether the broken car breaks down or gets repaired.
+     */
+    public double nextBreakdown() {
+        numBreakdowns++;
+        return breakdown.nextDouble();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /*
+     * @return The number of steps drawn (nextStep() calls) since the seed.
+     */
+    public long getNumSteps() {
+        return numSteps;
+    }
+
+    /*
+     * @return The number of breakdown numbers drawn since the seed.
+     */
+    public long getNumBreakdowns() {
+        return numBreakdowns;
+    }
+
+    /*
+     * Moves new streams to the position of other streams of the same seed
+     * and number of cars, by drawing the numbers they drew (about a
+     * nanosecond per car and step). The placement stream is not moved, it is
+     * only used before the first step.
+     */
+    public void skip(long numSteps, long numBreakdowns) {
+        final SplittableRandom d = dawdle;
+        for (long n = numSteps * dawdleFlags.length; n > 0; n--) {
+            d.nextLong();
+        }
+        for (long n = numBreakdowns; n > 0; n--) {
+            breakdown.nextDouble();
+        }
+        this.numSteps += numSteps;
+        this.numBreakdowns += numBreakdowns;
+    }
+
+    /**
+     * Derives the seed of one run of a sweep.
+     * @param masterSeed The seed of the sweep.
+     * @param cellFingerprint SimulationConfig.fingerprint() of the cell.
+     * @param repetition The index of the run within the cell.
+     * @return The seed of the run.
+     */
+    public static long runSeed(long masterSeed, long cellFingerprint, int repetition) {
+        return mix64(mix64(masterSeed ^ cellFingerprint) + repetition);
+    }
+
+    // finaliser of MurmurHash3
+    static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
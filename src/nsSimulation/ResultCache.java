@@ -0,0 +1,194 @@
+package nsSimulation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/*==============================================================================
+On-disk cache of the results of single runs, so that a sweep which was
+interrupted, or which is run again with some cells changed, only simulates
+the runs it has not done before (with the same seed of the sweep).
+
+A run is addressed by the SHA-256 of its configuration: every parameter of
+the model and the seed (SimulationConfig.canonicalForm()), the dynamics of
+the engine (the parallel engine draws its random numbers differently) and
+ENGINE_VERSION. The results are kept in an append-only journal, one record
+per finished run, written as soon as the run is done:
+    32 bytes key, ResultColumns.NUM_COLUMNS longs, int CRC32 of both
+after a header of int MAGIC and int NUM_COLUMNS. A record which was cut off
+when the JVM died is dropped when the cache is opened again, and a journal
+with other columns is started afresh.
+==============================================================================*/
+
+public class ResultCache implements Closeable {
+
+    /*
+     * Version of the update rules; increase it whenever a change of the
+     * engines changes the results of a run, so that older results are not used.
+     */
+    public static final int ENGINE_VERSION = 1;
+
+    private static final String JOURNAL = "results.journal";
+    private static final int MAGIC = 0x4e53524a;            // "NSRJ"
+    private static final int HEADER_SIZE = 8;
+    private static final int KEY_SIZE = 32;
+    private static final int RECORD_SIZE = KEY_SIZE + 8 * ResultColumns.NUM_COLUMNS + 4;
+
+    private final Map<String, RunResult> results = new HashMap<>();
+    private final RandomAccessFile file;
+    private final FileChannel journal;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private int numRecovered = 0;
+
+    /**
+     * Opens the cache in a directory, creating it if needed.
+     * @param directory The directory of the journal.
+     */
+    public ResultCache(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create the cache directory " + directory);
+        file = new RandomAccessFile(new File(directory, JOURNAL), "rw");
+        journal = file.getChannel();
+        try {
+            load();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void load() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        journal.read(header, 0);
+        if (header.position() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != ResultColumns.NUM_COLUMNS) {
+            journal.truncate(0);
+            header.clear();
+            header.putInt(MAGIC).putInt(ResultColumns.NUM_COLUMNS).flip();
+            journal.write(header, 0);
+        }
+
+        long size = journal.size();
+        long valid = HEADER_SIZE;
+        journal.position(HEADER_SIZE);
+        while (valid + RECORD_SIZE <= size) {
+            record.clear();
+            while (record.hasRemaining()) {
+                if (journal.read(record) < 0) break;
+            }
+            record.flip();
+            if (record.remaining() < RECORD_SIZE || !checkCrc()) break;
+
+            byte[] key = new byte[KEY_SIZE];
+            record.get(key);
+            RunResult r = new RunResult();
+            for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+                ResultColumns.set(r, c, record.getLong());
+            }
+            results.put(toHex(key), r);
+            valid += RECORD_SIZE;
+        }
+        if (valid < size) journal.truncate(valid);         // torn or corrupt tail
+        journal.position(valid);
+        numRecovered = results.size();
+    }
+
+    private boolean checkCrc() {
+        crc.reset();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        return (int) crc.getValue() == record.getInt(RECORD_SIZE - 4);
+    }
+
+    /**
+     * @param run The configuration of the run, with its seed.
+     * @param parallelDynamics True if the run is done by ParallelRoadNS.
+     * @return The key of the run in the cache.
+     */
+    public static String key(SimulationConfig run, boolean parallelDynamics) {
+        String canonical = "engineVersion=" + ENGINE_VERSION + ";dynamics=" + (parallelDynamics ? "parallel" : "sequential")
+                + ";" + run.canonicalForm();
+        try {
+            return toHex(MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);     // every JVM has SHA-256
+        }
+    }
+
+    /**
+     * @return A copy of the cached result, or null if the run is not in the cache.
+     */
+    public synchronized RunResult get(String key) {
+        RunResult cached = results.get(key);
+        return cached == null ? null : copy(cached);
+    }
+
+    /**
+     * Adds the result of a finished run and appends it to the journal.
+     * Can be called from any thread. A copy is kept, the caller may go on
+     * changing the result (e.g. its cellRepetitions, see SweepExecutor).
+     */
+    public synchronized void put(String key, RunResult result) throws IOException {
+        if (results.containsKey(key)) return;
+
+        record.clear();
+        for (int i = 0; i < KEY_SIZE; i++) {
+            record.put((byte) Integer.parseInt(key.substring(2 * i, 2 * i + 2), 16));
+        }
+        for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+            record.putLong(ResultColumns.get(result, c));
+        }
+        crc.reset();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        while (record.hasRemaining()) {
+            journal.write(record);
+        }
+        results.put(key, copy(result));
+    }
+
+    private static RunResult copy(RunResult result) {
+        RunResult r = new RunResult();
+        for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+            ResultColumns.set(r, c, ResultColumns.get(result, c));
+        }
+        return r;
+    }
+
+    /*
+     * @return The number of results in the cache.
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /*
+     * @return The number of results which were in the journal when the cache was opened.
+     */
+    public int getNumRecovered() {
+        return numRecovered;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        journal.force(false);
+        file.close();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,158 @@
+package nsSimulation;
+
+/*==============================================================================
+The columns of a RunResult (the columns of simulations.csv without the model
+name), used by the binary result files, see ColumnarResultSink and
+ColumnarResultReader. Every value is accessed as a long; a DOUBLE column
+holds Double.doubleToLongBits of the value.
+==============================================================================*/
+
+public final class ResultColumns {
+
+    // column types
+    public static final int INT = 0;
+    public static final int LONG = 1;
+    public static final int DOUBLE = 2;
+    public static final int BOOLEAN = 3;
+
+    // columns, in the order of simulations.csv
+    public static final int REPETITION = 0;
+    public static final int ROAD_BLOCK = 1;
+    public static final int MAX_SPEED_SLOW = 2;
+    public static final int MAX_SPEED_FAST = 3;
+    public static final int FAST_CAR_RATIO = 4;
+    public static final int DENSITY = 5;
+    public static final int TOTAL_DISTANCE = 6;
+    public static final int TOTAL_SLOW_DISTANCE = 7;
+    public static final int TOTAL_FAST_DISTANCE = 8;
+    public static final int WORST_SLOW_DISTANCE = 9;
+    public static final int WORST_FAST_DISTANCE = 10;
+    public static final int BEST_SLOW_DISTANCE = 11;
+    public static final int BEST_FAST_DISTANCE = 12;
+    public static final int NUM_SLOW_CARS = 13;
+    public static final int NUM_FAST_CARS = 14;
+    public static final int GLOBAL_SPEED_RULE = 15;
+    public static final int SLACK = 16;
+    public static final int DISTANCE_LOOK_AHEAD = 17;
+    public static final int SEED = 18;
+    public static final int WARM_UP_STEPS = 19;
+    public static final int MEASURED_STEPS = 20;
+    public static final int CELL_REPETITIONS = 21;
+    public static final int CELL_PRECISION = 22;
+
+    public static final int NUM_COLUMNS = 23;
+
+    private static final String[] NAMES = {
+        "ith_run", "road_block", "max_speed_slow", "max_speed_fast", "fast_car_ratio", "density",
+        "total_all_cars_distance", "total_slow_cars_distance", "total_fast_cars_distance",
+        "worst_case_distance_slow_cars", "worst_case_distance_fast_cars",
+        "best_case_distance_slow_car", "best_case_distance_fast_car",
+        "num_slow_cars", "num_fast_cars", "global_speed_rule", "slack", "distance_look_ahead", "seed",
+        "warm_up_steps", "measured_steps", "cell_repetitions", "cell_precision"
+    };
+
+    private static final int[] TYPES = {
+        INT, BOOLEAN, INT, INT, DOUBLE, DOUBLE,
+        INT, INT, INT,
+        INT, INT,
+        INT, INT,
+        INT, INT, BOOLEAN, INT, INT, LONG,
+        INT, INT, INT, DOUBLE
+    };
+
+    private ResultColumns() {
+    }
+
+    public static String getName(int column) {
+        return NAMES[column];
+    }
+
+    public static int getType(int column) {
+        return TYPES[column];
+    }
+
+    /**
+     * @param name The name of a column, see getName().
+     * @return The column, or -1 if there is no column with this name.
+     */
+    public static int find(String name) {
+        for (int c = 0; c < NUM_COLUMNS; c++) {
+            if (NAMES[c].equals(name)) return c;
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the values of a column.
+     * @return A negative number, zero or a positive number as a is less than, equal to or greater than b.
+     */
+    public static int compare(int column, long a, long b) {
+        if (TYPES[column] == DOUBLE) return Double.compare(Double.longBitsToDouble(a), Double.longBitsToDouble(b));
+        return Long.compare(a, b);
+    }
+
+    /**
+     * @return The value of a column as a number.
+     */
+    public static double toDouble(int column, long value) {
+        return TYPES[column] == DOUBLE ? Double.longBitsToDouble(value) : value;
+    }
+
+    public static long get(RunResult r, int column) {
+        switch (column) {
+            case REPETITION:            return r.repetition;
+            case ROAD_BLOCK:            return r.roadBlock ? 1 : 0;
+            case MAX_SPEED_SLOW:        return r.maxSpeedSlow;
+            case MAX_SPEED_FAST:        return r.maxSpeedFast;
+            case FAST_CAR_RATIO:        return Double.doubleToLongBits(r.fastCarRatio);
+            case DENSITY:               return Double.doubleToLongBits(r.density);
+            case TOTAL_DISTANCE:        return r.totalDistance;
+            case TOTAL_SLOW_DISTANCE:   return r.totalSlowDistance;
+            case TOTAL_FAST_DISTANCE:   return r.totalFastDistance;
+            case WORST_SLOW_DISTANCE:   return r.worstSlowDistance;
+            case WORST_FAST_DISTANCE:   return r.worstFastDistance;
+            case BEST_SLOW_DISTANCE:    return r.bestSlowDistance;
+            case BEST_FAST_DISTANCE:    return r.bestFastDistance;
+            case NUM_SLOW_CARS:         return r.numSlowCars;
+            case NUM_FAST_CARS:         return r.numFastCars;
+            case GLOBAL_SPEED_RULE:     return r.globalSpeedRule ? 1 : 0;
+            case SLACK:                 return r.slack;
+            case DISTANCE_LOOK_AHEAD:   return r.distanceToLookAhead;
+            case SEED:                  return r.seed;
+            case WARM_UP_STEPS:         return r.warmUpSteps;
+            case MEASURED_STEPS:        return r.measuredSteps;
+            case CELL_REPETITIONS:      return r.cellRepetitions;
+            case CELL_PRECISION:        return Double.doubleToLongBits(r.cellPrecision);
+        }
+        throw new IllegalArgumentException("Unknown column: " + column);
+    }
+
+    public static void set(RunResult r, int column, long value) {
+        switch (column) {
+            case REPETITION:            r.repetition = (int) value; break;
+            case ROAD_BLOCK:            r.roadBlock = value != 0; break;
+            case MAX_SPEED_SLOW:        r.maxSpeedSlow = (int) value; break;
+            case MAX_SPEED_FAST:        r.maxSpeedFast = (int) value; break;
+            case FAST_CAR_RATIO:        r.fastCarRatio = Double.longBitsToDouble(value); break;
+            case DENSITY:               r.density = Double.longBitsToDouble(value); break;
+            case TOTAL_DISTANCE:        r.totalDistance = (int) value; break;
+            case TOTAL_SLOW_DISTANCE:   r.totalSlowDistance = (int) value; break;
+            case TOTAL_FAST_DISTANCE:   r.totalFastDistance = (int) value; break;
+            case WORST_SLOW_DISTANCE:   r.worstSlowDistance = (int) value; break;
+            case WORST_FAST_DISTANCE:   r.worstFastDistance = (int) value; break;
+            case BEST_SLOW_DISTANCE:    r.bestSlowDistance = (int) value; break;
+            case BEST_FAST_DISTANCE:    r.bestFastDistance = (int) value; break;
+            case NUM_SLOW_CARS:         r.numSlowCars = (int) value; break;
+            case NUM_FAST_CARS:         r.numFastCars = (int) value; break;
+            case GLOBAL_SPEED_RULE:     r.globalSpeedRule = value != 0; break;
+            case SLACK:                 r.slack = (int) value; break;
+            case DISTANCE_LOOK_AHEAD:   r.distanceToLookAhead = (int) value; break;
+            case SEED:                  r.seed = value; break;
+            case WARM_UP_STEPS:         r.warmUpSteps = (int) value; break;
+            case MEASURED_STEPS:        r.measuredSteps = (int) value; break;
+            case CELL_REPETITIONS:      r.cellRepetitions = (int) value; break;
+            case CELL_PRECISION:        r.cellPrecision = Double.longBitsToDouble(value); break;
+            default: throw new IllegalArgumentException("Unknown column: " + column);
+        }
+    }
+}
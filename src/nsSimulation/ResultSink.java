@@ -0,0 +1,25 @@
+package nsSimulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/*==============================================================================
+Destination of the results of a sweep, see SweepExecutor.
+==============================================================================*/
+
+public interface ResultSink extends Closeable {
+
+    /**
+     * Hands over the result of a run. The sink takes ownership of the
+     * record, the caller must not change it afterwards.
+     * @param result The result of the run.
+     * @throws IOException If the results can no longer be written.
+     */
+    void accept(RunResult result) throws IOException;
+
+    /**
+     * Writes all accepted results and releases the destination.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,30 @@
+package nsSimulation;
+
+/*==============================================================================
+A road engine: the state of a two-lane ring road and the NS update rules.
+The state and the measurement are read through RoadView.
+==============================================================================*/
+
+public interface Road extends RoadView {
+
+    /*
+     * Calculates the next state of the road (one time step).
+     */
+    void nextState();
+
+    /**
+     * @param config The configuration of the run.
+     * @return A new road of the engine selected by the configuration.
+     */
+    static Road create(SimulationConfig config) {
+        switch (config.engine) {
+            case SimulationConfig.ENGINE_OBJECTS:
+                return new RoadNS(config);
+            case SimulationConfig.ENGINE_ARRAYS:
+                return new ArrayRoadNS(config);
+            case SimulationConfig.ENGINE_PARALLEL:
+                return new ParallelRoadNS(config);
+        }
+        throw new IllegalArgumentException("Unknown engine: " + config.engine);
+    }
+}
@@ -7,14 +7,13 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Random;
 
 
 /*==============================================================================
 Implement NS model based on paper Two-lane traffic rules for cellular Automata
 *==============================================================================*/
 
-public class RoadNS {
+public class RoadNS implements Road {
 
     public static int NUM_LANES = 2;
     public static int RIGHT_LANE = 1;
@@ -23,6 +22,7 @@ public class RoadNS {
     public static int NUM_TYPE_CAR = 2;
     public static int TYPE_CAR_SLOW = 1;
     public static int TYPE_CAR_FAST = 2;
+    public static final int TYPE_CAR_BROKEN = 3;          // not counted in NUM_TYPE_CAR, it replaces one slow car
     
     private int numCarsPassingEnd = 0;                // number of cars passing the end of the segment to verify with result in the paper
             
@@ -34,99 +34,94 @@ public class RoadNS {
     private int[] helperRight;
     private int[] helperLeft;
     
+    private final LaneIndex rightIndex;         // neighbour lookup on rightLane/leftLane
+    private final LaneIndex leftIndex;
+    
     private String outputFile;
     
+    private final SimulationConfig config;
+    
+    private final RandomStreams streams;        // used by generateCars() and by all cars of the road
+    
+    private final RoadStatistics statistics;
+    private final LoopDetectors detectors;      // null: none
+    
+    // reused by moveCar() so that a step allocates nothing
+    private final SpeedDistance withCarFront = new SpeedDistance(0, 0);
+    private final SpeedDistance withCarFrontNextLane = new SpeedDistance(0, 0);
+    private final SpeedDistance withCarBehindNextLane = new SpeedDistance(0, 0);
+    
     
-    public RoadNS(){
+    public RoadNS(SimulationConfig config){
+        this(config, new RandomStreams(config.seed, config.getNumCars(), config.probabilityFluctuation));
         
+        generateCars();
+        rightIndex.update(rightLane);
+        leftIndex.update(leftLane);
+        if (TrafficSimulation.DEBUG) printTrafficSituation();
+    }
+
+    /*
+     * A road in the state of a snapshot, see RoadSnapshot.restore() and fork().
+     */
+    RoadNS(RoadSnapshot snapshot, SimulationConfig config, RandomStreams streams) {
+        this(config, streams);
+        
+        for (int i = 0; i < snapshot.getNumCars(); i++) {
+            int type = snapshot.type[i], lane = snapshot.lane[i], position = snapshot.position[i];
+            CarNS car = new CarNS(i, type, lane, position, snapshot.speed[i], snapshot.color[i], snapshot.brokenDown[i], config, streams);
+            cars.add(car);
+            streams.setDawdleProbability(i, config.vehicleClasses.dawdleProbability[type]);
+            
+            // in the order of the cars, as moveCar() does (the last of two cars in a cell is kept)
+            if (lane == RIGHT_LANE) rightLane[position] = car.getSpeed();
+            else leftLane[position] = car.getSpeed();
+        }
+        rightIndex.update(rightLane);
+        leftIndex.update(leftLane);
+    }
+
+    private RoadNS(SimulationConfig config, RandomStreams streams) {
+        this.config = config;
+        this.streams = streams;
+        statistics = new RoadStatistics(config.roadSize, config.vehicleClasses.size());
+        detectors = config.detectors.isEmpty() ? null : new LoopDetectors(config);
         outputFile = "debugFlow.txt";
        
         // Initialise variables
         cars = new ArrayList<>();
-        rightLane = new int[TrafficSimulation.ROAD_SIZE];
-        leftLane = new int[TrafficSimulation.ROAD_SIZE];
+        rightLane = new int[config.roadSize];
+        leftLane = new int[config.roadSize];
 
-        helperRight = new int[TrafficSimulation.ROAD_SIZE];
-        helperLeft = new int[TrafficSimulation.ROAD_SIZE];
+        helperRight = new int[config.roadSize];
+        helperLeft = new int[config.roadSize];
 
         for (int i = 0; i < rightLane.length; i++) {
             rightLane[i] = -1;
             leftLane[i] = -1;
         }
         
-        generateCars();
-        if (TrafficSimulation.DEBUG) printTrafficSituation();
+        rightIndex = LaneIndex.create(config);
+        leftIndex = LaneIndex.create(config);
     }
 
     
     /*==============================================================================
-    Generate cars for the model
-    - position of car, lane of car, speed of car are randomly generated
-    - distance between a car and the car in front of it (same lane) is 2 x speed of the car (2-seconds rule)
-    - due to road situation, speed of cars may be limitted:
-        road length (both lanes) = 2 x L
-        num car = N
-        mean gap between cars = 2L/N
-        therefore v should be <= L/N (to satisfy 2-seconds rule )
+    Generate cars for the model with Fleet.generateCars(), the generator of
+    all engines, and make a CarNS of every car of the fleet
     *==============================================================================*/
     public void generateCars(){
-        // randomly generate all the cars
-        
-        int rightLane_dummyPosition = 0, leftLane_dummyPosition = 0, dummyPosition = 0, slow_generated = 0, fast_generated = 0, lane, type_of_car;
-        CarNS tmpC;
-        Random r = new Random();
-        int limitSpeed = (int) (TrafficSimulation.ROAD_SIZE / (TrafficSimulation.NUM_FAST_CARS + TrafficSimulation.NUM_SLOW_CARS));
-        boolean createdBrokenCar = ! TrafficSimulation.HAS_BROKEN_CAR;
+        Fleet fleet = new Fleet(config.getNumCars());
+        fleet.generateCars(config, streams.placement());
+        streams.setDawdleProbabilities(config.vehicleClasses, fleet.type, 0);
         
-        
-        for (int i = 0; i < TrafficSimulation.NUM_FAST_CARS + TrafficSimulation.NUM_SLOW_CARS; i++) {
-            
-            // randomly choose the lane (unless the limit is reached)
-            if (rightLane_dummyPosition>= TrafficSimulation.ROAD_SIZE)
-                lane = LEFT_LANE;
-            else if (leftLane_dummyPosition>= TrafficSimulation.ROAD_SIZE)
-                lane = RIGHT_LANE;            
-            else lane = r.nextInt(NUM_LANES) + 1;            
-            
-            // retrieve position for the (soon to be generated) car to be placed
-            if (lane == RIGHT_LANE) dummyPosition = rightLane_dummyPosition;
-            else dummyPosition = leftLane_dummyPosition;
-            
-            
-            // randomly choose the type of car (unless the limit is reached)
-            if (slow_generated == TrafficSimulation.NUM_SLOW_CARS)            // limit is reached
-                type_of_car = TYPE_CAR_FAST;
-            else if (fast_generated == TrafficSimulation.NUM_FAST_CARS)       // limit is reached
-                type_of_car = TYPE_CAR_SLOW;
-            else type_of_car = r.nextInt(NUM_TYPE_CAR) + 1; // randomly
-
-            // generate the car and add it to the list of cars
-            if (type_of_car == TYPE_CAR_SLOW) {                
-                if (!createdBrokenCar && TrafficSimulation.NUM_SLOW_CARS <= 4*(slow_generated+1)){
-                    createdBrokenCar = true;
-                    tmpC = new BrokenCarNS(i, lane, dummyPosition, limitSpeed); // broken car
-                    slow_generated++;
-                } else {
-                    tmpC = new SlowCarNS(i, lane, dummyPosition, limitSpeed);   // slow car
-                    slow_generated++;                    
-                }                
-            } else {
-                tmpC = new FastCarNS(i, lane, dummyPosition, limitSpeed);
-                fast_generated++;
-            }
-            cars.add(tmpC);
+        for (int i = 0; i < fleet.numCars; i++) {
+            CarNS car = new CarNS(i, fleet.type[i], fleet.lane[i], fleet.position[i], fleet.speed[i], fleet.color[i], false, config, streams);
+            cars.add(car);
 
             // save data to the road structure (lanes)
-            if (lane == RIGHT_LANE) rightLane[dummyPosition] = tmpC.getSpeed();
-            else leftLane[dummyPosition] = tmpC.getSpeed();
-
-            // follow the 2-seconds rule 
-            dummyPosition = dummyPosition + 2*tmpC.getSpeed();
-            if (tmpC.getSpeed()==0) dummyPosition +=1;          // speed is 0, so gap should be 1
-
-            // set the position for the next car
-            if (lane == RIGHT_LANE) rightLane_dummyPosition = dummyPosition;
-            else leftLane_dummyPosition = dummyPosition;
+            if (car.getLane() == RIGHT_LANE) rightLane[car.getPosition()] = car.getSpeed();
+            else leftLane[car.getPosition()] = car.getSpeed();
         }
         
         // debug
@@ -136,29 +131,49 @@ public class RoadNS {
         }
     }
 
+    @Override
     public void nextState() {
+        long start = Probes.ENABLED ? System.nanoTime() : 0;
+        int passed = numCarsPassingEnd;
+        
         // CALCULATE NEW STATE /////////////////////////////////////////////////
         // clear helper lanes
         for (int i = 0; i < helperRight.length; i++) {
             helperRight[i] = -1;
             helperLeft[i] = -1;
         }
+        rightIndex.clearNext();
+        leftIndex.clearNext();
 
+        // draw the random numbers of this step in bulk
+        streams.nextStep();
+        
         // move cars (check rules on current road and save new positions in next road)
-        for (CarNS car : cars) {
-            moveCar(car);
+        for (int i = 0; i < cars.size(); i++) {
+            moveCar(cars.get(i));
         }
+        statistics.addStep();
+        if (detectors != null) detectors.addStep();
 
         // END OF CALCULATE NEW STATE //////////////////////////////////////////
         //
-        // set new state
-        rightLane = helperRight.clone();
-        leftLane = helperLeft.clone();
+        // set new state (swap the buffers, the old lanes are cleared at the next step)
+        int[] tmp = rightLane;
+        rightLane = helperRight;
+        helperRight = tmp;
+        tmp = leftLane;
+        leftLane = helperLeft;
+        helperLeft = tmp;
+        rightIndex.nextState(rightLane);
+        leftIndex.nextState(leftLane);
+        
+        if (Probes.ENABLED) Probes.step(System.nanoTime() - start, numCarsPassingEnd - passed);
     }
 
     /*
      * Prints the current state of the road to the console.
      */
+    @Override
     public void printTrafficSituation() {
         String traffic_rightLane = "|", traffic_leftLane = "|";
 
@@ -180,8 +195,12 @@ public class RoadNS {
      * @return The statistics of the simulation.
      */
     public String getStatistics(int numIterations) {
-        //TODO implement this method! (calculate flows etc)
-        return "not implemented yet";
+        return statistics + "\nflow " + getFlow(numIterations) + ", flow2 " + getFlow2(numIterations);
+    }
+
+    @Override
+    public RoadStatistics getStatistics() {
+        return statistics;
     }
 
     // Will probably be deleted (and replaced with getStatistics()).
@@ -190,7 +209,7 @@ public class RoadNS {
         for (CarNS c : cars) {
             totalDistance += c.getTraveledDistance();
         }
-//        double flow = ((double) totalDistance) / (numIterations * TrafficSimulation.ROAD_SIZE * 2 * (TrafficSimulation.NUM_SLOW_CARS + TrafficSimulation.NUM_FAST_CARS));
+//        double flow = ((double) totalDistance) / (numIterations * config.roadSize * 2 * (config.numSlowCars + config.numFastCars));
         double flow = Math.round(totalDistance * 100/numIterations) /100.0;
         System.out.println("Flow: " + flow);        
         System.out.println("Number of cars passing the end of segment: " + numCarsPassingEnd + ", numIterations so far: " + numIterations + ", Flow = " + numCarsPassingEnd/numIterations);
@@ -207,6 +226,7 @@ public class RoadNS {
     A measurement of flow by calculating the travelled cells over  
     a measure period (i.e. numIterations)
     ==========================================================================*/
+    @Override
     public double getFlow(int numIterations){
         int totalDistance = 0;
         for (CarNS c : cars) {
@@ -220,6 +240,7 @@ public class RoadNS {
     Another measurement of flow by calculating the number of cars passing the 
     end of the road segment during a measure period (i.e. numIterations)
     ==========================================================================*/
+    @Override
     public double getFlow2(int numIterations){
         return Math.round(numCarsPassingEnd * 100/numIterations) /100.0;    // round up to 2 digit after zero
     }
@@ -232,6 +253,82 @@ public class RoadNS {
         return cars;
     }
 
+    public SimulationConfig getConfig() {
+        return config;
+    }
+
+    /*
+     * @return The state of the road after the last step, see RoadSnapshot.
+     */
+    public RoadSnapshot snapshot() {
+        return new RoadSnapshot(config, cars, streams);
+    }
+
+    /*
+     * @param seed The seed of the random numbers of the copy.
+     * @return A copy of the road in its current state which continues with
+     * the random numbers of the seed, see RoadSnapshot.fork().
+     */
+    public RoadNS fork(long seed) {
+        return snapshot().fork(seed);
+    }
+
+    @Override
+    public void clearStatistics() {
+        for (CarNS c : cars) {
+            c.clearTraveledDistance();
+            c.clearMaxReachedSpeed();
+        }
+        numCarsPassingEnd = 0;
+        statistics.clear();
+        if (detectors != null) detectors.clear();
+    }
+
+    @Override
+    public LoopDetectors getDetectors() {
+        return detectors;
+    }
+
+    @Override
+    public int getNumCars() {
+        return cars.size();
+    }
+
+    @Override
+    public int getCarType(int car) {
+        return cars.get(car).getTypeId();
+    }
+
+    @Override
+    public int getCarLane(int car) {
+        return cars.get(car).getLane();
+    }
+
+    @Override
+    public int getCarPosition(int car) {
+        return cars.get(car).getPosition();
+    }
+
+    @Override
+    public int getCarSpeed(int car) {
+        return cars.get(car).getSpeed();
+    }
+
+    @Override
+    public int getCarColor(int car) {
+        return cars.get(car).getColor().getRGB();
+    }
+
+    @Override
+    public int getTraveledDistance(int car) {
+        return cars.get(car).getTraveledDistance();
+    }
+
+    @Override
+    public int getMaxReachedSpeed(int car) {
+        return cars.get(car).getMaxReachedSpeed();
+    }
+
     /*
      * Helper method for printTrafficSituation(). Converts speeds with more than
      * 2 digits to characters (Hex encoding). Does not change 1 digit speeds. If
@@ -239,7 +336,7 @@ public class RoadNS {
      * @param speed An integer speed or -1 if no car is present.
      * @return A character that represents the input speed.
      */
-    private char toSymbol(int speed) {
+    static char toSymbol(int speed) {
         if (speed >= 0 && speed <= 9) {
             return Character.forDigit(speed, 10);
         } else {
@@ -265,58 +362,42 @@ public class RoadNS {
         }
     }
 
-    private SpeedDistance getStatusWithFrontCar(int lane, int position) {
-        int speed = 0, distance = 0;
+    SpeedDistance getStatusWithFrontCar(int lane, int position, SpeedDistance result) {
         int[] arr;
+        LaneIndex index;
         
-        if (lane==RIGHT_LANE) arr = rightLane;
-        else arr = leftLane;
-            
-        for (int i = position + 1; i < TrafficSimulation.ROAD_SIZE; i++) {
-            if (arr[i] != -1){
-                speed = arr[i];
-                distance = i - position - 1;
-                return new SpeedDistance(speed, distance);
-            }          
-        }
-
-        // the consideration car is at the end of the road, therefore continue searching from the beginning of the lane
-        for (int i = 0; i < TrafficSimulation.ROAD_SIZE; i++) {
-            if (arr[i] != -1){
-                speed = arr[i];
-                distance = i + TrafficSimulation.ROAD_SIZE - position - 1;
-                return new SpeedDistance(speed, distance);              
-            }
+        if (lane==RIGHT_LANE) { arr = rightLane; index = rightIndex; }
+        else { arr = leftLane; index = leftIndex; }
+        
+        int i = index.front(position);
+        if (i == -1) {
+            if (Probes.ENABLED) Probes.neighbourLookup(config.roadSize);
+            return result.set(config.maxSpeedFastCar, Integer.MAX_VALUE);  // no car
         }
         
-        return new SpeedDistance(TrafficSimulation.MAX_SPEED_FAST_CAR, Integer.MAX_VALUE);  // no car
+        // i <= position: the car was found after continuing from the beginning of the lane
+        int distance = i > position ? i - position - 1 : i + config.roadSize - position - 1;
+        if (Probes.ENABLED) Probes.neighbourLookup(distance);
+        return result.set(arr[i], distance);
     }
 
-    private SpeedDistance getStatusWithBehindCar(int lane, int position) {
-        int speed = 0, distance = 0;
+    SpeedDistance getStatusWithBehindCar(int lane, int position, SpeedDistance result) {
         int[] arr;
+        LaneIndex index;
         
-        if (lane==RIGHT_LANE) arr = rightLane;
-        else arr = leftLane;
-            
-        for (int i = position - 1; i >= 0; i--) {
-            if (arr[i] != -1){
-                speed = arr[i];
-                distance = position - i - 1;
-                return new SpeedDistance(speed, distance);
-            }          
-        }
-
-        // the consideration car is at the begining of the road, therefore continue searching from the end of the lane
-        for (int i = TrafficSimulation.ROAD_SIZE-1; i >= 0; i--) {
-            if (arr[i] != -1){
-                speed = arr[i];
-                distance = position + TrafficSimulation.ROAD_SIZE - i - 1;
-                return new SpeedDistance(speed, distance);              
-            }
+        if (lane==RIGHT_LANE) { arr = rightLane; index = rightIndex; }
+        else { arr = leftLane; index = leftIndex; }
+        
+        int i = index.behind(position);
+        if (i == -1) {
+            if (Probes.ENABLED) Probes.neighbourLookup(config.roadSize);
+            return result.set(config.maxSpeedFastCar, Integer.MAX_VALUE);  // no car
         }
         
-        return new SpeedDistance(TrafficSimulation.MAX_SPEED_FAST_CAR, Integer.MAX_VALUE);  // no car
+        // i >= position: the car was found after continuing from the end of the lane
+        int distance = i < position ? position - i - 1 : position + config.roadSize - i - 1;
+        if (Probes.ENABLED) Probes.neighbourLookup(distance);
+        return result.set(arr[i], distance);
     }
     
     private void moveCar(CarNS car) {
@@ -325,17 +406,22 @@ public class RoadNS {
         int speed = car.getSpeed();
         int otherLane = Math.floorMod(2*lane,3);
 
-        SpeedDistance withCarFront = getStatusWithFrontCar(lane, position);
-        SpeedDistance withCarFrontNextLane = getStatusWithFrontCar(otherLane, position-1);
-        SpeedDistance withCarBehindNextLane = getStatusWithBehindCar(otherLane, position+1);
+        getStatusWithFrontCar(lane, position, withCarFront);
+        getStatusWithFrontCar(otherLane, position-1, withCarFrontNextLane);
+        getStatusWithBehindCar(otherLane, position+1, withCarBehindNextLane);
         
         int newSpeed = car.adaptSpeed(withCarFront, withCarFrontNextLane, withCarBehindNextLane);
 
-        if (position + newSpeed >= TrafficSimulation.ROAD_SIZE) numCarsPassingEnd += 1;
+        if (position + newSpeed >= config.roadSize) numCarsPassingEnd += 1;
         
-        int newPosition = Math.floorMod(position + newSpeed, TrafficSimulation.ROAD_SIZE);
+        int newPosition = Math.floorMod(position + newSpeed, config.roadSize);
         int newLane = car.lane;
         
+        int type = car.getTypeId();
+        if (newLane != lane) statistics.addLaneChange(type);
+        statistics.addCar(type, newLane, newSpeed);
+        if (detectors != null) detectors.addMove(type, newLane, position, newSpeed, newPosition);
+        
         // commit the changes
         car.setPosition(newPosition);
         //Setting the new speed, lane is already done during the call to adaptSpeed();
@@ -345,8 +431,10 @@ public class RoadNS {
         
         if (newLane == LEFT_LANE) {
             helperLeft[newPosition] = newSpeed;
+            leftIndex.setNext(newPosition);
         } else {
             helperRight[newPosition] = newSpeed;
+            rightIndex.setNext(newPosition);
         }        
     }
     
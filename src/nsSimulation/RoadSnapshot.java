@@ -0,0 +1,200 @@
+package nsSimulation;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/*==============================================================================
+The state of a RoadNS at the end of a step, see RoadNS.snapshot(): the
+configuration, the state of every car (lane, position, speed, colour, broken
+down) and the position of its random streams. The lanes are not stored,
+they follow from the cars.
+
+A road which ran until it reached equilibrium is saved once, and as many
+runs as needed start from it instead of from generateCars():
+    restore()       a road which continues exactly as the saved road would
+                    have: the same states and statistics, step after step
+    fork(seed)      a road which continues from the same state with the
+                    random numbers of another seed, e.g. the repetitions of
+                    a what-if run ("the broken car breaks down now", see
+                    CarNS.setBrokenDown()) from one equilibrated state
+The measurement is not part of the state: a restored or forked road starts
+as after clearStatistics(). A snapshot is immutable and can be shared by
+the threads which fork it.
+
+File layout (big endian), read through a memory mapping:
+    int MAGIC, int VERSION, int numCars, int size of the configuration,
+    long steps drawn, long breakdown numbers drawn (see RandomStreams)
+    the configuration (SimulationConfig.writeTo())
+    int position[numCars], int speed[numCars], int color[numCars] (RGB)
+    byte type[numCars], byte lane[numCars], byte brokenDown[numCars] (0 or 1)
+==============================================================================*/
+
+public final class RoadSnapshot {
+
+    public static final int MAGIC = 0x4e535353;             // "NSSS"
+    public static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int BYTES_PER_CAR = 15;
+
+    private final SimulationConfig config;
+    private final long numSteps;                // the position of the streams of config.seed
+    private final long numBreakdowns;
+
+    // [car], read only
+    final int[] position;
+    final int[] speed;
+    final int[] color;
+    final byte[] type;
+    final byte[] lane;
+    final boolean[] brokenDown;
+
+    RoadSnapshot(SimulationConfig config, List<CarNS> cars, RandomStreams streams) {
+        this.config = config;
+        numSteps = streams.getNumSteps();
+        numBreakdowns = streams.getNumBreakdowns();
+
+        int n = cars.size();
+        position = new int[n];
+        speed = new int[n];
+        color = new int[n];
+        type = new byte[n];
+        lane = new byte[n];
+        brokenDown = new boolean[n];
+        for (int c = 0; c < n; c++) {
+            CarNS car = cars.get(c);
+            position[c] = car.getPosition();
+            speed[c] = car.getSpeed();
+            color[c] = car.getColor().getRGB() & 0xffffff;
+            type[c] = (byte) car.getTypeId();
+            lane[c] = (byte) car.getLane();
+            brokenDown[c] = car.isBrokenDown();
+        }
+    }
+
+    private RoadSnapshot(SimulationConfig config, long numSteps, long numBreakdowns, int[] position, int[] speed,
+            int[] color, byte[] type, byte[] lane, boolean[] brokenDown) {
+        this.config = config;
+        this.numSteps = numSteps;
+        this.numBreakdowns = numBreakdowns;
+        this.position = position;
+        this.speed = speed;
+        this.color = color;
+        this.type = type;
+        this.lane = lane;
+        this.brokenDown = brokenDown;
+    }
+
+    public SimulationConfig getConfig() {
+        return config;
+    }
+
+    public int getNumCars() {
+        return position.length;
+    }
+
+    /*
+     * @return The number of steps since the cars were generated (or since
+     * the fork the road comes from).
+     */
+    public long getNumSteps() {
+        return numSteps;
+    }
+
+    /**
+     * @return A road in the saved state, which continues as the saved road
+     * would have. Its random streams are brought to their saved position by
+     * drawing the numbers again (about a nanosecond per car and step).
+     */
+    public RoadNS restore() {
+        RandomStreams streams = new RandomStreams(config.seed, getNumCars(), config.probabilityFluctuation);
+        streams.skip(numSteps, numBreakdowns);
+        return new RoadNS(this, config, streams);
+    }
+
+    /**
+     * @param seed The seed of the random numbers of the new road.
+     * @return A road in the saved state which continues with the random
+     * numbers of the seed; its configuration is that of the snapshot with
+     * the seed.
+     */
+    public RoadNS fork(long seed) {
+        SimulationConfig forked = config.toBuilder().seed(seed).build();
+        return new RoadNS(this, forked, new RandomStreams(seed, getNumCars(), forked.probabilityFluctuation));
+    }
+
+    public void write(File file) throws IOException {
+        ByteArrayOutputStream configBytes = new ByteArrayOutputStream();
+        config.writeTo(new DataOutputStream(configBytes));
+
+        int n = getNumCars();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(configBytes.size());
+            out.writeLong(numSteps);
+            out.writeLong(numBreakdowns);
+            configBytes.writeTo(out);
+            for (int c = 0; c < n; c++) out.writeInt(position[c]);
+            for (int c = 0; c < n; c++) out.writeInt(speed[c]);
+            for (int c = 0; c < n; c++) out.writeInt(color[c]);
+            out.write(type);
+            out.write(lane);
+            for (int c = 0; c < n; c++) out.writeByte(brokenDown[c] ? 1 : 0);
+        }
+    }
+
+    public static RoadSnapshot read(File file) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            FileChannel channel = f.getChannel();
+            ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.remaining() < HEADER_SIZE || map.getInt() != MAGIC)
+                throw new IOException("Not a road snapshot: " + file);
+            int version = map.getInt();
+            if (version != VERSION) throw new IOException("Unsupported road snapshot version " + version);
+            int n = map.getInt();
+            int configSize = map.getInt();
+            long numSteps = map.getLong();
+            long numBreakdowns = map.getLong();
+            if (n < 0 || configSize < 0 || numSteps < 0 || numBreakdowns < 0
+                    || map.remaining() != configSize + (long) BYTES_PER_CAR * n)
+                throw new IOException("Truncated road snapshot: " + file);
+
+            byte[] configBytes = new byte[configSize];
+            map.get(configBytes);
+            SimulationConfig config = SimulationConfig.readFrom(new DataInputStream(new ByteArrayInputStream(configBytes)));
+            if (config.getNumCars() != n) throw new IOException("The road snapshot does not match its configuration: " + file);
+
+            int[] position = getInts(map, n), speed = getInts(map, n), color = getInts(map, n);
+            byte[] type = new byte[n], lane = new byte[n], flags = new byte[n];
+            map.get(type);
+            map.get(lane);
+            map.get(flags);
+            boolean[] brokenDown = new boolean[n];
+            for (int c = 0; c < n; c++) {
+                if (position[c] < 0 || position[c] >= config.roadSize || type[c] < 1 || type[c] >= config.vehicleClasses.size()
+                        || (lane[c] != RoadNS.RIGHT_LANE && lane[c] != RoadNS.LEFT_LANE))
+                    throw new IOException("Bad car " + c + " in road snapshot " + file);
+                brokenDown[c] = flags[c] != 0;
+            }
+            return new RoadSnapshot(config, numSteps, numBreakdowns, position, speed, color, type, lane, brokenDown);
+        }
+    }
+
+    private static int[] getInts(ByteBuffer map, int n) {
+        int[] values = new int[n];
+        map.asIntBuffer().get(values);
+        map.position(map.position() + 4 * n);
+        return values;
+    }
+}
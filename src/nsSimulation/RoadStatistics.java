@@ -0,0 +1,232 @@
+package nsSimulation;
+
+/*==============================================================================
+Statistics of a road, updated by the engine while it moves the cars, so that
+every statistic can be read at any step in constant time.
+
+The accumulators are primitive counters indexed by the type id of the car
+(RoadNS.TYPE_CAR_* or an additional class, see VehicleClasses) or by the lane. Speeds are integers, so their sums and
+sums of squares are exact, and the mean and variance follow from them. The
+distance travelled in a step is the speed, so the distance of a type of car
+is the sum of its speeds.
+All rates are per car and step ("car-steps"), e.g. the mean speed of the
+slow cars is the sum of their speeds over all steps divided by the number of
+slow cars times the number of steps.
+==============================================================================*/
+
+public class RoadStatistics {
+
+    private static final int NUM_LANES = 3;             // indexed by RoadNS.RIGHT_LANE, RoadNS.LEFT_LANE
+
+    private final int roadSize;
+    private final int numTypes;                         // indexed by the type id, 0 is not used
+    private long steps = 0;
+
+    private final long[] carSteps;
+    private final long[] speedSum;
+    private final long[] speedSquareSum;
+    private final int[] maxSpeed;
+    private final long[] stopped;
+    private final long[] laneChanges;
+    private final long[] laneCarSteps = new long[NUM_LANES];
+
+    /*
+     * Statistics of the types of the NS model (slow, fast and broken car).
+     */
+    public RoadStatistics(int roadSize) {
+        this(roadSize, VehicleClasses.FIRST_ADDITIONAL);
+    }
+
+    /**
+     * @param roadSize The number of cells of a lane.
+     * @param numTypes The number of type ids, see VehicleClasses.size().
+     */
+    public RoadStatistics(int roadSize, int numTypes) {
+        this.roadSize = roadSize;
+        this.numTypes = numTypes;
+        carSteps = new long[numTypes];
+        speedSum = new long[numTypes];
+        speedSquareSum = new long[numTypes];
+        maxSpeed = new int[numTypes];
+        stopped = new long[numTypes];
+        laneChanges = new long[numTypes];
+        clear();
+    }
+
+    /**
+     * Adds one car after its move in the current step.
+     * @param type The type id, RoadNS.TYPE_CAR_* or an additional class
+     * @param lane The lane of the car after the step.
+     * @param speed The speed of the car after the step.
+     */
+    public void addCar(int type, int lane, int speed) {
+        carSteps[type]++;
+        speedSum[type] += speed;
+        speedSquareSum[type] += speed * speed;
+        if (speed > maxSpeed[type]) maxSpeed[type] = speed;
+        if (speed <= 0) stopped[type]++;
+        laneCarSteps[lane]++;
+    }
+
+    /**
+     * Adds the lane change of a car in the current step.
+     * @param type The type id, RoadNS.TYPE_CAR_* or an additional class
+     */
+    public void addLaneChange(int type) {
+        laneChanges[type]++;
+    }
+
+    /**
+     * Ends the current step (after all cars have been added).
+     */
+    public void addStep() {
+        steps++;
+    }
+
+    /**
+     * Adds the counters of another road, or of another part of the same road
+     * (see ParallelRoadNS), without its steps.
+     */
+    public void add(RoadStatistics other) {
+        for (int t = 0; t < numTypes; t++) {
+            carSteps[t] += other.carSteps[t];
+            speedSum[t] += other.speedSum[t];
+            speedSquareSum[t] += other.speedSquareSum[t];
+            if (other.maxSpeed[t] > maxSpeed[t]) maxSpeed[t] = other.maxSpeed[t];
+            stopped[t] += other.stopped[t];
+            laneChanges[t] += other.laneChanges[t];
+        }
+        for (int l = 0; l < NUM_LANES; l++) {
+            laneCarSteps[l] += other.laneCarSteps[l];
+        }
+    }
+
+    public void clear() {
+        steps = 0;
+        for (int t = 0; t < numTypes; t++) {
+            carSteps[t] = 0;
+            speedSum[t] = 0;
+            speedSquareSum[t] = 0;
+            maxSpeed[t] = -1;
+            stopped[t] = 0;
+            laneChanges[t] = 0;
+        }
+        for (int l = 0; l < NUM_LANES; l++) {
+            laneCarSteps[l] = 0;
+        }
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    /*
+     * @return The number of cells travelled by the cars of the type.
+     */
+    public long getDistance(int type) {
+        return speedSum[type];
+    }
+
+    /*
+     * @return The number of cells travelled by all cars.
+     */
+    public long getDistance() {
+        long distance = 0;
+        for (int t = 0; t < numTypes; t++) distance += speedSum[t];
+        return distance;
+    }
+
+    /*
+     * @return The travelled cells per step (all cars), see Road.getFlow().
+     */
+    public double getFlow() {
+        return steps == 0 ? 0 : (double) getDistance() / steps;
+    }
+
+    /*
+     * @return The mean speed of the cars of the type, 0 if there is none.
+     */
+    public double getMeanSpeed(int type) {
+        return carSteps[type] == 0 ? 0 : (double) speedSum[type] / carSteps[type];
+    }
+
+    /*
+     * @return The variance of the speed of the cars of the type (over all their steps).
+     */
+    public double getSpeedVariance(int type) {
+        if (carSteps[type] == 0) return 0;
+        double mean = getMeanSpeed(type);
+        return Math.max(0, (double) speedSquareSum[type] / carSteps[type] - mean * mean);
+    }
+
+    /*
+     * @return The highest speed of the cars of the type, -1 if there is none.
+     */
+    public int getMaxSpeed(int type) {
+        return maxSpeed[type];
+    }
+
+    public long getLaneChanges(int type) {
+        return laneChanges[type];
+    }
+
+    public long getLaneChanges() {
+        long n = 0;
+        for (int t = 0; t < numTypes; t++) n += laneChanges[t];
+        return n;
+    }
+
+    /*
+     * @return The fraction of the cells of the lane occupied by a car, averaged over the steps.
+     */
+    public double getOccupancy(int lane) {
+        return steps == 0 ? 0 : (double) laneCarSteps[lane] / ((double) steps * roadSize);
+    }
+
+    /*
+     * @return The fraction of the cars of the type which stand still, averaged over the steps.
+     */
+    public double getStoppedFraction(int type) {
+        return carSteps[type] == 0 ? 0 : (double) stopped[type] / carSteps[type];
+    }
+
+    /*
+     * @return The fraction of all cars which stand still, averaged over the steps.
+     */
+    public double getStoppedFraction() {
+        long n = 0, s = 0;
+        for (int t = 0; t < numTypes; t++) {
+            n += carSteps[t];
+            s += stopped[t];
+        }
+        return n == 0 ? 0 : (double) s / n;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("steps ").append(steps)
+          .append(", flow ").append(String.format("%.2f", getFlow()))
+          .append(", lane changes ").append(getLaneChanges())
+          .append(", occupancy right ").append(String.format("%.3f", getOccupancy(RoadNS.RIGHT_LANE)))
+          .append(" left ").append(String.format("%.3f", getOccupancy(RoadNS.LEFT_LANE)))
+          .append(", stopped ").append(String.format("%.3f", getStoppedFraction()));
+        appendType(sb, "slow", RoadNS.TYPE_CAR_SLOW);
+        appendType(sb, "fast", RoadNS.TYPE_CAR_FAST);
+        appendType(sb, "broken", RoadNS.TYPE_CAR_BROKEN);
+        for (int t = VehicleClasses.FIRST_ADDITIONAL; t < numTypes; t++) {
+            appendType(sb, "class " + t, t);
+        }
+        return sb.toString();
+    }
+
+    private void appendType(StringBuilder sb, String name, int type) {
+        if (carSteps[type] == 0) return;
+        sb.append("\n").append(name).append(": distance ").append(speedSum[type])
+          .append(", speed ").append(String.format("%.2f", getMeanSpeed(type)))
+          .append(" (variance ").append(String.format("%.2f", getSpeedVariance(type)))
+          .append(", max ").append(maxSpeed[type])
+          .append("), lane changes ").append(laneChanges[type])
+          .append(", stopped ").append(String.format("%.3f", getStoppedFraction(type)));
+    }
+}
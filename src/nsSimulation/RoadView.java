@@ -0,0 +1,69 @@
+package nsSimulation;
+
+/*==============================================================================
+The state and the measurement of a road, without the step: what is needed to
+draw, record and measure a road (see AnimatedSimulation.calculateMeasures()).
+A Road is a RoadView which can also be advanced; a replica of EnsembleRoadNS
+is only a RoadView, since the replicas are advanced together.
+
+Cars are addressed by their index (0 .. getNumCars()-1, the same order in
+which they were generated), so that the statistics of a run can be read
+without knowing how an engine stores its cars.
+==============================================================================*/
+
+public interface RoadView {
+
+    /*
+     * Prints the current state of the road to the console.
+     */
+    void printTrafficSituation();
+
+    /*
+     * Flow measured by the travelled cells over a measure period (i.e. numIterations)
+     */
+    double getFlow(int numIterations);
+
+    /*
+     * Flow measured by the number of cars passing the end of the road segment
+     */
+    double getFlow2(int numIterations);
+
+    /*
+     * Starts the measurement again from the current state: clears the
+     * travelled distance and max reached speed of all cars and the number
+     * of cars passing the end of the road, and getStatistics().
+     */
+    void clearStatistics();
+
+    /*
+     * @return The statistics since the start (or the last clearStatistics()),
+     * kept up to date by nextState().
+     */
+    RoadStatistics getStatistics();
+
+    /*
+     * @return The loop detectors of the configuration, kept up to date by
+     * nextState() and cleared by clearStatistics(); null if it has none.
+     */
+    LoopDetectors getDetectors();
+
+    int getNumCars();
+
+    /*
+     * @return RoadNS.TYPE_CAR_SLOW, RoadNS.TYPE_CAR_FAST, RoadNS.TYPE_CAR_BROKEN or
+     * an additional class of vehicle, see VehicleClasses
+     */
+    int getCarType(int car);
+
+    int getCarLane(int car);
+
+    int getCarPosition(int car);
+
+    int getCarSpeed(int car);
+
+    int getCarColor(int car);                       // RGB value, see Color.getRGB()
+
+    int getTraveledDistance(int car);
+
+    int getMaxReachedSpeed(int car);
+}
@@ -0,0 +1,67 @@
+package nsSimulation;
+
+/*==============================================================================
+The measures of one run (one row of simulations.csv) as primitive values,
+see AnimatedSimulation.calculateMeasures(). A ResultSink formats them, so a
+run does not build any strings.
+
+The distances are totals over the measuredSteps steps of the run. Without
+SimulationConfig.steadyState every run measures numberOfIterations steps and
+the totals of the rows compare; with it every run stops at a step of its
+own, so the totals are not comparable across rows: divide them by
+measured_steps (distance per step) first.
+==============================================================================*/
+
+public class RunResult {
+
+    public static final String CSV_HEADER = "model,ith run, road_block, max_speed_slow, max_speed_fast, fast_car_ratio, density, total_all_cars_distance, total_slow_cars_distance, total_fast_cars_distance, worst_case_distance_slow_cars, worst_cast_distance_fast_cars, best_case_distance_slow_car, best_case_distance_fast_car,num_slow_cars,num_fast_cars,global_speed_rule,slack,distance_look_ahead,seed,warm_up_steps,measured_steps,cell_repetitions,cell_precision";
+
+    public int repetition;
+    public boolean roadBlock;                   // the broken car can break down
+    public int maxSpeedSlow;                    // max reached speed, -1 if no car of the type
+    public int maxSpeedFast;
+    public double fastCarRatio;
+    public double density;
+    public int totalDistance;                   // slow and fast cars, without the broken car
+    public int totalSlowDistance;
+    public int totalFastDistance;
+    public int worstSlowDistance;
+    public int worstFastDistance;
+    public int bestSlowDistance;
+    public int bestFastDistance;
+    public int numSlowCars;
+    public int numFastCars;
+    public boolean globalSpeedRule;
+    public int slack;
+    public int distanceToLookAhead;
+    public long seed;
+    public int warmUpSteps;                     // steps discarded as transient, see SteadyStateDetector
+    public int measuredSteps;                   // steps covered by the distances
+    public int cellRepetitions;                 // runs of the configuration, see SweepExecutor
+    public double cellPrecision;                // relative half width of the 95% confidence intervals of its distances
+
+    /**
+     * Appends the row in the format of simulations.csv (without line separator).
+     * @param sb The destination.
+     * @return sb
+     */
+    public StringBuilder appendCsv(StringBuilder sb) {
+        sb.append("NS,").append(repetition).append(',').append(roadBlock ? '1' : '0')
+          .append(',').append(maxSpeedSlow).append(',').append(maxSpeedFast)
+          .append(',').append(fastCarRatio).append(',').append(density)
+          .append(',').append(totalDistance).append(',').append(totalSlowDistance).append(',').append(totalFastDistance)
+          .append(',').append(worstSlowDistance).append(',').append(worstFastDistance)
+          .append(',').append(bestSlowDistance).append(',').append(bestFastDistance)
+          .append(',').append(numSlowCars).append(',').append(numFastCars)
+          .append(',').append(globalSpeedRule).append(',').append(slack).append(',').append(distanceToLookAhead)
+          .append(',').append(seed)
+          .append(',').append(warmUpSteps).append(',').append(measuredSteps)
+          .append(',').append(cellRepetitions).append(',').append(cellPrecision);
+        return sb;
+    }
+
+    @Override
+    public String toString() {
+        return appendCsv(new StringBuilder(160)).toString();
+    }
+}
@@ -0,0 +1,74 @@
+package nsSimulation;
+
+/*==============================================================================
+Mean and variance of a stream of observations, updated one observation at a
+time (Welford's algorithm), with the 95% confidence interval of the mean.
+==============================================================================*/
+
+public class RunningStatistics {
+
+    // Student t quantiles t(0.975, df) for df = 1 .. 30
+    private static final double[] T975 = {
+        12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+        2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+        2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+    };
+
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0;                  // sum of squared differences from the mean
+
+    public void add(double x) {
+        count++;
+        double delta = x - mean;
+        mean += delta / count;
+        m2 += delta * (x - mean);
+    }
+
+    public void clear() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /*
+     * @return The sample variance, 0 for less than two observations.
+     */
+    public double getVariance() {
+        return count < 2 ? 0 : m2 / (count - 1);
+    }
+
+    /*
+     * @return Half the width of the 95% confidence interval of the mean,
+     * infinite for less than two observations.
+     */
+    public double getHalfWidth() {
+        if (count < 2) return Double.POSITIVE_INFINITY;
+        return t975(count - 1) * Math.sqrt(getVariance() / count);
+    }
+
+    /*
+     * @return getHalfWidth() relative to the mean, infinite if the mean is 0.
+     */
+    public double getRelativeHalfWidth() {
+        double halfWidth = getHalfWidth();
+        if (halfWidth == 0) return 0;
+        return mean == 0 ? Double.POSITIVE_INFINITY : halfWidth / Math.abs(mean);
+    }
+
+    /*
+     * Quantile t(0.975, df) of the Student t distribution (df > 30: within 0.2%).
+     */
+    static double t975(long df) {
+        if (df <= T975.length) return T975[(int) df - 1];
+        return 1.96 + 2.5 / df;
+    }
+}
@@ -0,0 +1,44 @@
+package nsSimulation;
+
+/*==============================================================================
+Lane index which scans the lane cell by cell (the original RoadNS lookup).
+A lookup costs O(gap), or O(ROAD_SIZE) when the lane is (almost) empty.
+==============================================================================*/
+
+public class ScanLaneIndex implements LaneIndex {
+
+    private int[] arr;
+
+    @Override
+    public void update(int[] lane) {
+        arr = lane;
+    }
+
+    @Override
+    public int front(int position) {
+        for (int i = position + 1; i < arr.length; i++) {
+            if (arr[i] != -1) return i;
+        }
+
+        // the consideration car is at the end of the road, therefore continue searching from the beginning of the lane
+        for (int i = 0; i < arr.length; i++) {
+            if (arr[i] != -1) return i;
+        }
+
+        return -1;  // no car
+    }
+
+    @Override
+    public int behind(int position) {
+        for (int i = position - 1; i >= 0; i--) {
+            if (arr[i] != -1) return i;
+        }
+
+        // the consideration car is at the begining of the road, therefore continue searching from the end of the lane
+        for (int i = arr.length - 1; i >= 0; i--) {
+            if (arr[i] != -1) return i;
+        }
+
+        return -1;  // no car
+    }
+}
@@ -0,0 +1,526 @@
+package nsSimulation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*==============================================================================
+Immutable configuration of a single simulation run.
+
+Every parameter that used to be a mutable static of TrafficSimulation lives
+here, so that RoadNS, CarNS and AnimatedSimulation can run concurrently with
+different configurations. Instances are created with a Builder.
+Runs with the same configuration (including the seed) are identical.
+==============================================================================*/
+
+public final class SimulationConfig {
+
+    // road engines
+    public static final int ENGINE_OBJECTS = 0;         // RoadNS, one CarNS object per car
+    public static final int ENGINE_ARRAYS = 1;          // ArrayRoadNS, cars stored as primitive arrays
+    public static final int ENGINE_PARALLEL = 2;        // ParallelRoadNS, two-phase update of segments on several cores
+
+    // neighbour lookup engines
+    public static final int LANE_INDEX_SCAN = 0;        // scan the lane cell by cell
+    public static final int LANE_INDEX_SPARSE = 1;      // next/previous occupied cell, O(1)
+    public static final int LANE_INDEX_BITBOARD = 2;    // occupancy bitset, 64 cells per word
+
+    // road
+    public final int roadSize;                      // number of cells
+    public final int numFastCars;
+    public final int numSlowCars;                   // broken car (if any) is counted in number of slow cars
+    public final boolean hasBrokenCar;
+    public final double density;                    // only echoed in the output
+    public final double fastCarRatio;               // fast/total cars, only echoed in the output
+    public final int numberOfIterations;
+    public final boolean steadyState;               // stop at steady state and precision, numberOfIterations is the cap
+    public final int batchSize;                     // steadyState only, steps per batch of the flow
+    public final double targetPrecision;            // steadyState only, relative half width of the 95% CI of the flow
+    public final long seed;                         // seed of the run, see RandomStreams
+
+    // parameter of NS model
+    public final int maxAcceleration;
+    public final int maxSpeedFastCar;
+    public final int maxSpeedSlowCar;
+    public final double probabilityFluctuation;
+    public final int distanceToLookAhead;
+    public final int slack;
+    public final boolean applySymmetricRule;
+    public final boolean globalSpeedRule;
+
+    // broken car
+    public final double breakingDownProbability;
+    public final double gettingRepairedProbability;
+
+    // classes of vehicle
+    public final List<VehicleClass> additionalClasses;      // trucks, buses ..., in the order of their type ids
+    public final VehicleClasses vehicleClasses;             // the parameters of every type id, see VehicleClasses
+
+    // measurement
+    public final List<LoopDetector> detectors;      // virtual loop detectors, see LoopDetectors
+    public final int detectorInterval;              // steps per aggregation interval of the detectors
+
+    // engine
+    public final int laneIndex;                     // neighbour lookup, see LaneIndex
+    public final int engine;                        // road engine, see Road
+    public final int numSegments;                   // ENGINE_PARALLEL only, 0 = number of cores
+    public final boolean speedKernel;               // ENGINE_ARRAYS only, evaluate the rules with SpeedKernel
+
+    private SimulationConfig(Builder b) {
+        this.roadSize = b.roadSize;
+        this.numFastCars = b.numFastCars;
+        this.numSlowCars = b.numSlowCars;
+        this.hasBrokenCar = b.hasBrokenCar;
+        this.density = b.density;
+        this.fastCarRatio = b.fastCarRatio;
+        this.numberOfIterations = b.numberOfIterations;
+        this.steadyState = b.steadyState;
+        this.batchSize = b.batchSize;
+        this.targetPrecision = b.targetPrecision;
+        this.seed = b.seed;
+        this.maxAcceleration = b.maxAcceleration;
+        this.maxSpeedFastCar = b.maxSpeedFastCar;
+        this.maxSpeedSlowCar = b.maxSpeedSlowCar;
+        this.probabilityFluctuation = b.probabilityFluctuation;
+        this.distanceToLookAhead = b.distanceToLookAhead;
+        this.slack = b.slack;
+        this.applySymmetricRule = b.applySymmetricRule;
+        this.globalSpeedRule = b.globalSpeedRule;
+        this.breakingDownProbability = b.breakingDownProbability;
+        this.gettingRepairedProbability = b.gettingRepairedProbability;
+        this.laneIndex = b.laneIndex;
+        this.engine = b.engine;
+        this.numSegments = b.numSegments;
+        this.speedKernel = b.speedKernel;
+        this.additionalClasses = Collections.unmodifiableList(new ArrayList<>(b.additionalClasses));
+        this.detectors = Collections.unmodifiableList(new ArrayList<>(b.detectors));
+        this.detectorInterval = b.detectorInterval;
+        this.vehicleClasses = new VehicleClasses(this, additionalClasses);
+    }
+
+    public int getNumCars() {
+        return numFastCars + numSlowCars;
+    }
+
+    /**
+     * Hash of the parameters of the model (everything except the seed, the
+     * choice of engine and the detectors, which do not change what is
+     * simulated). Equal cells of different sweeps have the same fingerprint.
+     * @return A 64 bit hash of the parameters.
+     */
+    public long fingerprint() {
+        long h = 17;
+        h = 31*h + roadSize;
+        h = 31*h + numFastCars;
+        h = 31*h + numSlowCars;
+        h = 31*h + (hasBrokenCar ? 1 : 0);
+        h = 31*h + Double.doubleToLongBits(density);
+        h = 31*h + Double.doubleToLongBits(fastCarRatio);
+        h = 31*h + numberOfIterations;
+        h = 31*h + maxAcceleration;
+        h = 31*h + maxSpeedFastCar;
+        h = 31*h + maxSpeedSlowCar;
+        h = 31*h + Double.doubleToLongBits(probabilityFluctuation);
+        h = 31*h + distanceToLookAhead;
+        h = 31*h + slack;
+        h = 31*h + (applySymmetricRule ? 1 : 0);
+        h = 31*h + (globalSpeedRule ? 1 : 0);
+        h = 31*h + Double.doubleToLongBits(breakingDownProbability);
+        h = 31*h + Double.doubleToLongBits(gettingRepairedProbability);
+        if (steadyState) {          // so that fixed length runs keep their fingerprint
+            h = 31*h + batchSize;
+            h = 31*h + Double.doubleToLongBits(targetPrecision);
+        }
+        for (VehicleClass v : additionalClasses) {
+            h = 31*h + v.canonicalForm().hashCode();
+        }
+        return RandomStreams.mix64(h);
+    }
+
+    /**
+     * The parameters of the model and the seed as text, in a fixed order,
+     * for keys which must not collide (see ResultCache). Like fingerprint(),
+     * it leaves out the choice of engine and the detectors.
+     * @return name=value pairs separated by ';'
+     */
+    public String canonicalForm() {
+        return "roadSize=" + roadSize + ";numFastCars=" + numFastCars + ";numSlowCars=" + numSlowCars
+                + ";hasBrokenCar=" + hasBrokenCar + ";density=" + density + ";fastCarRatio=" + fastCarRatio
+                + ";numberOfIterations=" + numberOfIterations + ";maxAcceleration=" + maxAcceleration
+                + ";maxSpeedFastCar=" + maxSpeedFastCar + ";maxSpeedSlowCar=" + maxSpeedSlowCar
+                + ";probabilityFluctuation=" + probabilityFluctuation + ";distanceToLookAhead=" + distanceToLookAhead
+                + ";slack=" + slack + ";applySymmetricRule=" + applySymmetricRule + ";globalSpeedRule=" + globalSpeedRule
+                + ";breakingDownProbability=" + breakingDownProbability + ";gettingRepairedProbability=" + gettingRepairedProbability
+                + (steadyState ? ";steadyState=true;batchSize=" + batchSize + ";targetPrecision=" + targetPrecision : "")
+                + (additionalClasses.isEmpty() ? "" : ";vehicleClasses=" + canonicalClasses())
+                + ";seed=" + seed;
+    }
+
+    private String canonicalClasses() {
+        StringBuilder sb = new StringBuilder();
+        for (VehicleClass v : additionalClasses) {
+            sb.append('[').append(v.canonicalForm()).append(']');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes every parameter (the engine included) in binary form, see
+     * readFrom() and SweepCoordinator.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(roadSize);
+        out.writeInt(numFastCars);
+        out.writeInt(numSlowCars);
+        out.writeBoolean(hasBrokenCar);
+        out.writeDouble(density);
+        out.writeDouble(fastCarRatio);
+        out.writeInt(numberOfIterations);
+        out.writeBoolean(steadyState);
+        out.writeInt(batchSize);
+        out.writeDouble(targetPrecision);
+        out.writeLong(seed);
+        out.writeInt(maxAcceleration);
+        out.writeInt(maxSpeedFastCar);
+        out.writeInt(maxSpeedSlowCar);
+        out.writeDouble(probabilityFluctuation);
+        out.writeInt(distanceToLookAhead);
+        out.writeInt(slack);
+        out.writeBoolean(applySymmetricRule);
+        out.writeBoolean(globalSpeedRule);
+        out.writeDouble(breakingDownProbability);
+        out.writeDouble(gettingRepairedProbability);
+        out.writeInt(laneIndex);
+        out.writeInt(engine);
+        out.writeInt(numSegments);
+        out.writeBoolean(speedKernel);
+        out.writeInt(additionalClasses.size());
+        for (VehicleClass v : additionalClasses) {
+            v.writeTo(out);
+        }
+        out.writeInt(detectorInterval);
+        out.writeInt(detectors.size());
+        for (LoopDetector d : detectors) {
+            out.writeInt(d.lane);
+            out.writeInt(d.position);
+        }
+    }
+
+    /**
+     * Reads a configuration written by writeTo().
+     */
+    public static SimulationConfig readFrom(DataInput in) throws IOException {
+        Builder b = new Builder();
+        b.roadSize = in.readInt();
+        b.numFastCars = in.readInt();
+        b.numSlowCars = in.readInt();
+        b.hasBrokenCar = in.readBoolean();
+        b.density = in.readDouble();
+        b.fastCarRatio = in.readDouble();
+        b.numberOfIterations = in.readInt();
+        b.steadyState = in.readBoolean();
+        b.batchSize = in.readInt();
+        b.targetPrecision = in.readDouble();
+        b.seed = in.readLong();
+        b.maxAcceleration = in.readInt();
+        b.maxSpeedFastCar = in.readInt();
+        b.maxSpeedSlowCar = in.readInt();
+        b.probabilityFluctuation = in.readDouble();
+        b.distanceToLookAhead = in.readInt();
+        b.slack = in.readInt();
+        b.applySymmetricRule = in.readBoolean();
+        b.globalSpeedRule = in.readBoolean();
+        b.breakingDownProbability = in.readDouble();
+        b.gettingRepairedProbability = in.readDouble();
+        b.laneIndex = in.readInt();
+        b.engine = in.readInt();
+        b.numSegments = in.readInt();
+        b.speedKernel = in.readBoolean();
+        int numClasses = in.readInt();
+        if (numClasses < 0 || numClasses >= VehicleClasses.MAX_CLASSES) throw new IOException("Bad number of vehicle classes: " + numClasses);
+        for (int i = 0; i < numClasses; i++) {
+            b.additionalClasses.add(VehicleClass.readFrom(in));
+        }
+        b.detectorInterval = in.readInt();
+        int numDetectors = in.readInt();
+        if (numDetectors < 0 || numDetectors > 2L * b.roadSize) throw new IOException("Bad number of detectors: " + numDetectors);
+        for (int i = 0; i < numDetectors; i++) {
+            b.detectors.add(new LoopDetector(in.readInt(), in.readInt()));
+        }
+        try {
+            return b.build();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad configuration: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return A builder initialised with the values of this configuration.
+     */
+    public Builder toBuilder() {
+        Builder b = new Builder();
+        b.roadSize = roadSize;
+        b.numFastCars = numFastCars;
+        b.numSlowCars = numSlowCars;
+        b.hasBrokenCar = hasBrokenCar;
+        b.density = density;
+        b.fastCarRatio = fastCarRatio;
+        b.numberOfIterations = numberOfIterations;
+        b.steadyState = steadyState;
+        b.batchSize = batchSize;
+        b.targetPrecision = targetPrecision;
+        b.seed = seed;
+        b.maxAcceleration = maxAcceleration;
+        b.maxSpeedFastCar = maxSpeedFastCar;
+        b.maxSpeedSlowCar = maxSpeedSlowCar;
+        b.probabilityFluctuation = probabilityFluctuation;
+        b.distanceToLookAhead = distanceToLookAhead;
+        b.slack = slack;
+        b.applySymmetricRule = applySymmetricRule;
+        b.globalSpeedRule = globalSpeedRule;
+        b.breakingDownProbability = breakingDownProbability;
+        b.gettingRepairedProbability = gettingRepairedProbability;
+        b.laneIndex = laneIndex;
+        b.engine = engine;
+        b.numSegments = numSegments;
+        b.speedKernel = speedKernel;
+        b.additionalClasses.addAll(additionalClasses);
+        b.detectors.addAll(detectors);
+        b.detectorInterval = detectorInterval;
+        return b;
+    }
+
+    @Override
+    public String toString() {
+        return "road " + roadSize + ", density " + density + ", ratio " + fastCarRatio + ", slow " + numSlowCars + ", fast " + numFastCars
+                + ", max speed " + maxSpeedSlowCar + "/" + maxSpeedFastCar + ", broken " + hasBrokenCar
+                + ", slack " + slack + ", look ahead " + distanceToLookAhead
+                + (additionalClasses.isEmpty() ? "" : ", classes " + additionalClasses)
+                + (detectors.isEmpty() ? "" : ", " + detectors.size() + " detectors");
+    }
+
+    /*==========================================================================
+    Builder, defaults are the values of the NS model used in the paper
+    ==========================================================================*/
+    public static final class Builder {
+
+        private int roadSize = 1000;
+        private int numFastCars = 0;
+        private int numSlowCars = 0;
+        private boolean hasBrokenCar = false;
+        private double density;
+        private double fastCarRatio;
+        private int numberOfIterations = 3600;
+        private boolean steadyState = false;
+        private int batchSize = 50;
+        private double targetPrecision = 0.01;
+        private long seed = 0;
+
+        private int maxAcceleration = 1;            // default is 1 in NS
+        private int maxSpeedFastCar = 5;
+        private int maxSpeedSlowCar = 3;
+        private double probabilityFluctuation = .25;
+        private int distanceToLookAhead = 7;
+        private int slack = 3;
+        private boolean applySymmetricRule = true;
+        private boolean globalSpeedRule = false;
+
+        private double breakingDownProbability = 0.3;
+        private double gettingRepairedProbability = 0;
+
+        private int laneIndex = LANE_INDEX_SPARSE;
+        private int engine = ENGINE_OBJECTS;
+        private int numSegments = 0;
+        private boolean speedKernel = false;
+
+        private final List<VehicleClass> additionalClasses = new ArrayList<>();
+
+        private final List<LoopDetector> detectors = new ArrayList<>();
+        private int detectorInterval = 60;
+
+        public Builder roadSize(int roadSize) {
+            this.roadSize = roadSize;
+            return this;
+        }
+
+        public Builder numFastCars(int numFastCars) {
+            this.numFastCars = numFastCars;
+            return this;
+        }
+
+        public Builder numSlowCars(int numSlowCars) {
+            this.numSlowCars = numSlowCars;
+            return this;
+        }
+
+        public Builder hasBrokenCar(boolean hasBrokenCar) {
+            this.hasBrokenCar = hasBrokenCar;
+            return this;
+        }
+
+        public Builder density(double density) {
+            this.density = density;
+            return this;
+        }
+
+        public Builder fastCarRatio(double fastCarRatio) {
+            this.fastCarRatio = fastCarRatio;
+            return this;
+        }
+
+        public Builder numberOfIterations(int numberOfIterations) {
+            this.numberOfIterations = numberOfIterations;
+            return this;
+        }
+
+        public Builder steadyState(boolean steadyState) {
+            this.steadyState = steadyState;
+            return this;
+        }
+
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder targetPrecision(double targetPrecision) {
+            this.targetPrecision = targetPrecision;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Builder maxAcceleration(int maxAcceleration) {
+            this.maxAcceleration = maxAcceleration;
+            return this;
+        }
+
+        public Builder maxSpeedFastCar(int maxSpeedFastCar) {
+            this.maxSpeedFastCar = maxSpeedFastCar;
+            return this;
+        }
+
+        public Builder maxSpeedSlowCar(int maxSpeedSlowCar) {
+            this.maxSpeedSlowCar = maxSpeedSlowCar;
+            return this;
+        }
+
+        public Builder probabilityFluctuation(double probabilityFluctuation) {
+            this.probabilityFluctuation = probabilityFluctuation;
+            return this;
+        }
+
+        public Builder distanceToLookAhead(int distanceToLookAhead) {
+            this.distanceToLookAhead = distanceToLookAhead;
+            return this;
+        }
+
+        public Builder slack(int slack) {
+            this.slack = slack;
+            return this;
+        }
+
+        public Builder applySymmetricRule(boolean applySymmetricRule) {
+            this.applySymmetricRule = applySymmetricRule;
+            return this;
+        }
+
+        public Builder globalSpeedRule(boolean globalSpeedRule) {
+            this.globalSpeedRule = globalSpeedRule;
+            return this;
+        }
+
+        public Builder breakingDownProbability(double breakingDownProbability) {
+            this.breakingDownProbability = breakingDownProbability;
+            return this;
+        }
+
+        public Builder gettingRepairedProbability(double gettingRepairedProbability) {
+            this.gettingRepairedProbability = gettingRepairedProbability;
+            return this;
+        }
+
+        public Builder laneIndex(int laneIndex) {
+            this.laneIndex = laneIndex;
+            return this;
+        }
+
+        public Builder engine(int engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        public Builder numSegments(int numSegments) {
+            this.numSegments = numSegments;
+            return this;
+        }
+
+        public Builder speedKernel(boolean speedKernel) {
+            this.speedKernel = speedKernel;
+            return this;
+        }
+
+        /**
+         * Adds a class of vehicle, which gets the next type id (from
+         * VehicleClasses.FIRST_ADDITIONAL on).
+         */
+        public Builder vehicleClass(VehicleClass vehicleClass) {
+            additionalClasses.add(vehicleClass);
+            return this;
+        }
+
+        public Builder clearVehicleClasses() {
+            additionalClasses.clear();
+            return this;
+        }
+
+        /**
+         * Adds a virtual loop detector, see LoopDetectors.
+         * @param lane RoadNS.RIGHT_LANE or RoadNS.LEFT_LANE
+         * @param position The cell of the detector.
+         */
+        public Builder detector(int lane, int position) {
+            detectors.add(new LoopDetector(lane, position));
+            return this;
+        }
+
+        public Builder clearDetectors() {
+            detectors.clear();
+            return this;
+        }
+
+        public Builder detectorInterval(int detectorInterval) {
+            this.detectorInterval = detectorInterval;
+            return this;
+        }
+
+        public SimulationConfig build() {
+            if (roadSize <= 0)
+                throw new IllegalArgumentException("roadSize must be positive: " + roadSize);
+            if (numberOfIterations < 0)
+                throw new IllegalArgumentException("numberOfIterations must not be negative: " + numberOfIterations);
+            if (steadyState && batchSize <= 0)
+                throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+            if (steadyState && !(targetPrecision > 0))
+                throw new IllegalArgumentException("targetPrecision must be positive: " + targetPrecision);
+            if (detectorInterval <= 0)
+                throw new IllegalArgumentException("detectorInterval must be positive: " + detectorInterval);
+            Set<LoopDetector> cells = new HashSet<>();
+            for (LoopDetector d : detectors) {
+                if ((d.lane != RoadNS.RIGHT_LANE && d.lane != RoadNS.LEFT_LANE) || d.position < 0 || d.position >= roadSize)
+                    throw new IllegalArgumentException("No such cell for a detector: " + d);
+                if (!cells.add(d))
+                    throw new IllegalArgumentException("Two detectors at " + d);
+            }
+            return new SimulationConfig(this);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package nsSimulation;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import javax.imageio.ImageIO;
+
+/*==============================================================================
+Space-time diagram of each lane of a run: x = cell, y = step (downwards),
+the colour of a car shows its type and speed, with the colours of the cars:
+fast cars from red (stopped) to orange (max speed), slow cars from blue to
+azure, the broken car green, additional classes of vehicle from their colour
+with the green component growing with the speed, and no car white.
+
+The diagram is drawn while the road runs, one row at a time, straight into
+the int raster of a BufferedImage, so nothing but the image is kept. Large
+runs are pooled: a pixel covers cellsPerPixel cells and a row stepsPerRow
+steps, and shows the slowest car among them (so that jams stay visible).
+No display is needed (java.awt.headless).
+==============================================================================*/
+
+public class SpaceTimeDiagram {
+
+    public static final int DEFAULT_MAX_WIDTH = 2000;
+    public static final int DEFAULT_MAX_HEIGHT = 2000;
+
+    private static final int NO_CAR = 0xffffff;
+
+    private final int width;
+    private final int height;
+    private final int cellsPerPixel;
+    private final int stepsPerRow;
+    private final int[][] palette;              // [type id][speed + 1] = RGB
+
+    private final BufferedImage[] images = new BufferedImage[RoadNS.NUM_LANES];
+    private final int[][] pixels;               // [lane - 1] the raster of the image
+    private final int[][] rowSpeed;             // [lane - 1][x] slowest car of the current row, or Integer.MAX_VALUE
+    private final int[][] rowType;
+    private int rowSteps = 0;                   // steps in the current row
+    private int row = 0;
+
+    /**
+     * @param config The configuration of the run.
+     * @param numSteps The number of steps which will be added.
+     * @param maxWidth The maximum width of the images, in pixels.
+     * @param maxHeight The maximum height of the images, in pixels.
+     */
+    public SpaceTimeDiagram(SimulationConfig config, int numSteps, int maxWidth, int maxHeight) {
+        cellsPerPixel = (config.roadSize + maxWidth - 1) / maxWidth;
+        stepsPerRow = Math.max(1, (numSteps + maxHeight - 1) / maxHeight);
+        width = (config.roadSize + cellsPerPixel - 1) / cellsPerPixel;
+        height = Math.max(1, (numSteps + stepsPerRow - 1) / stepsPerRow);
+        palette = createPalette(config);
+
+        pixels = new int[RoadNS.NUM_LANES][];
+        rowSpeed = new int[RoadNS.NUM_LANES][width];
+        rowType = new int[RoadNS.NUM_LANES][width];
+        for (int l = 0; l < RoadNS.NUM_LANES; l++) {
+            images[l] = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels[l] = ((DataBufferInt) images[l].getRaster().getDataBuffer()).getData();
+            clearRow(l);
+        }
+    }
+
+    /*
+     * The colours of the classes of vehicle (see VehicleClasses), with the
+     * green component (0 .. 130) given by the speed instead of chance. The
+     * speeds above the max speed of a class (an acceleration above 1 can
+     * overshoot it) have the colour of the max speed.
+     */
+    private static int[][] createPalette(SimulationConfig config) {
+        VehicleClasses classes = config.vehicleClasses;
+        int maxSpeed = classes.getMaxReachableSpeed();
+        int[][] palette = new int[classes.size()][maxSpeed + 2];
+        for (int t = 1; t < classes.size(); t++) {
+            int max = Math.max(1, classes.maxSpeed[t]);
+            for (int v = -1; v <= maxSpeed; v++) {
+                int green = 130 * Math.max(0, Math.min(v, max)) / max;
+                palette[t][v + 1] = classes.isShaded(t) ? classes.getColor(t) | green << 8 : classes.getColor(t);
+            }
+        }
+        return palette;
+    }
+
+    private void clearRow(int l) {
+        for (int x = 0; x < width; x++) {
+            rowSpeed[l][x] = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Adds the current state of the road (called after every step).
+     * @param road The road of the run.
+     */
+    public void add(RoadView road) {
+        if (row == height) return;
+        for (int c = 0; c < road.getNumCars(); c++) {
+            int l = road.getCarLane(c) - 1;
+            int x = road.getCarPosition(c) / cellsPerPixel;
+            int v = road.getCarSpeed(c);
+            if (v < rowSpeed[l][x]) {
+                rowSpeed[l][x] = v;
+                rowType[l][x] = road.getCarType(c);
+            }
+        }
+        if (++rowSteps == stepsPerRow) flushRow();
+    }
+
+    private void flushRow() {
+        for (int l = 0; l < RoadNS.NUM_LANES; l++) {
+            int[] speed = rowSpeed[l], type = rowType[l], raster = pixels[l];
+            int offset = row * width;
+            for (int x = 0; x < width; x++) {
+                raster[offset + x] = speed[x] == Integer.MAX_VALUE ? NO_CAR : palette[type[x]][speed[x] + 1];
+            }
+            clearRow(l);
+        }
+        rowSteps = 0;
+        row++;
+    }
+
+    /*
+     * @param lane RoadNS.RIGHT_LANE or RoadNS.LEFT_LANE
+     * @return The diagram of the lane (after the last step), the rows
+     * after the last added step are black.
+     */
+    public BufferedImage getImage(int lane) {
+        if (rowSteps > 0) flushRow();           // the last, partial row
+        return images[lane - 1];
+    }
+
+    /**
+     * Writes the diagrams of the lanes as PNG files.
+     * @param prefix The path of the files without "-right.png" and "-left.png".
+     */
+    public void writePng(File prefix) throws IOException {
+        ImageIO.write(getImage(RoadNS.RIGHT_LANE), "png", new File(prefix.getPath() + "-right.png"));
+        ImageIO.write(getImage(RoadNS.LEFT_LANE), "png", new File(prefix.getPath() + "-left.png"));
+    }
+
+    /**
+     * Runs a configuration (numberOfIterations steps) and writes its diagrams.
+     * @param run The configuration, with the seed of the run.
+     * @param dir The directory of the files, see getName().
+     */
+    public static void render(SimulationConfig run, File dir, int maxWidth, int maxHeight) throws IOException {
+        Road road = Road.create(run);
+        SpaceTimeDiagram diagram = new SpaceTimeDiagram(run, run.numberOfIterations, maxWidth, maxHeight);
+        for (int i = 0; i < run.numberOfIterations; i++) {
+            road.nextState();
+            diagram.add(road);
+        }
+        diagram.writePng(new File(dir, getName(run)));
+    }
+
+    /**
+     * Renders several runs concurrently, one run per worker thread.
+     * @param runs The configurations, with the seeds of the runs.
+     * @param dir The directory of the files (created if needed).
+     * @param parallelism The number of worker threads.
+     */
+    public static void renderAll(List<SimulationConfig> runs, File dir, int parallelism) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<Void>> tasks = new ArrayList<>(runs.size());
+            for (SimulationConfig run : runs) {
+                tasks.add(pool.submit(() -> {
+                    render(run, dir, DEFAULT_MAX_WIDTH, DEFAULT_MAX_HEIGHT);
+                    return null;
+                }));
+            }
+            for (ForkJoinTask<Void> task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /*
+     * @return The name of the files of a run, from its parameters and seed.
+     */
+    public static String getName(SimulationConfig run) {
+        return String.format(Locale.ROOT, "d%s_r%s_v%d-%d_b%d_%s", run.density, run.fastCarRatio,
+                run.maxSpeedSlowCar, run.maxSpeedFastCar, run.hasBrokenCar ? 1 : 0, Long.toHexString(run.seed));
+    }
+}
@@ -0,0 +1,53 @@
+package nsSimulation;
+
+/*==============================================================================
+Lane index with precomputed next-occupied and previous-occupied cells.
+
+update() costs one pass over the lane (the same as clearing the helper lanes
+in RoadNS.nextState), after which every lookup is O(1), independent of the
+density of the lane.
+==============================================================================*/
+
+public class SparseLaneIndex implements LaneIndex {
+
+    private final int[] next;           // first occupied cell >= i, or -1
+    private final int[] prev;           // last occupied cell <= i, or -1
+    private int first = -1;             // first occupied cell of the lane
+    private int last = -1;              // last occupied cell of the lane
+
+    public SparseLaneIndex(int roadSize) {
+        next = new int[roadSize];
+        prev = new int[roadSize];
+    }
+
+    @Override
+    public void update(int[] lane) {
+        int n = -1;
+        for (int i = lane.length - 1; i >= 0; i--) {
+            if (lane[i] != -1) n = i;
+            next[i] = n;
+        }
+        first = n;
+
+        int p = -1;
+        for (int i = 0; i < lane.length; i++) {
+            if (lane[i] != -1) p = i;
+            prev[i] = p;
+        }
+        last = p;
+    }
+
+    @Override
+    public int front(int position) {
+        int start = position + 1;
+        if (start < next.length && next[start] != -1) return next[start];
+        return first;       // wrap around (or -1 if the lane is empty)
+    }
+
+    @Override
+    public int behind(int position) {
+        int start = position - 1;
+        if (start >= 0 && prev[start] != -1) return prev[start];
+        return last;        // wrap around (or -1 if the lane is empty)
+    }
+}
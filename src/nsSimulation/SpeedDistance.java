@@ -2,6 +2,7 @@ package nsSimulation;
 
 /*==============================================================================
 This class is created to store output of a function which contains 2 values
+RoadNS reuses its instances (see set()) so that a step allocates nothing
 ==============================================================================*/
 
 public class SpeedDistance {
@@ -13,6 +14,12 @@ public class SpeedDistance {
         this.distance = distance;
     }
 
+    public SpeedDistance set(int speed, int distance) {
+        this.speed = speed;
+        this.distance = distance;
+        return this;
+    }
+
     public int getSpeed() {
         return speed;
     }
@@ -0,0 +1,100 @@
+package nsSimulation;
+
+/*==============================================================================
+Data-parallel form of the rules of CarNS.adaptSpeed (lane change and forward
+movement), applied to all cars of a road at once.
+
+The road first gathers the neighbourhood of every car into the primitive
+arrays of the kernel (gaps and speeds of the relevant neighbours), then
+apply() evaluates the rules for all cars in one loop without branches: every
+condition is a boolean mask combined with the non-short-circuit & and |, and
+every decision is a select. Such a loop is a candidate for the auto-vectoriser
+of the JIT, and it does the same work for every car, so it does not suffer
+from branch mispredictions in dense traffic.
+
+A "no car" gap is stored as the size of the road, which no real gap reaches,
+so that the masks compare finite numbers. The parameters of a car (look
+ahead, slack, acceleration) are loaded from the row of its type id in
+VehicleClasses, which is a gather rather than a branch.
+==============================================================================*/
+
+public class SpeedKernel {
+
+    // neighbourhood of each car, filled by the road before apply()
+    public final int[] frontGap;
+    public final int[] frontSpeed;
+    public final int[] frontNextGap;
+    public final int[] frontNextSpeed;
+    public final int[] behindNextGap;
+    public final boolean[] active;              // false if the car is broken down (it only decelerates)
+
+    public final boolean[] changedLane;         // set by apply()
+
+    private final SimulationConfig config;
+
+    public SpeedKernel(SimulationConfig config, int numCars) {
+        this.config = config;
+        frontGap = new int[numCars];
+        frontSpeed = new int[numCars];
+        frontNextGap = new int[numCars];
+        frontNextSpeed = new int[numCars];
+        behindNextGap = new int[numCars];
+        active = new boolean[numCars];
+        changedLane = new boolean[numCars];
+    }
+
+    /**
+     * Applies the rules to all cars and updates lane, speed and max reached
+     * speed of the fleet in place (positions are not changed).
+     * @param fleet The cars of the road.
+     * @param dawdle The dawdle decisions of the step, see RandomStreams.
+     */
+    public void apply(Fleet fleet, boolean[] dawdle) {
+        final int n = fleet.numCars;
+        final int[] lane = fleet.lane;
+        final int[] speed = fleet.speed;
+        final int[] maxSpeed = fleet.maxSpeed;
+        final int[] maxReachedSpeed = fleet.maxReachedSpeed;
+        final byte[] type = fleet.type;
+
+        final int[] lookAheadOf = config.vehicleClasses.lookAhead;
+        final int[] slackOf = config.vehicleClasses.slack;
+        final int[] accelerationOf = config.vehicleClasses.acceleration;
+        final int maxSpeedFastCar = config.maxSpeedFastCar;
+        final boolean applySymmetricRule = config.applySymmetricRule;
+
+        for (int c = 0; c < n; c++) {
+            final int t = type[c];
+            final int lookAhead = lookAheadOf[t];
+            final int slack = slackOf[t];
+            final int acceleration = accelerationOf[t];
+            final int v = speed[c];
+            final int l = lane[c];
+            final int front = frontGap[c];
+            final int frontNext = frontNextGap[c];
+            final int fs = frontSpeed[c];
+            final int fns = frontNextSpeed[c];
+
+            // lane change masks
+            boolean near = front <= lookAhead | frontNext <= lookAhead;
+            boolean goodGapToChange = behindNextGap[c] >= maxSpeedFastCar & frontNext >= v;
+            boolean symmetric = applySymmetricRule & v == 0;                 // paper section VIII-B
+            boolean toLeft = l == RoadNS.RIGHT_LANE & (fs <= v | fns <= v);
+            boolean toRight = l == RoadNS.LEFT_LANE & fs > v + slack & fns > v + slack;
+            boolean change = active[c] & near & goodGapToChange
+                    & ((symmetric & frontNext > front) | (!symmetric & (toLeft | toRight)));
+            lane[c] = change ? 3 - l : l;
+            changedLane[c] = change;
+
+            // forward movement - paper section VI-B
+            int w = v < maxSpeed[c] ? v + acceleration : v;
+            w = Math.min(w, front);
+            w = (w >= 1 & dawdle[c]) ? w - 1 : w;
+
+            // broken down: decelerate by 1 until it stops
+            int newSpeed = active[c] ? w : (v == 0 ? 0 : v - 1);
+            speed[c] = newSpeed;
+            maxReachedSpeed[c] = Math.max(maxReachedSpeed[c], newSpeed);
+        }
+    }
+}
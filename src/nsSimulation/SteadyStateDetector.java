@@ -0,0 +1,124 @@
+package nsSimulation;
+
+import java.util.Arrays;
+
+/*==============================================================================
+Decides when a run has left its initial transient and when it has measured
+the flow precisely enough (SimulationConfig.steadyState).
+
+The flow (travelled cells per step, all cars) is observed in batches of
+batchSize steps. While warming up, the batch means are truncated with MSER:
+the truncation point d minimises the variance of the mean of the batches
+d .. m-1 over their number squared. The transient is over as soon as d lies
+in the first half of the batches (otherwise the transient may still be going
+on); d = m/2 does not count, since with MIN_BATCHES batches it is the last
+truncation point MSER can choose, which a steady trend always chooses. Then
+the statistics of the road are cleared (Road.clearStatistics()), so that the
+result of the run only covers the steady state, and the batch means are
+collected again until the 95% confidence interval of the flow is within
+targetPrecision of its mean (batch means method).
+
+The caller stops the run when step() returns true, or when it reaches
+numberOfIterations; in the latter case the result may not be as precise,
+and if the transient was never over nothing was discarded. Either way the
+runs measure different numbers of steps, see RunResult for comparing them.
+==============================================================================*/
+
+public class SteadyStateDetector {
+
+    static final int MIN_BATCHES = 10;          // before any decision
+    private static final int MSER_TAIL = 5;     // MSER ignores truncation points with fewer batches left
+
+    private final int batchSize;
+    private final double targetPrecision;
+
+    private boolean warmingUp = true;
+    private int steps = 0;
+    private int warmUpSteps = 0;
+    private long lastDistance = 0;
+
+    private double[] batchMeans = new double[64];
+    private int numBatches = 0;
+    private final RunningStatistics flow = new RunningStatistics();
+
+    public SteadyStateDetector(SimulationConfig config) {
+        batchSize = config.batchSize;
+        targetPrecision = config.targetPrecision;
+    }
+
+    /**
+     * Called after every step of the road.
+     * @param road The road of the run.
+     * @return True when the flow has been measured precisely enough.
+     */
+    public boolean step(RoadView road) {
+        steps++;
+        if (steps % batchSize != 0) return false;
+
+        long distance = getTotalDistance(road);
+        double batchMean = (double) (distance - lastDistance) / batchSize;
+        lastDistance = distance;
+
+        if (warmingUp) {
+            if (numBatches == batchMeans.length) batchMeans = Arrays.copyOf(batchMeans, 2 * numBatches);
+            batchMeans[numBatches++] = batchMean;
+            if (numBatches >= MIN_BATCHES && 2 * mserTruncation() < numBatches) {
+                warmingUp = false;
+                warmUpSteps = steps;
+                road.clearStatistics();
+                lastDistance = 0;
+            }
+            return false;
+        }
+
+        flow.add(batchMean);
+        return flow.getCount() >= MIN_BATCHES && flow.getRelativeHalfWidth() <= targetPrecision;
+    }
+
+    /*
+     * @return The MSER truncation point of the batch means.
+     */
+    private int mserTruncation() {
+        double sum = 0, sumOfSquares = 0, best = Double.POSITIVE_INFINITY;
+        int bestD = 0;
+        for (int d = numBatches - 1; d >= 0; d--) {
+            double y = batchMeans[d];
+            sum += y;
+            sumOfSquares += y * y;
+            int n = numBatches - d;
+            if (n < MSER_TAIL) continue;
+            double mser = (sumOfSquares - sum * sum / n) / ((double) n * n);
+            if (mser <= best) {         // ties: the earliest truncation point
+                best = mser;
+                bestD = d;
+            }
+        }
+        return bestD;
+    }
+
+    private static long getTotalDistance(RoadView road) {
+        long distance = 0;
+        for (int c = 0; c < road.getNumCars(); c++) {
+            distance += road.getTraveledDistance(c);
+        }
+        return distance;
+    }
+
+    /*
+     * @return The number of steps discarded as transient, 0 while (or if) still warming up.
+     */
+    public int getWarmUpSteps() {
+        return warmUpSteps;
+    }
+
+    public boolean isWarmingUp() {
+        return warmingUp;
+    }
+
+    /*
+     * @return The batch means of the flow since the end of the transient.
+     */
+    public RunningStatistics getFlow() {
+        return flow;
+    }
+}
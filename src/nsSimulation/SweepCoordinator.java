@@ -0,0 +1,363 @@
+package nsSimulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/*==============================================================================
+Runs a parameter sweep on several JVMs: the coordinator splits the cells into
+shards of consecutive cells and leases them over TCP to SweepWorker
+processes, on this host or on others, which run them with their own
+SweepExecutor and send the rows back. No broker is needed, the workers only
+need the address of the coordinator:
+    java nsSimulation.SweepWorker <host> <port> [threads]
+
+A lease lasts leaseTimeout milliseconds and is renewed by the worker while
+it runs the shard. When a worker dies its connection closes and its leases
+are given to the next worker at once; when a worker hangs its lease expires
+and the shard is leased again. The rows of a run only depend on its cell,
+its repetition and the seed of the sweep (see SweepExecutor), so a shard
+gives the same rows whichever worker runs it, and the first result of a
+shard to arrive is kept. The rows are handed to the sink in the order of the
+cells, as soon as all shards before them are done, so the output is the same
+as that of SweepExecutor.run() on one machine.
+
+Protocol (DataOutputStream, every message starts with its int type):
+    worker:       HELLO int MAGIC, int VERSION, int ResultColumns.NUM_COLUMNS
+    worker:       REQUEST
+    coordinator:  LEASE long lease, int shard, long leaseTimeout, int numRepetitions,
+                  long masterSeed, boolean ensemble, double targetPrecision,
+                  int maxRepetitions, int numCells, the cells (SimulationConfig.writeTo())
+               or WAIT long milliseconds (all shards are leased, ask again later)
+               or DONE (the sweep is finished, the worker disconnects)
+    worker:       RENEW long lease
+    worker:       RESULTS long lease, int shard, int numResults,
+                  numResults * ResultColumns.NUM_COLUMNS longs
+==============================================================================*/
+
+public class SweepCoordinator implements Closeable {
+
+    static final int MAGIC = 0x4e535357;                    // "NSSW"
+    static final int VERSION = 2;
+
+    // message types
+    static final int HELLO = 1;
+    static final int REQUEST = 2;
+    static final int LEASE = 3;
+    static final int WAIT = 4;
+    static final int DONE = 5;
+    static final int RENEW = 6;
+    static final int RESULTS = 7;
+
+    public static final int DEFAULT_PORT = 47011;
+
+    private final ServerSocket server;
+    private final List<SimulationConfig> cells;
+    private final int numRepetitions;
+    private final long masterSeed;
+    private final Shard[] shards;
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+
+    private boolean ensemble = false;
+    private double targetPrecision = 0;
+    private int maxRepetitions = 0;
+    private long leaseTimeout = 60_000;
+
+    // guarded by this
+    private long nextLease = 1;
+    private int numDone = 0;
+    private int numWorkers = 0;
+
+    /*
+     * Consecutive cells leased together.
+     */
+    private static final class Shard {
+        final int first;                        // index of the first cell
+        final int end;
+        long lease = 0;                         // 0: not leased
+        long deadline;                          // System.nanoTime() when the lease expires
+        Socket holder;
+        RunResult[] results;                    // null until done
+
+        Shard(int first, int end) {
+            this.first = first;
+            this.end = end;
+        }
+    }
+
+    /**
+     * @param port The TCP port to listen on (0 for any free port, see getPort()).
+     * @param cells The configurations to simulate, in output order.
+     * @param numRepetitions The number of runs per cell (the minimum with adaptive repetitions).
+     * @param masterSeed The seed of the sweep.
+     * @param shardSize The number of cells per lease.
+     */
+    public SweepCoordinator(int port, List<SimulationConfig> cells, int numRepetitions, long masterSeed, int shardSize) throws IOException {
+        if (shardSize <= 0) throw new IllegalArgumentException("shardSize must be positive: " + shardSize);
+        this.cells = new ArrayList<>(cells);
+        this.numRepetitions = numRepetitions;
+        this.masterSeed = masterSeed;
+        shards = new Shard[(cells.size() + shardSize - 1) / shardSize];
+        for (int s = 0; s < shards.length; s++) {
+            shards[s] = new Shard(s * shardSize, Math.min(cells.size(), (s + 1) * shardSize));
+        }
+        server = new ServerSocket(port);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @param ensemble True to run the repetitions of a cell in lockstep, see SweepExecutor.setEnsemble().
+     */
+    public void setEnsemble(boolean ensemble) {
+        this.ensemble = ensemble;
+    }
+
+    /**
+     * See SweepExecutor.setAdaptiveRepetitions().
+     */
+    public void setAdaptiveRepetitions(double targetPrecision, int maxRepetitions) {
+        if (targetPrecision < 0) throw new IllegalArgumentException("targetPrecision must not be negative");
+        if (targetPrecision > 0 && maxRepetitions < 2) throw new IllegalArgumentException("maxRepetitions must be at least 2");
+        this.targetPrecision = targetPrecision;
+        this.maxRepetitions = maxRepetitions;
+    }
+
+    /**
+     * @param leaseTimeout Milliseconds after which a shard whose worker has
+     * not renewed its lease is leased again.
+     */
+    public void setLeaseTimeout(long leaseTimeout) {
+        if (leaseTimeout <= 0) throw new IllegalArgumentException("leaseTimeout must be positive: " + leaseTimeout);
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    public synchronized int getNumWorkers() {
+        return numWorkers;
+    }
+
+    /**
+     * Leases the shards to the workers which connect, and hands the results
+     * to the sink in the order of the cells. Returns when all cells are done
+     * and the connected workers have been told that the sweep is finished;
+     * a worker which has not asked for work again within a lease timeout
+     * (it hangs, or runs a shard which was leased again) is not waited for.
+     * @param sink The destination of the results (not closed).
+     */
+    public void run(ResultSink sink) throws IOException, InterruptedException {
+        if (targetPrecision > 0 && (numRepetitions < 2 || numRepetitions > maxRepetitions))
+            throw new IllegalArgumentException("numRepetitions must be between 2 and maxRepetitions");
+
+        Thread acceptor = new Thread(this::accept, "SweepCoordinator-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        for (Shard shard : shards) {
+            RunResult[] results;
+            synchronized (this) {
+                while (shard.results == null) wait();
+                results = shard.results;
+                shard.results = new RunResult[0];       // done, release the results
+            }
+            for (RunResult result : results) {
+                sink.accept(result);
+            }
+        }
+
+        // the workers waiting for work ask again within waitMillis() and are answered DONE
+        long deadline = System.nanoTime() + leaseTimeout * 1_000_000;
+        synchronized (this) {
+            long left;
+            while (numWorkers > 0 && (left = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                connections.add(socket);
+                synchronized (this) {
+                    numWorkers++;               // counted before run() can miss it
+                }
+                Thread t = new Thread(() -> serve(socket), "SweepCoordinator-" + socket.getRemoteSocketAddress());
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                if (!server.isClosed()) System.err.println("SweepCoordinator: " + e);
+            }
+        }
+    }
+
+    /*
+     * The conversation with one worker.
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readInt() != HELLO || in.readInt() != MAGIC) throw new IOException("Not a SweepWorker");
+            int version = in.readInt(), numColumns = in.readInt();
+            if (version != VERSION || numColumns != ResultColumns.NUM_COLUMNS)
+                throw new IOException("SweepWorker of another version (" + version + ", " + numColumns + " columns)");
+
+            while (true) {
+                int type = in.readInt();
+                if (type == REQUEST) {
+                    if (!lease(socket, out)) return;
+                } else if (type == RENEW) {
+                    renew(socket, in.readLong());
+                } else if (type == RESULTS) {
+                    readResults(in);
+                } else throw new IOException("Unknown message " + type);
+            }
+        } catch (EOFException | SocketException e) {
+            // the worker died or disconnected, its leases are released below
+        } catch (IOException e) {
+            System.err.println("SweepCoordinator: " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+        } finally {
+            release(socket);
+            connections.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closed anyway
+            }
+        }
+    }
+
+    /*
+     * Answers a REQUEST.
+     * @return False if the sweep is finished (DONE was sent).
+     */
+    private boolean lease(Socket socket, DataOutputStream out) throws IOException {
+        Shard shard = null;
+        long lease = 0;
+        int index = -1;
+        synchronized (this) {
+            long now = System.nanoTime();
+            for (int s = 0; s < shards.length && shard == null; s++) {
+                Shard candidate = shards[s];
+                if (candidate.results != null) continue;
+                if (candidate.lease == 0 || now - candidate.deadline > 0) {
+                    if (candidate.lease != 0)
+                        System.err.println("SweepCoordinator: the lease of cells " + candidate.first + ".." + (candidate.end - 1) + " expired");
+                    shard = candidate;
+                    index = s;
+                    lease = nextLease++;
+                    shard.lease = lease;
+                    shard.deadline = now + leaseTimeout * 1_000_000;
+                    shard.holder = socket;
+                }
+            }
+            if (shard == null && numDone == shards.length) {
+                out.writeInt(DONE);
+                out.flush();
+                return false;
+            }
+        }
+
+        if (shard == null) {
+            out.writeInt(WAIT);
+            out.writeLong(waitMillis());
+        } else {
+            out.writeInt(LEASE);
+            out.writeLong(lease);
+            out.writeInt(index);
+            out.writeLong(leaseTimeout);
+            out.writeInt(numRepetitions);
+            out.writeLong(masterSeed);
+            out.writeBoolean(ensemble);
+            out.writeDouble(targetPrecision);
+            out.writeInt(maxRepetitions);
+            out.writeInt(shard.end - shard.first);
+            for (int c = shard.first; c < shard.end; c++) {
+                cells.get(c).writeTo(out);
+            }
+        }
+        out.flush();
+        return true;
+    }
+
+    /*
+     * @return The milliseconds a worker waits before it asks for work again.
+     */
+    private long waitMillis() {
+        return Math.min(1000, leaseTimeout / 4 + 1);
+    }
+
+    private synchronized void renew(Socket socket, long lease) {
+        for (Shard shard : shards) {
+            if (shard.lease == lease && shard.holder == socket && shard.results == null) {
+                shard.deadline = System.nanoTime() + leaseTimeout * 1_000_000;
+            }
+        }
+    }
+
+    private void readResults(DataInputStream in) throws IOException {
+        in.readLong();                          // the lease, any complete result of the shard is kept
+        int s = in.readInt();
+        int n = in.readInt();
+        if (s < 0 || s >= shards.length || n < 0) throw new IOException("Bad results of shard " + s);
+        RunResult[] results = new RunResult[n];
+        for (int i = 0; i < n; i++) {
+            results[i] = new RunResult();
+            for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+                ResultColumns.set(results[i], c, in.readLong());
+            }
+        }
+
+        synchronized (this) {
+            Shard shard = shards[s];
+            if (shard.results != null) return;          // a late duplicate of a shard leased again
+            shard.results = results;
+            shard.lease = 0;
+            shard.holder = null;
+            numDone++;
+            notifyAll();
+        }
+    }
+
+    /*
+     * Gives the shards leased to a connection back.
+     */
+    private synchronized void release(Socket socket) {
+        numWorkers--;
+        for (Shard shard : shards) {
+            if (shard.holder == socket) {
+                shard.lease = 0;
+                shard.holder = null;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Stops listening and disconnects the workers which are still connected
+     * (after run() only those which hang or run a shard which was leased
+     * again, the others have been told that the sweep is finished).
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+    }
+}
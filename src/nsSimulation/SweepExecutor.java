@@ -0,0 +1,267 @@
+package nsSimulation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/*==============================================================================
+Runs the cells of a parameter sweep (and their repetitions) concurrently.
+
+Every (cell, repetition) pair is an independent task on a work-stealing pool:
+each task builds its own AnimatedSimulation/RoadNS from an immutable
+SimulationConfig, so runs share no mutable state. Rows are written in the
+order of the cells and repetitions, regardless of the order in which the
+tasks finish, so the output is the same as that of a sequential sweep. The
+results go to a ResultSink, which formats and writes them off the thread
+that collects them.
+The seed of every run is derived from the seed of the sweep and the cell
+(see RandomStreams.runSeed), so a sweep is reproducible and any row can be
+re-run on its own from its configuration and seed.
+
+With setEnsemble(true) the repetitions of a cell are one task instead, which
+advances them in lockstep (see EnsembleRoadNS). The rows are the same as
+those of the ENGINE_ARRAYS engine, whatever engine the cells select.
+
+With a ResultCache, the runs found in the cache are not simulated again
+(their cached results are written in their place), and every run is added
+to the cache as soon as it is done, so an interrupted sweep can be resumed
+by running it again with the same seed.
+
+With setAdaptiveRepetitions(), a cell is repeated until its distances are
+known precisely enough rather than a fixed number of times, so the quiet
+free flow cells take few runs and the noisy jammed ones take many. Every row
+records the number of repetitions of its cell and the precision reached.
+
+With a SweepMonitor the progress can be followed over JMX, and the sweep
+paused or cancelled (run() then throws a CancellationException).
+==============================================================================*/
+
+public class SweepExecutor {
+
+    private final ForkJoinPool pool;
+    private boolean ensemble = false;
+    private ResultCache cache = null;
+    private double targetPrecision = 0;         // 0: fixed number of repetitions
+    private int maxRepetitions = 0;
+    private SweepMonitor monitor = null;
+
+    /**
+     * @param parallelism The number of worker threads, usually the number of cores.
+     */
+    public SweepExecutor(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public SweepExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param ensemble True to run the repetitions of a cell in lockstep, with
+     * the rules of ENGINE_ARRAYS whatever engine the cells select.
+     */
+    public void setEnsemble(boolean ensemble) {
+        this.ensemble = ensemble;
+    }
+
+    /**
+     * @param cache The results of earlier runs; the runs found in it are not
+     * simulated again, and the new runs are added to it. null for no cache.
+     */
+    public void setCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @param monitor Receives the progress of the runs and can pause or
+     * cancel the sweep, null for none.
+     */
+    public void setMonitor(SweepMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * Lets the precision of a cell decide its number of repetitions: a cell
+     * is repeated until the 95% confidence intervals of its total distance
+     * and of the distance of each class of cars are within targetPrecision
+     * of their means, or until maxRepetitions.
+     * @param targetPrecision The relative half width of the confidence
+     * intervals, e.g. 0.02; 0 for a fixed number of repetitions.
+     * @param maxRepetitions The maximum number of runs per cell.
+     */
+    public void setAdaptiveRepetitions(double targetPrecision, int maxRepetitions) {
+        if (targetPrecision < 0) throw new IllegalArgumentException("targetPrecision must not be negative");
+        if (targetPrecision > 0 && maxRepetitions < 2) throw new IllegalArgumentException("maxRepetitions must be at least 2");
+        this.targetPrecision = targetPrecision;
+        this.maxRepetitions = maxRepetitions;
+    }
+
+    /**
+     * Runs all cells numRepetitions times and hands one result per run to the sink.
+     * @param cells The configurations to simulate, in output order.
+     * @param numRepetitions The number of runs per cell (the minimum with adaptive repetitions).
+     * @param masterSeed The seed of the sweep.
+     * @param sink The destination of the results (not closed).
+     */
+    public void run(List<SimulationConfig> cells, int numRepetitions, long masterSeed, ResultSink sink) throws IOException {
+        if (targetPrecision > 0 && (numRepetitions < 2 || numRepetitions > maxRepetitions))
+            throw new IllegalArgumentException("numRepetitions must be between 2 and maxRepetitions");
+
+        List<ForkJoinTask<RunResult[]>> tasks = new ArrayList<>(cells.size());
+        for (int c = 0; c < cells.size(); c++) {
+            final SimulationConfig cell = cells.get(c);
+            final int cellIndex = c;
+            tasks.add(pool.submit(() -> runCell(cell, cellIndex, numRepetitions, masterSeed)));
+        }
+
+        // collect in submission order to keep the output deterministic
+        for (int c = 0; c < tasks.size(); c++) {
+            for (RunResult result : tasks.get(c).join()) {
+                sink.accept(result);
+            }
+            tasks.set(c, null);         // release the results
+        }
+    }
+
+    /*
+     * Runs the repetitions of a cell in rounds: the first round runs
+     * numRepetitions, every further round (adaptive repetitions only) as many
+     * as the precision so far asks for, at most doubling the repetitions.
+     * Repetition rep always has the same seed, so the number of repetitions
+     * only depends on the results, and the rows are the same with or
+     * without the cache.
+     */
+    private RunResult[] runCell(SimulationConfig cell, int cellIndex, int numRepetitions, long masterSeed) throws IOException {
+        if (monitor != null) monitor.checkpoint();
+        long fingerprint = cell.fingerprint();
+        boolean parallelDynamics = !ensemble && cell.engine == SimulationConfig.ENGINE_PARALLEL;
+        RunStatistics statistics = new RunStatistics();
+        RunResult[] results = new RunResult[0];
+        int done = 0, target = numRepetitions;
+
+        while (true) {
+            results = Arrays.copyOf(results, target);
+            runRepetitions(cell, cellIndex, fingerprint, parallelDynamics, masterSeed, results, done);
+            for (; done < target; done++) {
+                statistics.add(results[done]);
+            }
+
+            double precision = statistics.getRelativeHalfWidth();
+            if (targetPrecision == 0 || precision <= targetPrecision || done == maxRepetitions) {
+                for (RunResult result : results) {
+                    result.cellRepetitions = done;
+                    result.cellPrecision = precision;
+                }
+                if (monitor != null) monitor.cellFinished();
+                return results;
+            }
+
+            // the half width shrinks with the square root of the number of runs
+            double needed = Math.ceil(done * (precision / targetPrecision) * (precision / targetPrecision));
+            target = (int) Math.min(Math.min(needed, 2 * done), maxRepetitions);
+            target = Math.max(target, done + 1);
+        }
+    }
+
+    /*
+     * Fills results[first ..] with the cached results or new runs.
+     */
+    private void runRepetitions(SimulationConfig cell, int cellIndex, long fingerprint, boolean parallelDynamics, long masterSeed, RunResult[] results, int first) throws IOException {
+        int n = results.length - first;
+        long[] seeds = new long[n];
+        String[] keys = new String[n];
+        int numMissing = 0;
+        for (int k = 0; k < n; k++) {
+            seeds[k] = RandomStreams.runSeed(masterSeed, fingerprint, first + k);
+            if (cache == null) continue;
+            keys[k] = ResultCache.key(cell.toBuilder().seed(seeds[k]).build(), parallelDynamics);
+            results[first + k] = cache.get(keys[k]);
+        }
+        for (int k = 0; k < n; k++) {
+            if (results[first + k] == null) numMissing++;
+        }
+        if (numMissing == 0) return;
+
+        if (ensemble) {
+            // only the repetitions which are not in the cache, in one lockstep run
+            long[] missingSeeds = new long[numMissing];
+            int[] repetitions = new int[numMissing];
+            for (int k = 0, m = 0; k < n; k++) {
+                if (results[first + k] != null) continue;
+                missingSeeds[m] = seeds[k];
+                repetitions[m++] = first + k;
+            }
+            AnimatedSimulation simulation = new AnimatedSimulation();
+            if (monitor != null) {
+                monitor.runStarted(cellIndex, repetitions[0]);
+                simulation.setMonitor(monitor);
+            }
+            RunResult[] runs = simulation.runEnsemble(cell, missingSeeds, repetitions);
+            for (int m = 0; m < numMissing; m++) {
+                int rep = repetitions[m];
+                results[rep] = runs[m];
+                if (cache != null) cache.put(keys[rep - first], runs[m]);
+            }
+            return;
+        }
+
+        // one task per run, so that idle workers can steal the runs of this cell
+        List<ForkJoinTask<RunResult>> tasks = new ArrayList<>(numMissing);
+        for (int k = 0; k < n; k++) {
+            if (results[first + k] != null) continue;
+            final int repetition = first + k;
+            final String key = keys[k];
+            final SimulationConfig run = cell.toBuilder().seed(seeds[k]).build();
+            tasks.add(ForkJoinTask.adapt(() -> {
+                AnimatedSimulation simulation = new AnimatedSimulation();
+                simulation.initialiseSimulation(run);
+                if (monitor != null) {
+                    monitor.runStarted(cellIndex, repetition);
+                    simulation.setMonitor(monitor);
+                }
+                RunResult result = simulation.runSimulation(repetition);
+                if (key != null) cache.put(key, result);
+                return result;
+            }).fork());
+        }
+        for (int k = 0, t = 0; k < n; k++) {
+            if (results[first + k] == null) results[first + k] = tasks.get(t++).join();
+        }
+    }
+
+    /*
+     * The confidence intervals of the distances per step of the runs of a
+     * cell (with steady state detection the runs measure different numbers
+     * of steps).
+     */
+    private static final class RunStatistics {
+
+        private final RunningStatistics total = new RunningStatistics();
+        private final RunningStatistics slow = new RunningStatistics();
+        private final RunningStatistics fast = new RunningStatistics();
+
+        void add(RunResult result) {
+            double steps = Math.max(1, result.measuredSteps);
+            total.add(result.totalDistance / steps);
+            if (result.numSlowCars > 0) slow.add(result.totalSlowDistance / steps);
+            if (result.numFastCars > 0) fast.add(result.totalFastDistance / steps);
+        }
+
+        /*
+         * @return The widest relative half width of the distances (a class without cars is left out).
+         */
+        double getRelativeHalfWidth() {
+            double precision = total.getRelativeHalfWidth();
+            if (slow.getCount() > 0) precision = Math.max(precision, slow.getRelativeHalfWidth());
+            if (fast.getCount() > 0) precision = Math.max(precision, fast.getRelativeHalfWidth());
+            return precision;
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,262 @@
+package nsSimulation;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*==============================================================================
+Live progress of a sweep over JMX (e.g. jconsole or VisualVM), with pause,
+resume and cancel, see SweepExecutor.setMonitor().
+
+The runs report their progress every CHECK_INTERVAL steps, not every step:
+each worker thread has its own Worker, whose counters are only written by
+that thread, so the runs never contend on a counter. At the same points a
+run waits while the sweep is paused, and stops (CancellationException) when
+it is cancelled. The rates are computed when they are read, from the
+difference to the previous reading.
+==============================================================================*/
+
+public class SweepMonitor implements SweepMonitorMBean {
+
+    static final int CHECK_INTERVAL = 256;                  // steps, a power of 2
+
+    public static final String NAME = "nsSimulation:type=SweepMonitor";
+
+    /*==========================================================================
+    The counters of one worker thread
+    ==========================================================================*/
+    public static final class Worker {
+        private final String name = Thread.currentThread().getName();
+        private volatile long steps;                        // written by the worker only
+        private volatile long cellUpdates;
+
+        void add(long steps, long cellUpdates) {
+            this.steps += steps;                            // single writer, so += is safe
+            this.cellUpdates += cellUpdates;
+        }
+    }
+
+    private final int cellsTotal;
+    private final AtomicInteger cellsCompleted = new AtomicInteger();
+    private final LongAdder runsCompleted = new LongAdder();
+    private volatile int currentCell = -1;
+    private volatile int currentRepetition = -1;
+    private volatile double lastFlow;
+    private volatile double lastFlow2;
+
+    private final List<Worker> workers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Worker> worker = ThreadLocal.withInitial(() -> {
+        Worker w = new Worker();
+        workers.add(w);
+        return w;
+    });
+
+    private final long startTime = System.nanoTime();
+    private long lastSampleTime = startTime;                // guarded by this
+    private long lastSampleSteps;
+    private long lastSampleCellUpdates;
+    private double stepsPerSecond;
+    private double cellUpdatesPerSecond;
+
+    private volatile boolean paused = false;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param cellsTotal The number of cells of the sweep.
+     */
+    public SweepMonitor(int cellsTotal) {
+        this.cellsTotal = cellsTotal;
+    }
+
+    /**
+     * Registers the monitor with the platform MBean server.
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(NAME);
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+        server.registerMBean(this, name);
+    }
+
+    public void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(NAME);
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+    }
+
+    /*
+     * @return The counters of the calling thread.
+     */
+    Worker worker() {
+        return worker.get();
+    }
+
+    /**
+     * Called by a run every CHECK_INTERVAL steps (and at its end) on its own
+     * thread. Waits while the sweep is paused.
+     * @throws CancellationException If the sweep was cancelled.
+     */
+    void progress(Worker w, long steps, long cellUpdates) {
+        w.add(steps, cellUpdates);
+        checkpoint();
+    }
+
+    /**
+     * Waits while the sweep is paused.
+     * @throws CancellationException If the sweep was cancelled.
+     */
+    void checkpoint() {
+        if (paused) {
+            synchronized (this) {
+                while (paused && !cancelled) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CancellationException("Interrupted while paused");
+                    }
+                }
+            }
+        }
+        if (cancelled) throw new CancellationException("The sweep was cancelled");
+    }
+
+    void runStarted(int cell, int repetition) {
+        currentCell = cell;
+        currentRepetition = repetition;
+    }
+
+    void runFinished(double flow, double flow2) {
+        lastFlow = flow;
+        lastFlow2 = flow2;
+        runsCompleted.increment();
+    }
+
+    void cellFinished() {
+        cellsCompleted.incrementAndGet();
+    }
+
+    @Override
+    public int getCellsTotal() {
+        return cellsTotal;
+    }
+
+    @Override
+    public int getCellsCompleted() {
+        return cellsCompleted.get();
+    }
+
+    @Override
+    public int getCellsRemaining() {
+        return cellsTotal - cellsCompleted.get();
+    }
+
+    @Override
+    public long getRunsCompleted() {
+        return runsCompleted.sum();
+    }
+
+    @Override
+    public int getCurrentCell() {
+        return currentCell;
+    }
+
+    @Override
+    public int getCurrentRepetition() {
+        return currentRepetition;
+    }
+
+    /*
+     * Updates the rates if the previous reading is at least a second old.
+     */
+    private synchronized void sample() {
+        long now = System.nanoTime();
+        if (now - lastSampleTime < 1000000000L) return;
+        long steps = 0, cellUpdates = 0;
+        for (Worker w : workers) {
+            steps += w.steps;
+            cellUpdates += w.cellUpdates;
+        }
+        double seconds = (now - lastSampleTime) / 1e9;
+        stepsPerSecond = (steps - lastSampleSteps) / seconds;
+        cellUpdatesPerSecond = (cellUpdates - lastSampleCellUpdates) / seconds;
+        lastSampleTime = now;
+        lastSampleSteps = steps;
+        lastSampleCellUpdates = cellUpdates;
+    }
+
+    @Override
+    public synchronized double getStepsPerSecond() {
+        sample();
+        return stepsPerSecond;
+    }
+
+    @Override
+    public synchronized double getCellUpdatesPerSecond() {
+        sample();
+        return cellUpdatesPerSecond;
+    }
+
+    @Override
+    public String[] getWorkerThroughput() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        String[] throughput = new String[workers.size()];
+        int i = 0;
+        for (Worker w : workers) {
+            if (i == throughput.length) break;
+            throughput[i++] = String.format("%s: %.0f steps/s, %.3g cell updates/s", w.name, w.steps / seconds, w.cellUpdates / seconds);
+        }
+        return throughput;
+    }
+
+    @Override
+    public long getEtaSeconds() {
+        int done = cellsCompleted.get();
+        if (done == 0) return -1;
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return Math.round(seconds / done * (cellsTotal - done));
+    }
+
+    @Override
+    public double getLastFlow() {
+        return lastFlow;
+    }
+
+    @Override
+    public double getLastFlow2() {
+        return lastFlow2;
+    }
+
+    @Override
+    public boolean isPaused() {
+        return paused;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    @Override
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+}
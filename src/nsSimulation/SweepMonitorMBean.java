@@ -0,0 +1,61 @@
+package nsSimulation;
+
+/*==============================================================================
+The JMX interface of SweepMonitor (nsSimulation:type=SweepMonitor).
+==============================================================================*/
+
+public interface SweepMonitorMBean {
+
+    int getCellsTotal();
+
+    int getCellsCompleted();
+
+    int getCellsRemaining();
+
+    long getRunsCompleted();
+
+    /*
+     * The cell (index in the sweep) and repetition of the run started last.
+     */
+    int getCurrentCell();
+
+    int getCurrentRepetition();
+
+    double getStepsPerSecond();
+
+    /*
+     * Cells of both lanes updated per second, comparable across road sizes.
+     */
+    double getCellUpdatesPerSecond();
+
+    /*
+     * Steps and cell updates per second of every worker thread, since the start.
+     */
+    String[] getWorkerThroughput();
+
+    /*
+     * Estimated seconds until the sweep is done, -1 before the first cell is done.
+     */
+    long getEtaSeconds();
+
+    /*
+     * getFlow() and getFlow2() of the road of the run finished last.
+     */
+    double getLastFlow();
+
+    double getLastFlow2();
+
+    boolean isPaused();
+
+    boolean isCancelled();
+
+    void pause();
+
+    void resume();
+
+    /*
+     * Stops the sweep: the runs in progress stop at their next check and no
+     * run is started any more. With a cache it can be resumed later.
+     */
+    void cancel();
+}
@@ -0,0 +1,156 @@
+package nsSimulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/*==============================================================================
+Runs shards of a sweep leased by a SweepCoordinator, on this JVM, until the
+coordinator says the sweep is finished:
+    java nsSimulation.SweepWorker <host> <port> [threads]
+
+A shard is run with a SweepExecutor of its own (threads worker threads,
+the number of cores by default), with the repetitions, seed and options of
+the sweep sent with the lease, and its rows are sent back at once. While a
+shard runs its lease is renewed every third of the lease timeout, so that
+only a worker which died or hangs loses it.
+==============================================================================*/
+
+public class SweepWorker {
+
+    private final String host;
+    private final int port;
+    private final int parallelism;
+
+    /**
+     * @param host The host of the coordinator.
+     * @param port The port of the coordinator.
+     * @param parallelism The number of threads which run the shards.
+     */
+    public SweepWorker(String host, int port, int parallelism) {
+        this.host = host;
+        this.port = port;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs shards until the sweep is finished.
+     * @return The number of shards run.
+     */
+    public int run() throws IOException, InterruptedException {
+        int numShards = 0;
+        SweepExecutor executor = new SweepExecutor(parallelism);
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(SweepCoordinator.HELLO);
+            out.writeInt(SweepCoordinator.MAGIC);
+            out.writeInt(SweepCoordinator.VERSION);
+            out.writeInt(ResultColumns.NUM_COLUMNS);
+
+            while (true) {
+                synchronized (out) {
+                    out.writeInt(SweepCoordinator.REQUEST);
+                    out.flush();
+                }
+                int type = in.readInt();
+                if (type == SweepCoordinator.DONE) break;
+                if (type == SweepCoordinator.WAIT) {
+                    Thread.sleep(in.readLong());
+                    continue;
+                }
+                if (type != SweepCoordinator.LEASE) throw new IOException("Unknown message " + type);
+
+                long lease = in.readLong();
+                int shard = in.readInt();
+                long leaseTimeout = in.readLong();
+                int numRepetitions = in.readInt();
+                long masterSeed = in.readLong();
+                boolean ensemble = in.readBoolean();
+                double targetPrecision = in.readDouble();
+                int maxRepetitions = in.readInt();
+                int numCells = in.readInt();
+                List<SimulationConfig> cells = new ArrayList<>(numCells);
+                for (int c = 0; c < numCells; c++) {
+                    cells.add(SimulationConfig.readFrom(in));
+                }
+
+                executor.setEnsemble(ensemble);
+                executor.setAdaptiveRepetitions(targetPrecision, maxRepetitions);
+                List<RunResult> results = new ArrayList<>();
+                Thread renewal = startRenewal(out, lease, leaseTimeout);
+                try {
+                    executor.run(cells, numRepetitions, masterSeed, new ResultSink() {
+                        @Override
+                        public void accept(RunResult result) {
+                            results.add(result);
+                        }
+
+                        @Override
+                        public void close() {
+                        }
+                    });
+                } finally {
+                    renewal.interrupt();
+                    renewal.join();
+                }
+
+                synchronized (out) {
+                    out.writeInt(SweepCoordinator.RESULTS);
+                    out.writeLong(lease);
+                    out.writeInt(shard);
+                    out.writeInt(results.size());
+                    for (RunResult result : results) {
+                        for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+                            out.writeLong(ResultColumns.get(result, c));
+                        }
+                    }
+                    out.flush();
+                }
+                numShards++;
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return numShards;
+    }
+
+    /*
+     * Renews a lease every third of its timeout until interrupted.
+     */
+    private static Thread startRenewal(DataOutputStream out, long lease, long leaseTimeout) {
+        Thread renewal = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(Math.max(1, leaseTimeout / 3));
+                    synchronized (out) {
+                        out.writeInt(SweepCoordinator.RENEW);
+                        out.writeLong(lease);
+                        out.flush();
+                    }
+                }
+            } catch (InterruptedException | IOException e) {
+                // the shard is done, or the coordinator is gone (the main loop notices)
+            }
+        }, "SweepWorker-renewal");
+        renewal.setDaemon(true);
+        renewal.start();
+        return renewal;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("usage: SweepWorker host port [threads]");
+            System.exit(2);
+        }
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int numShards = new SweepWorker(args[0], Integer.parseInt(args[1]), parallelism).run();
+        System.out.println(numShards + " shards run");
+    }
+}
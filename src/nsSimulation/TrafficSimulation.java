@@ -1,11 +1,14 @@
 package nsSimulation;
 
-import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import javax.management.JMException;
 
 public class TrafficSimulation {
 
@@ -16,7 +19,7 @@ public class TrafficSimulation {
     public static final int CAR_WIDTH = 10;
     
     // BROKEN CAR CONSTANTS 
-    public static double BREAKING_DOWN_PROBABILITY = 0.3;
+    public static final double BREAKING_DOWN_PROBABILITY = 0.3;
     public static final double GETTING_REPAIRED_PROBABILITY = 0;
     
     // MISCELLANEOUS
@@ -26,55 +29,37 @@ public class TrafficSimulation {
     ////////////////////////////////////////////////////////////////////////////
 
     // CONFIGURATIONS //////////////////////////////////////////////////////////
-    public static double DENSITY;
-    public static double FAST_CAR_RATIO; // fast/total cars
-    public static int NUMBER_OF_ITERATIONS;
-    public static boolean GLOBAL_SPEED_RULE;
-    public static int GLOBAL_MAX_SPEED;
+    // the parameters of a run are kept in SimulationConfig, so that runs can
+    // be executed concurrently
 
-    
-    // parameter of NS model
-    public static int MAX_ACCELERATION = 1;               // default is 1 in NS
-    public static int MAX_SPEED_FAST_CAR = 5;
-    public static int MAX_SPEED_SLOW_CAR = 3;    
-    public static double PROBABILITY_FLUCTUATION = .25;
-    public static int DISTANCE_TO_LOOK_AHEAD = 7;
-    public static int SLACK = 3;
-    public static boolean APPLY_SYMMETRIC_RULE = true; 
-
-    // 
-    public static int ROAD_SIZE = 0;                      // number of cells
-    public static int NUM_FAST_CARS = 0;
-    public static int NUM_SLOW_CARS = 0;
-    public static boolean HAS_BROKEN_CAR = false;
-
-   
     public static boolean DEBUG = false;
     
     ////////////////////////////////////////////////////////////////////////////
 
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments: [seed of the sweep]
      */
-    public static void main(String[] args) throws FileNotFoundException, UnsupportedEncodingException, IOException {
+    public static void main(String[] args) throws FileNotFoundException, UnsupportedEncodingException, IOException, JMException, InterruptedException {
 
         //Don't make this value zero, or it'll crash
-        NUMBER_OF_ITERATIONS = 3600;
+        int numberOfIterations = 3600;
+        boolean steadyState = false;                // stop a run at its steady state precision (numberOfIterations is then the cap), see SteadyStateDetector;
+                                                    // the distances of a row are then totals over its measured_steps, see RunResult
         
         
         // parameters related to road segment
         double cellLength = 7.5;            // in meter
         double roadLength = 7.5;                // in km, should be a multiple of cellLength 
-        ROAD_SIZE = (int)(roadLength*1000/cellLength);   // number of cells
-        System.out.println("ROAD_SIZE = " + ROAD_SIZE);
+        int roadSize = (int)(roadLength*1000/cellLength);   // number of cells
+        System.out.println("ROAD_SIZE = " + roadSize);
         
         // to use in the same scale with our model, set cellLength = 3, 
         // consider changing the MAX_ACCELERATION, masSpeedsFast, maxSpeedsSlow as well
         
         
         // parameters for NS model        
-        APPLY_SYMMETRIC_RULE = true;                // paper section VIII-B
-        MAX_ACCELERATION = 1;                       // consider changing this value if cell length is modified
+        boolean applySymmetricRule = true;          // paper section VIII-B
+        int maxAcceleration = 1;                    // consider changing this value if cell length is modified
                                 // to use the basic model in paper section VI-C, set slack=0 and APPLY_SYMMETRIC_RULE = false
         int[] arrDistanceLookAhead = {7};   // {7, 16}
         int[] slacks = {3};                 // {3, 9}
@@ -87,13 +72,22 @@ public class TrafficSimulation {
         boolean[] globalRules = {false};
         boolean[] brokenCar = {true, false};
         int numRepetitions = 5;                     // repeat each model xxx times
+        double targetPrecision = 0;                 // > 0: repeat a model until its distances are this precise (relative), see SweepExecutor
+        int maxRepetitions = 40;                    // with targetPrecision, numRepetitions is the minimum
+        boolean lockstepRepetitions = false;        // run the repetitions of a model together on the ArrayRoadNS rules instead of the engine of the cells, see EnsembleRoadNS
+        boolean useCache = false;                   // skip the runs found in cache/ (same seed of the sweep, given as argument), see ResultCache
+        boolean spaceTimeDiagrams = false;          // render the first repetition of every model to diagrams/, see SpaceTimeDiagram
+        boolean showFirstModel = false;             // watch a run of the first model before the sweep (slow it down with SIMULATION_STEP_COOLDOWN)
+        boolean columnarOutput = false;             // write simulations.nsr instead of simulations.csv, see ColumnarResultReader for the CSV export
+        int coordinatorPort = 0;                    // > 0: lease the models to SweepWorker JVMs on this port instead of running them here, see SweepCoordinator
 
-        int totalCars;
-        long startTime;
+        // the same seed reproduces the whole sweep (every row also records the seed of its run);
+        // the cache only finds the runs of the same seed, so a new seed samples new runs
+        long masterSeed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        System.out.println("seed = " + masterSeed + (useCache ? " (run again with this seed to reuse the cache)" : ""));
 
-        AnimatedSimulation simulation = new AnimatedSimulation();
-        PrintWriter writer = new PrintWriter("simulations.csv","UTF-8");
-        writer.println("model,ith run, road_block, max_speed_slow, max_speed_fast, fast_car_ratio, density, total_all_cars_distance, total_slow_cars_distance, total_fast_cars_distance, worst_case_distance_slow_cars, worst_cast_distance_fast_cars, best_case_distance_slow_car, best_case_distance_fast_car,num_slow_cars,num_fast_cars,global_speed_rule,slack,distance_look_ahead");
+        int totalCars, numFastCars, numSlowCars;
+        List<SimulationConfig> cells = new ArrayList<>();
         
         for (double density : trafficDensities) {
             for (double ratio : fastCarRatios) {
@@ -104,33 +98,33 @@ public class TrafficSimulation {
                                 for (int distance : arrDistanceLookAhead) {
                                     for (int slack : slacks) {
                                         if (slow <= fast) {
-                                            DENSITY = density;
-                                            totalCars = (int) (ROAD_SIZE  * density);
-                                            NUM_FAST_CARS = (int) (ratio * totalCars);
-                                            NUM_SLOW_CARS = totalCars - NUM_FAST_CARS;
-
-                                            DISTANCE_TO_LOOK_AHEAD = distance;
-                                            SLACK = slack;
-
-                                            HAS_BROKEN_CAR = broken;
-                                            if (HAS_BROKEN_CAR){
-                                                NUM_SLOW_CARS ++;   // broken car is counted in number of slow cars
+                                            totalCars = (int) (roadSize  * density);
+                                            numFastCars = (int) (ratio * totalCars);
+                                            numSlowCars = totalCars - numFastCars;
+                                            if (broken){
+                                                numSlowCars ++;     // broken car is counted in number of slow cars
                                             }
                                             
-                                            FAST_CAR_RATIO = ratio;
-                                            MAX_SPEED_SLOW_CAR = slow;
-                                            MAX_SPEED_FAST_CAR = fast;
-                                            BREAKING_DOWN_PROBABILITY = broken ? 0.3 : 0.0;
-                                            GLOBAL_SPEED_RULE = global;
-                                            
-                                            for (int rep=0; rep < numRepetitions; rep++) {
-//                                                startTime = System.nanoTime();
-                                                simulation.initialiseSimulation(NUMBER_OF_ITERATIONS);
-                                                writer.println(simulation.runSimulation(rep));    
-//                                                System.out.println("Running one simulation: " + (System.nanoTime()-startTime)/Math.pow(10, 9) + "seconds");
-                                            }      
+                                            cells.add(new SimulationConfig.Builder()
+                                                    .roadSize(roadSize)
+                                                    .numberOfIterations(numberOfIterations)
+                                                    .steadyState(steadyState)
+                                                    .density(density)
+                                                    .fastCarRatio(ratio)
+                                                    .numFastCars(numFastCars)
+                                                    .numSlowCars(numSlowCars)
+                                                    .hasBrokenCar(broken)
+                                                    .maxSpeedSlowCar(slow)
+                                                    .maxSpeedFastCar(fast)
+                                                    .maxAcceleration(maxAcceleration)
+                                                    .applySymmetricRule(applySymmetricRule)
+                                                    .distanceToLookAhead(distance)
+                                                    .slack(slack)
+                                                    .breakingDownProbability(broken ? BREAKING_DOWN_PROBABILITY : 0.0)
+                                                    .gettingRepairedProbability(GETTING_REPAIRED_PROBABILITY)
+                                                    .globalSpeedRule(global)
+                                                    .build());
                                         }
-                                        writer.flush();      
                                     }
                                 }
                             }
@@ -139,6 +133,62 @@ public class TrafficSimulation {
                 }
             }
         }               
-        writer.close();
+
+        if (spaceTimeDiagrams) {
+            List<SimulationConfig> runs = new ArrayList<>(cells.size());
+            for (SimulationConfig cell : cells) {
+                runs.add(cell.toBuilder().seed(RandomStreams.runSeed(masterSeed, cell.fingerprint(), 0)).build());
+            }
+            SpaceTimeDiagram.renderAll(runs, new File("diagrams"), Runtime.getRuntime().availableProcessors());
+        }
+
+        if (showFirstModel) {
+            AnimatedSimulation simulation = new AnimatedSimulation();
+            simulation.initialiseSimulation(cells.get(0).toBuilder().seed(masterSeed).build());
+            simulation.show();
+            simulation.runSimulation(0);
+        }
+
+        if (coordinatorPort > 0) {
+            long startTime = System.nanoTime();
+            try (SweepCoordinator coordinator = new SweepCoordinator(coordinatorPort, cells, numRepetitions, masterSeed, 4);
+                 ResultSink sink = columnarOutput ? new ColumnarResultSink(new FileOutputStream("simulations.nsr"))
+                                                  : new CsvResultSink(new FileOutputStream("simulations.csv"))) {
+                coordinator.setEnsemble(lockstepRepetitions);
+                coordinator.setAdaptiveRepetitions(targetPrecision, maxRepetitions);
+                System.out.println("Waiting for workers on port " + coordinator.getPort() + ": java nsSimulation.SweepWorker <host> " + coordinator.getPort());
+                coordinator.run(sink);
+            }
+            System.out.println("Running " + cells.size() + " cells: " + (System.nanoTime()-startTime)/Math.pow(10, 9) + " seconds");
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        
+        SweepExecutor executor = new SweepExecutor();
+        executor.setEnsemble(lockstepRepetitions);
+        executor.setAdaptiveRepetitions(targetPrecision, maxRepetitions);
+        ResultCache cache = useCache ? new ResultCache(new File("cache")) : null;
+        if (cache != null) {
+            executor.setCache(cache);
+            System.out.println(cache.getNumRecovered() + " runs in the cache");
+        }
+        SweepMonitor monitor = new SweepMonitor(cells.size());
+        monitor.register();         // jconsole: nsSimulation / SweepMonitor
+        executor.setMonitor(monitor);
+        try (ResultSink sink = columnarOutput ? new ColumnarResultSink(new FileOutputStream("simulations.nsr"))
+                                              : new CsvResultSink(new FileOutputStream("simulations.csv"))) {
+            executor.run(cells, numRepetitions, masterSeed, sink);
+        } catch (CancellationException e) {
+            System.out.println("The sweep was cancelled after " + monitor.getCellsCompleted() + " of " + cells.size()
+                    + " cells" + (cache != null ? ", the finished runs are kept in the cache" : ""));
+        } finally {
+            executor.shutdown();
+            monitor.unregister();
+            if (cache != null) cache.close();
+        }
+        
+        System.out.println("Running " + cells.size() + " cells: " + (System.nanoTime()-startTime)/Math.pow(10, 9) + " seconds");
+        if (Probes.ENABLED) Probes.report(System.out);
     }    
 }
@@ -0,0 +1,168 @@
+package nsSimulation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/*==============================================================================
+Reads the state of any step of a file written by TrajectoryRecorder.
+
+The frames between two key frames are mapped and decoded from the key frame
+on; reading the steps of a key frame interval in increasing order continues
+from the previous step, so a whole recording is read in one pass.
+
+As a tool it prints the lanes of a range of steps as printTrafficSituation()
+does, i.e. a space-time diagram:
+    java nsSimulation.TrajectoryReader trajectory.nst [first step] [last step]
+==============================================================================*/
+
+public class TrajectoryReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int numCars;
+    private final int roadSize;
+    private final int keyFrameInterval;
+    private final long numFrames;
+    private final long[] keyFrames;
+    private final long indexOffset;             // the end of the last key frame interval
+
+    // the decoded state of step decodedStep, and the mapping of its key frame interval
+    private final int[] position;
+    private final int[] lane;
+    private final int[] speed;
+    private long decodedStep = -1;
+    private MappedByteBuffer map;
+
+    public TrajectoryReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        channel = this.file.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(TrajectoryRecorder.HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) { }
+        header.flip();
+        if (header.remaining() < TrajectoryRecorder.HEADER_SIZE || header.getInt() != TrajectoryRecorder.MAGIC)
+            throw new IOException("Not a trajectory file: " + file);
+        int version = header.getInt();
+        if (version != TrajectoryRecorder.VERSION) throw new IOException("Unsupported trajectory file version " + version);
+        numCars = header.getInt();
+        roadSize = header.getInt();
+        keyFrameInterval = header.getInt();
+        header.getInt();
+        numFrames = header.getLong();
+        long indexOffset = header.getLong();
+        if (indexOffset == 0) throw new IOException("The recording was not closed: " + file);
+
+        keyFrames = new long[(int) ((numFrames + keyFrameInterval - 1) / keyFrameInterval)];
+        ByteBuffer index = ByteBuffer.allocate(8 * keyFrames.length);
+        while (index.hasRemaining() && channel.read(index, indexOffset + index.position()) >= 0) { }
+        index.flip();
+        for (int k = 0; k < keyFrames.length; k++) keyFrames[k] = index.getLong();
+        this.indexOffset = indexOffset;
+
+        position = new int[numCars];
+        lane = new int[numCars];
+        speed = new int[numCars];
+    }
+
+    public int getNumCars() {
+        return numCars;
+    }
+
+    public int getRoadSize() {
+        return roadSize;
+    }
+
+    /*
+     * @return The number of recorded frames, frame t is the state after t steps.
+     */
+    public long getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Reads the state after a number of steps.
+     * @param step 0 (the initial state) .. getNumFrames()-1
+     * @param position The position of every car (at least getNumCars() long), or null.
+     * @param lane The lane of every car, or null.
+     * @param speed The speed of every car, or null.
+     */
+    public void read(long step, int[] position, int[] lane, int[] speed) throws IOException {
+        if (step < 0 || step >= numFrames) throw new IndexOutOfBoundsException("Step " + step + " of " + numFrames);
+        int k = (int) (step / keyFrameInterval);
+        long keyStep = (long) k * keyFrameInterval;
+
+        if (decodedStep < keyStep || decodedStep > step) {
+            long end = k + 1 < keyFrames.length ? keyFrames[k + 1] : indexOffset;
+            map = channel.map(FileChannel.MapMode.READ_ONLY, keyFrames[k], end - keyFrames[k]);
+            decodeKeyFrame();
+            decodedStep = keyStep;
+        }
+        while (decodedStep < step) {
+            decodeFrame();
+            decodedStep++;
+        }
+
+        if (position != null) System.arraycopy(this.position, 0, position, 0, numCars);
+        if (lane != null) System.arraycopy(this.lane, 0, lane, 0, numCars);
+        if (speed != null) System.arraycopy(this.speed, 0, speed, 0, numCars);
+    }
+
+    private void decodeKeyFrame() {
+        for (int c = 0; c < numCars; c++) {
+            position[c] = TrajectoryRecorder.getVarint(map);
+            int b = map.get();
+            speed[c] = (b & 0x0f) - 1;
+            lane[c] = (b & TrajectoryRecorder.LANE_BIT) != 0 ? RoadNS.LEFT_LANE : RoadNS.RIGHT_LANE;
+        }
+    }
+
+    private void decodeFrame() {
+        for (int c = 0; c < numCars; c++) {
+            int b = map.get();
+            int v = (b & 0x0f) - 1;
+            int p = position[c];
+            if ((b & TrajectoryRecorder.MOVED_BIT) != 0) p += (int) ColumnarResultSink.unzigzag(TrajectoryRecorder.getVarint(map) & 0xffffffffL);
+            else {
+                p += v;
+                if (p >= roadSize) p -= roadSize;
+            }
+            position[c] = p;
+            speed[c] = v;
+            if ((b & TrajectoryRecorder.LANE_BIT) != 0) lane[c] = 3 - lane[c];
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        map = null;
+        file.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: TrajectoryReader file.nst [first step] [last step]");
+            System.exit(2);
+        }
+        try (TrajectoryReader reader = new TrajectoryReader(new File(args[0]))) {
+            long first = args.length > 1 ? Long.parseLong(args[1]) : 0;
+            long last = args.length > 2 ? Long.parseLong(args[2]) : reader.getNumFrames() - 1;
+            int[] position = new int[reader.getNumCars()], lane = new int[reader.getNumCars()], speed = new int[reader.getNumCars()];
+            char[] right = new char[reader.getRoadSize()], left = new char[reader.getRoadSize()];
+            for (long t = first; t <= last; t++) {
+                reader.read(t, position, lane, speed);
+                Arrays.fill(right, '_');
+                Arrays.fill(left, '_');
+                for (int c = 0; c < position.length; c++) {
+                    (lane[c] == RoadNS.LEFT_LANE ? left : right)[position[c]] = RoadNS.toSymbol(speed[c]);
+                }
+                System.out.println("|" + new String(left) + "|\n|" + new String(right) + "|\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package nsSimulation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/*==============================================================================
+Records the space-time data of a run (position, lane and speed of every car
+after every step) into a file, see AnimatedSimulation.setRecorder() and
+TrajectoryReader.
+
+The file is written through a memory mapping which is extended in chunks.
+Frame t is the state after t steps (frame 0 is the initial state). Every
+KEY_FRAME_INTERVAL-th frame is a key frame with the full state, the frames
+in between only hold the changes since the previous frame, one byte per car
+in the order of the cars:
+    bits 0-3    speed + 1 (the broken car can start at -1)
+    bit 4       key frame: the car is in the left lane
+                other frames: the car changed lane
+    bit 5       (other frames only) the car did not move by its speed: the
+                zigzag varint of its position delta follows
+In a key frame the byte follows the varint position of the car. Since a car
+moves by its speed, the position deltas are almost never written.
+When the recorder is closed, the offsets of the key frames are appended as
+an index, so that a reader decodes at most one key frame and
+KEY_FRAME_INTERVAL-1 other frames to get the state of any step.
+
+Layout:
+    int MAGIC, int VERSION, int numCars, int roadSize, int KEY_FRAME_INTERVAL,
+    int 0, long numFrames, long offset of the index (both written on close)
+    frames
+    long offset of every key frame
+==============================================================================*/
+
+public class TrajectoryRecorder implements Closeable {
+
+    public static final int MAGIC = 0x4e535452;             // "NSTR"
+    public static final int VERSION = 1;
+    public static final int KEY_FRAME_INTERVAL = 64;
+    static final int HEADER_SIZE = 40;
+    static final int MAX_SPEED = 14;                        // speed + 1 fits in 4 bits
+
+    static final int LANE_BIT = 0x10;
+    static final int MOVED_BIT = 0x20;
+
+    private static final int CHUNK_SIZE = 16 << 20;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int numCars;
+    private final int roadSize;
+    private final int maxFrameSize;
+
+    private MappedByteBuffer map;
+    private long mapStart;                      // offset of the mapping in the file
+
+    private final int[] position;               // of the previous frame
+    private final int[] lane;
+    private long numFrames = 0;
+    private long[] keyFrames = new long[64];
+
+    /**
+     * @param file The file to write (replaced if it exists).
+     * @param config The configuration of the run which is recorded, its
+     * cars must not reach a speed above MAX_SPEED (see
+     * VehicleClasses.getMaxReachableSpeed()).
+     */
+    public TrajectoryRecorder(File file, SimulationConfig config) throws IOException {
+        if (config.vehicleClasses.getMaxReachableSpeed() > MAX_SPEED)
+            throw new IllegalArgumentException("Speeds above " + MAX_SPEED + " cannot be recorded");
+        numCars = config.getNumCars();
+        roadSize = config.roadSize;
+        maxFrameSize = 6 * numCars;             // a varint of an int takes at most 5 bytes
+        position = new int[numCars];
+        lane = new int[numCars];
+
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        channel = this.file.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(numCars).putInt(roadSize).putInt(KEY_FRAME_INTERVAL).putInt(0)
+              .putLong(0).putLong(0).flip();
+        channel.write(header, 0);
+        map(HEADER_SIZE);
+    }
+
+    private void map(long start) throws IOException {
+        mapStart = start;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.max(CHUNK_SIZE, maxFrameSize));
+    }
+
+    /**
+     * Records the current state of the road as the next frame. Called with
+     * the initial state and after every step.
+     * @param road The road of the run.
+     */
+    public void record(RoadView road) throws IOException {
+        if (map.remaining() < maxFrameSize) map(mapStart + map.position());
+
+        if (numFrames % KEY_FRAME_INTERVAL == 0) {
+            int k = (int) (numFrames / KEY_FRAME_INTERVAL);
+            if (k == keyFrames.length) keyFrames = Arrays.copyOf(keyFrames, 2 * k);
+            keyFrames[k] = mapStart + map.position();
+
+            for (int c = 0; c < numCars; c++) {
+                int p = road.getCarPosition(c), l = road.getCarLane(c);
+                putVarint(map, p);
+                map.put((byte) ((road.getCarSpeed(c) + 1) | (l == RoadNS.LEFT_LANE ? LANE_BIT : 0)));
+                position[c] = p;
+                lane[c] = l;
+            }
+        } else {
+            for (int c = 0; c < numCars; c++) {
+                int p = road.getCarPosition(c), l = road.getCarLane(c), v = road.getCarSpeed(c);
+                int delta = p - position[c];
+                if (delta < 0) delta += roadSize;
+                int b = (v + 1) | (l != lane[c] ? LANE_BIT : 0);
+                if (delta != v) {
+                    map.put((byte) (b | MOVED_BIT));
+                    putVarint(map, (int) ColumnarResultSink.zigzag(p - position[c]));
+                } else map.put((byte) b);
+                position[c] = p;
+                lane[c] = l;
+            }
+        }
+        numFrames++;
+    }
+
+    public long getNumFrames() {
+        return numFrames;
+    }
+
+    /*
+     * Writes the index and the header, and cuts the file after the index.
+     */
+    @Override
+    public void close() throws IOException {
+        if (map == null) return;
+        long indexOffset = mapStart + map.position();
+        map.force();
+        map = null;
+
+        int numKeyFrames = (int) ((numFrames + KEY_FRAME_INTERVAL - 1) / KEY_FRAME_INTERVAL);
+        ByteBuffer index = ByteBuffer.allocate(8 * numKeyFrames);
+        for (int k = 0; k < numKeyFrames; k++) index.putLong(keyFrames[k]);
+        index.flip();
+        long pos = indexOffset;
+        while (index.hasRemaining()) pos += channel.write(index, pos);
+
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putLong(numFrames).putLong(indexOffset).flip();
+        channel.write(header, 24);
+        try {
+            channel.truncate(pos);
+        } catch (IOException e) {
+            // some platforms do not cut a file which is still mapped; the rest is not read
+        }
+        channel.force(true);
+        file.close();
+    }
+
+    static void putVarint(ByteBuffer b, int v) {
+        while ((v & ~0x7f) != 0) {
+            b.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        b.put((byte) v);
+    }
+
+    static int getVarint(ByteBuffer b) {
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int x = b.get();
+            v |= (x & 0x7f) << shift;
+            if (x >= 0) return v;
+        }
+    }
+}
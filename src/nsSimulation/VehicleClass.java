@@ -0,0 +1,184 @@
+package nsSimulation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*==============================================================================
+An additional class of vehicle (a truck, a bus, ...), described only by its
+parameters, see VehicleClasses and SimulationConfig.Builder.vehicleClass().
+
+The cars of a class take the place of a share of the slow or of the fast
+cars of the road: the road is generated as before, and every car of the
+replaced type which is due for the class (spread evenly over the cars, not
+at random) gets the parameters of the class instead. Its cars are counted
+with the replaced type in the results (num_slow_cars, total_slow_cars_distance
+...). Instances are created with a Builder, the defaults are those of a slow
+car of the NS model used in the paper.
+==============================================================================*/
+
+public final class VehicleClass {
+
+    public final String name;
+    public final int replaces;                      // RoadNS.TYPE_CAR_SLOW or RoadNS.TYPE_CAR_FAST
+    public final double share;                      // of the replaced cars, 0 .. 1
+
+    public final int maxSpeed;
+    public final int acceleration;
+    public final double dawdleProbability;
+    public final double breakdownProbability;       // 0: never breaks down
+    public final double repairProbability;          // of a broken down car, per step
+    public final int slack;
+    public final int lookAhead;
+    public final int color;                         // RGB, the green component varies per car
+
+    private VehicleClass(Builder b) {
+        this.name = b.name;
+        this.replaces = b.replaces;
+        this.share = b.share;
+        this.maxSpeed = b.maxSpeed;
+        this.acceleration = b.acceleration;
+        this.dawdleProbability = b.dawdleProbability;
+        this.breakdownProbability = b.breakdownProbability;
+        this.repairProbability = b.repairProbability;
+        this.slack = b.slack;
+        this.lookAhead = b.lookAhead;
+        this.color = b.color;
+    }
+
+    /**
+     * The parameters as text, in a fixed order, see SimulationConfig.canonicalForm().
+     * @return name=value pairs separated by ','
+     */
+    public String canonicalForm() {
+        return "name=" + name + ",replaces=" + replaces + ",share=" + share + ",maxSpeed=" + maxSpeed
+                + ",acceleration=" + acceleration + ",dawdleProbability=" + dawdleProbability
+                + ",breakdownProbability=" + breakdownProbability + ",repairProbability=" + repairProbability
+                + ",slack=" + slack + ",lookAhead=" + lookAhead + ",color=" + Integer.toHexString(color);
+    }
+
+    /*
+     * See SimulationConfig.writeTo().
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        out.writeInt(replaces);
+        out.writeDouble(share);
+        out.writeInt(maxSpeed);
+        out.writeInt(acceleration);
+        out.writeDouble(dawdleProbability);
+        out.writeDouble(breakdownProbability);
+        out.writeDouble(repairProbability);
+        out.writeInt(slack);
+        out.writeInt(lookAhead);
+        out.writeInt(color);
+    }
+
+    static VehicleClass readFrom(DataInput in) throws IOException {
+        Builder b = new Builder(in.readUTF());
+        b.replaces(in.readInt(), in.readDouble())
+         .maxSpeed(in.readInt())
+         .acceleration(in.readInt())
+         .dawdleProbability(in.readDouble())
+         .breakdownProbability(in.readDouble())
+         .repairProbability(in.readDouble())
+         .slack(in.readInt())
+         .lookAhead(in.readInt())
+         .color(in.readInt());
+        try {
+            return b.build();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad vehicle class: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + share + " of the " + (replaces == RoadNS.TYPE_CAR_FAST ? "fast" : "slow") + " cars, max speed " + maxSpeed + ")";
+    }
+
+    /*==========================================================================
+    Builder
+    ==========================================================================*/
+    public static final class Builder {
+
+        private final String name;
+        private int replaces = RoadNS.TYPE_CAR_SLOW;
+        private double share = 0;
+        private int maxSpeed = 3;
+        private int acceleration = 1;
+        private double dawdleProbability = .25;
+        private double breakdownProbability = 0;
+        private double repairProbability = 0;
+        private int slack = 3;
+        private int lookAhead = 7;
+        private int color = 0x800080;
+
+        public Builder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param replaces RoadNS.TYPE_CAR_SLOW or RoadNS.TYPE_CAR_FAST
+         * @param share The fraction of these cars which belong to this class.
+         */
+        public Builder replaces(int replaces, double share) {
+            this.replaces = replaces;
+            this.share = share;
+            return this;
+        }
+
+        public Builder maxSpeed(int maxSpeed) {
+            this.maxSpeed = maxSpeed;
+            return this;
+        }
+
+        public Builder acceleration(int acceleration) {
+            this.acceleration = acceleration;
+            return this;
+        }
+
+        public Builder dawdleProbability(double dawdleProbability) {
+            this.dawdleProbability = dawdleProbability;
+            return this;
+        }
+
+        public Builder breakdownProbability(double breakdownProbability) {
+            this.breakdownProbability = breakdownProbability;
+            return this;
+        }
+
+        public Builder repairProbability(double repairProbability) {
+            this.repairProbability = repairProbability;
+            return this;
+        }
+
+        public Builder slack(int slack) {
+            this.slack = slack;
+            return this;
+        }
+
+        public Builder lookAhead(int lookAhead) {
+            this.lookAhead = lookAhead;
+            return this;
+        }
+
+        /**
+         * @param color RGB, the green component is replaced by a random shade per car.
+         */
+        public Builder color(int color) {
+            this.color = color & 0xff00ff;
+            return this;
+        }
+
+        public VehicleClass build() {
+            if (replaces != RoadNS.TYPE_CAR_SLOW && replaces != RoadNS.TYPE_CAR_FAST)
+                throw new IllegalArgumentException("A vehicle class replaces slow or fast cars: " + replaces);
+            if (!(share >= 0 && share <= 1))
+                throw new IllegalArgumentException("share must be in [0, 1]: " + share);
+            if (maxSpeed < 0 || acceleration < 0)
+                throw new IllegalArgumentException("maxSpeed and acceleration must not be negative");
+            return new VehicleClass(this);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package nsSimulation;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/*==============================================================================
+The classes of vehicle of a run as a table: one row of primitive parameters
+per class, indexed by the type id of the car (a byte, see Fleet.type and
+CarNS.getTypeId()). The engines look up the parameters of a car in the row
+of its type instead of asking the car, so the update loop is the same code
+for every class.
+
+The first rows are the cars of the NS model, with the parameters of the
+configuration:
+    RoadNS.TYPE_CAR_SLOW, RoadNS.TYPE_CAR_FAST, RoadNS.TYPE_CAR_BROKEN
+followed by the additional classes of the configuration (FIRST_ADDITIONAL
+on), see VehicleClass. A class breaks down if it is the broken car or if its
+breakdown probability is not 0; a broken down car decelerates by 1 until it
+stops and does not change lane until it is repaired.
+The table is created with the configuration and never changed.
+==============================================================================*/
+
+public final class VehicleClasses {
+
+    public static final int FIRST_ADDITIONAL = RoadNS.TYPE_CAR_BROKEN + 1;
+    public static final int MAX_CLASSES = Byte.MAX_VALUE + 1;
+
+    private final int size;
+
+    // [type], read only
+    public final int[] maxSpeed;
+    public final int[] acceleration;
+    public final double[] dawdleProbability;
+    public final boolean[] breaksDown;
+    public final double[] breakdownProbability;
+    public final double[] repairProbability;
+    public final int[] slack;
+    public final int[] lookAhead;
+
+    private final String[] name;
+    private final int[] color;                  // RGB
+    private final boolean[] shaded;             // the green component is random per car
+    private final int[] group;                  // the type the class is counted with in the results, 0: none
+    private final double[] share;               // of the cars of its group (additional classes only)
+    private final double[] replacedShare;       // [RoadNS.TYPE_CAR_SLOW or _FAST] sum of the shares of the group
+
+    VehicleClasses(SimulationConfig config, List<VehicleClass> additional) {
+        size = FIRST_ADDITIONAL + additional.size();
+        if (size > MAX_CLASSES) throw new IllegalArgumentException("Too many vehicle classes: " + additional.size());
+
+        maxSpeed = new int[size];
+        acceleration = new int[size];
+        dawdleProbability = new double[size];
+        breaksDown = new boolean[size];
+        breakdownProbability = new double[size];
+        repairProbability = new double[size];
+        slack = new int[size];
+        lookAhead = new int[size];
+        name = new String[size];
+        color = new int[size];
+        shaded = new boolean[size];
+        group = new int[size];
+        share = new double[size];
+        replacedShare = new double[RoadNS.TYPE_CAR_FAST + 1];
+
+        setModelRow(config, RoadNS.TYPE_CAR_SLOW, "slow", config.maxSpeedSlowCar, 0x0000ff);
+        setModelRow(config, RoadNS.TYPE_CAR_FAST, "fast", config.maxSpeedFastCar, 0xff0000);
+        setModelRow(config, RoadNS.TYPE_CAR_BROKEN, "broken", config.maxSpeedSlowCar, 0x00ff00);
+        shaded[RoadNS.TYPE_CAR_BROKEN] = false;
+        group[RoadNS.TYPE_CAR_BROKEN] = 0;                  // counted with no type, as it always was
+        breaksDown[RoadNS.TYPE_CAR_BROKEN] = true;
+        breakdownProbability[RoadNS.TYPE_CAR_BROKEN] = config.breakingDownProbability;
+        repairProbability[RoadNS.TYPE_CAR_BROKEN] = config.gettingRepairedProbability;
+
+        for (int t = FIRST_ADDITIONAL; t < size; t++) {
+            VehicleClass v = additional.get(t - FIRST_ADDITIONAL);
+            maxSpeed[t] = v.maxSpeed;
+            acceleration[t] = v.acceleration;
+            dawdleProbability[t] = v.dawdleProbability;
+            breaksDown[t] = v.breakdownProbability > 0;
+            breakdownProbability[t] = v.breakdownProbability;
+            repairProbability[t] = v.repairProbability;
+            slack[t] = v.slack;
+            lookAhead[t] = v.lookAhead;
+            name[t] = v.name;
+            color[t] = v.color;
+            shaded[t] = true;
+            group[t] = v.replaces;
+            share[t] = v.share;
+            replacedShare[v.replaces] += v.share;
+        }
+    }
+
+    private void setModelRow(SimulationConfig config, int t, String name, int maxSpeed, int color) {
+        this.maxSpeed[t] = maxSpeed;
+        acceleration[t] = config.maxAcceleration;
+        dawdleProbability[t] = config.probabilityFluctuation;
+        slack[t] = config.slack;
+        lookAhead[t] = config.distanceToLookAhead;
+        this.name[t] = name;
+        this.color[t] = color;
+        shaded[t] = true;
+        group[t] = t;
+    }
+
+    /*
+     * @return The number of type ids (the ids are 1 .. size()-1).
+     */
+    public int size() {
+        return size;
+    }
+
+    public String getName(int type) {
+        return name[type];
+    }
+
+    /*
+     * @return RoadNS.TYPE_CAR_SLOW or RoadNS.TYPE_CAR_FAST, the type the cars of
+     * the class are counted with in the results, 0 for the broken car.
+     */
+    public int getGroup(int type) {
+        return group[type];
+    }
+
+    /*
+     * @return The colour of the class (RGB), with a green component of 0 if it is shaded per car.
+     */
+    public int getColor(int type) {
+        return color[type];
+    }
+
+    public boolean isShaded(int type) {
+        return shaded[type];
+    }
+
+    /*
+     * @return The highest max speed of all classes.
+     */
+    public int getMaxSpeed() {
+        int max = 0;
+        for (int t = 1; t < size; t++) max = Math.max(max, maxSpeed[t]);
+        return max;
+    }
+
+    /*
+     * @return The highest speed a car of any class can reach. A car below
+     * its max speed accelerates by the acceleration of its class, so it can
+     * overshoot the max speed by up to acceleration - 1.
+     */
+    public int getMaxReachableSpeed() {
+        int max = 0;
+        for (int t = 1; t < size; t++) max = Math.max(max, maxSpeed[t] + Math.max(0, acceleration[t] - 1));
+        return max;
+    }
+
+    /*
+     * @return The longest look ahead of all classes.
+     */
+    public int getMaxLookAhead() {
+        int max = 0;
+        for (int t = 1; t < size; t++) max = Math.max(max, lookAhead[t]);
+        return max;
+    }
+
+    /*
+     * The colour of a new car, drawn before its speed (so that the seed of
+     * a run places the same cars as before the classes were a table).
+     */
+    int initialColor(int type, SplittableRandom r) {
+        return shaded[type] ? color[type] | r.nextInt(130) << 8 : color[type];
+    }
+
+    /*
+     * The speed of a new car, from 0 to [maxSpeed-1, maxSpeed] (limited by
+     * the density of the road). The broken car is not limited to 0, it can
+     * start at -1.
+     */
+    int initialSpeed(int type, int limitSpeed, SplittableRandom r) {
+        int speed = Math.min(maxSpeed[type], limitSpeed) - r.nextInt(2);
+        return type == RoadNS.TYPE_CAR_BROKEN ? speed : Math.max(speed, 0);
+    }
+
+    /*==========================================================================
+    Assigns the additional classes to the cars while a road is generated:
+    after n cars of a type, floor(n * sum of the shares) of them belong to
+    the additional classes which replace it, each class getting the car when
+    it is furthest behind its share. No random numbers are drawn, so the
+    placement of the cars does not change.
+    ==========================================================================*/
+    final class Placement {
+
+        private final int[] generated = new int[RoadNS.TYPE_CAR_FAST + 1];
+        private final int[] replaced = new int[RoadNS.TYPE_CAR_FAST + 1];
+        private final int[] placed = new int[size];
+
+        /**
+         * @param type RoadNS.TYPE_CAR_SLOW or RoadNS.TYPE_CAR_FAST, the type chosen for the next car.
+         * @return The class of the car: type or an additional class replacing it.
+         */
+        int next(int type) {
+            double total = replacedShare[type];
+            int n = generated[type]++;
+            if (total == 0 || Math.floor((n + 1) * total) == Math.floor(n * total)) return type;
+
+            int m = replaced[type]++;
+            int best = type;
+            double bestDeficit = 0;
+            for (int t = FIRST_ADDITIONAL; t < size; t++) {
+                if (group[t] != type) continue;
+                double deficit = share[t] / total * (m + 1) - placed[t];
+                if (deficit > bestDeficit) {
+                    best = t;
+                    bestDeficit = deficit;
+                }
+            }
+            if (best != type) placed[best]++;
+            return best;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package nsSimulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+/*==============================================================================
+A file of ColumnarResultSink reads back through ColumnarResultReader with
+every column of every row unchanged, filtered like the rows themselves, and
+exported as the CSV of CsvResultSink.
+==============================================================================*/
+
+public class ColumnarResultsTest {
+
+    private static final double[] DENSITIES = {0.05, 0.1, 0.15, 0.3, 0.4};
+    private static final double[] DOUBLES = {0, -0.0, 0.25, 1, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE};
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (int numRows : new int[] {0, 1, 99, 100, 101, 1050}) {
+            List<RunResult> rows = randomRows(new SplittableRandom(numRows), numRows);
+            File file = write(rows, 100);
+            try (ColumnarResultReader reader = new ColumnarResultReader(file)) {
+                assertRows(rows, reader.readAll());
+                assertEquals((numRows + 99) / 100, reader.getNumBlocks());
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testFilters() throws IOException {
+        List<RunResult> rows = randomRows(new SplittableRandom(3), 2000);
+        File file = write(rows, 64);
+        try (ColumnarResultReader reader = new ColumnarResultReader(file)) {
+            List<RunResult> expected = new ArrayList<>();
+            for (RunResult r : rows) {
+                if (r.density >= 0.1 && r.density <= 0.15 && r.maxSpeedFast == 8) expected.add(r);
+            }
+            assertRows(expected, reader.readAll(ColumnarResultReader.Range.parse("density=0.1:0.15"),
+                    ColumnarResultReader.Range.parse("max_speed_fast=8")));
+
+            // the rows are written by density, so whole blocks are skipped
+            expected.clear();
+            for (RunResult r : rows) {
+                if (r.density == 0.4) expected.add(r);
+            }
+            assertRows(expected, reader.readAll(ColumnarResultReader.Range.parse("density=0.4")));
+            assertTrue(reader.getNumBlocksDecoded() < reader.getNumBlocks());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCsvExport() throws IOException {
+        List<RunResult> rows = randomRows(new SplittableRandom(4), 500);
+        File file = write(rows, 128);
+        try (ColumnarResultReader reader = new ColumnarResultReader(file)) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (CsvResultSink csv = new CsvResultSink(expected)) {
+                for (RunResult r : rows) csv.accept(r);
+            }
+            ByteArrayOutputStream exported = new ByteArrayOutputStream();
+            reader.exportCsv(exported);
+            assertEquals(expected.toString("UTF-8"), exported.toString("UTF-8"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /*
+     * Rows of a sweep by density with random values in all other columns.
+     */
+    private static List<RunResult> randomRows(SplittableRandom random, int numRows) {
+        List<RunResult> rows = new ArrayList<>();
+        for (int i = 0; i < numRows; i++) {
+            RunResult r = new RunResult();
+            for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+                ResultColumns.set(r, c, randomValue(random, c));
+            }
+            r.density = DENSITIES[(int) ((long) i * DENSITIES.length / numRows)];
+            r.maxSpeedFast = random.nextInt(12);
+            rows.add(r);
+        }
+        return rows;
+    }
+
+    private static long randomValue(SplittableRandom random, int column) {
+        switch (ResultColumns.getType(column)) {
+            case ResultColumns.BOOLEAN:
+                return random.nextInt(2);
+            case ResultColumns.LONG:
+                return random.nextLong();
+            case ResultColumns.DOUBLE:
+                return Double.doubleToLongBits(random.nextBoolean() ? DOUBLES[random.nextInt(DOUBLES.length)] : random.nextDouble());
+            default:
+                return random.nextBoolean() ? random.nextInt() : random.nextInt(-1, 1000);
+        }
+    }
+
+    private static File write(List<RunResult> rows, int blockSize) throws IOException {
+        File file = File.createTempFile("results", ".nsr");
+        try (ColumnarResultSink sink = new ColumnarResultSink(new FileOutputStream(file), blockSize)) {
+            for (RunResult r : rows) sink.accept(r);
+        }
+        return file;
+    }
+
+    private static void assertRows(List<RunResult> expected, List<RunResult> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+                assertEquals("row " + i + ", " + ResultColumns.getName(c),
+                        ResultColumns.get(expected.get(i), c), ResultColumns.get(actual.get(i), c));
+            }
+        }
+    }
+}
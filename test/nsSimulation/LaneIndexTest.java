@@ -0,0 +1,128 @@
+package nsSimulation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+/*==============================================================================
+The lane indices (SimulationConfig.laneIndex) are interchangeable: every
+index finds the same neighbours as a cell by cell scan, and a run gives the
+same row with every index and with both sequential engines.
+==============================================================================*/
+
+public class LaneIndexTest {
+
+    private static final int[] ROAD_SIZES = {1, 2, 63, 64, 65, 130, 1000};
+    private static final double[] DENSITIES = {0, 0.01, 0.1, 0.5, 1};
+
+    @Test
+    public void testLookupsMatchScan() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int roadSize : ROAD_SIZES) {
+            for (double density : DENSITIES) {
+                int[] lane = randomLane(random, roadSize, density);
+                for (LaneIndex index : indices(roadSize)) {
+                    index.update(lane);
+                    assertLookups(index, lane);
+                }
+            }
+        }
+    }
+
+    /*
+     * The next lane reported by clearNext/setNext during a step, as the engines do.
+     */
+    @Test
+    public void testIncrementalUpdateMatchesScan() {
+        SplittableRandom random = new SplittableRandom(2);
+        for (int roadSize : ROAD_SIZES) {
+            for (LaneIndex index : indices(roadSize)) {
+                int[] lane = randomLane(random, roadSize, 0.2);
+                index.update(lane);
+                for (int step = 0; step < 20; step++) {
+                    int[] next = randomLane(random, roadSize, random.nextDouble());
+                    index.clearNext();
+                    for (int i = roadSize - 1; i >= 0; i--) {
+                        if (next[i] != -1) index.setNext(i);
+                    }
+                    index.nextState(next);
+                    assertLookups(index, next);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRunsAgreeOnAllIndicesAndEngines() throws Exception {
+        for (double density : new double[] {0.05, 0.15, 0.4}) {
+            for (boolean brokenCar : new boolean[] {true, false}) {
+                String expected = null;
+                for (int engine : new int[] {SimulationConfig.ENGINE_OBJECTS, SimulationConfig.ENGINE_ARRAYS}) {
+                    for (int laneIndex = SimulationConfig.LANE_INDEX_SCAN; laneIndex <= SimulationConfig.LANE_INDEX_BITBOARD; laneIndex++) {
+                        AnimatedSimulation simulation = new AnimatedSimulation();
+                        simulation.initialiseSimulation(config(density, brokenCar, engine, laneIndex));
+                        String row = simulation.runSimulation(0).toString();
+                        if (expected == null) expected = row;
+                        assertEquals("engine " + engine + ", lane index " + laneIndex + ", density " + density, expected, row);
+                    }
+                }
+            }
+        }
+    }
+
+    private static LaneIndex[] indices(int roadSize) {
+        return new LaneIndex[] {new SparseLaneIndex(roadSize), new BitboardLaneIndex(roadSize), new ScanLaneIndex()};
+    }
+
+    private static int[] randomLane(SplittableRandom random, int roadSize, double density) {
+        int[] lane = new int[roadSize];
+        Arrays.fill(lane, -1);
+        for (int i = 0; i < roadSize; i++) {
+            if (random.nextDouble() < density) lane[i] = random.nextInt(6);
+        }
+        return lane;
+    }
+
+    private static void assertLookups(LaneIndex index, int[] lane) {
+        int roadSize = lane.length;
+        for (int position = -1; position < roadSize; position++) {
+            assertEquals(index.getClass().getSimpleName() + " front(" + position + ") of " + roadSize,
+                    scan(lane, position, 1), index.front(position));
+        }
+        for (int position = 0; position <= roadSize; position++) {
+            assertEquals(index.getClass().getSimpleName() + " behind(" + position + ") of " + roadSize,
+                    scan(lane, position, -1), index.behind(position));
+        }
+    }
+
+    /*
+     * The first car from position in the direction (1 front, -1 behind), position itself last.
+     */
+    private static int scan(int[] lane, int position, int direction) {
+        for (int k = 1; k <= lane.length; k++) {
+            int i = Math.floorMod(position + direction * k, lane.length);
+            if (lane[i] != -1) return i;
+        }
+        return -1;
+    }
+
+    private static SimulationConfig config(double density, boolean brokenCar, int engine, int laneIndex) {
+        int roadSize = 500;
+        int totalCars = (int) (roadSize * density);
+        int numFastCars = totalCars / 2;
+        return new SimulationConfig.Builder()
+                .engine(engine)
+                .laneIndex(laneIndex)
+                .seed(7)
+                .roadSize(roadSize)
+                .numberOfIterations(500)
+                .density(density)
+                .fastCarRatio(0.5)
+                .numFastCars(numFastCars)
+                .numSlowCars(totalCars - numFastCars + (brokenCar ? 1 : 0))
+                .hasBrokenCar(brokenCar)
+                .build();
+    }
+}
@@ -0,0 +1,170 @@
+package nsSimulation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/*==============================================================================
+The loop detectors count what a brute force count over the car positions
+counts: a car crosses a detector when the detector is within the cells it
+moved in the step (the cell it left not included), and a detector is
+occupied when a car stands on it after the step. All engines count the same,
+and the detectors do not change the run.
+==============================================================================*/
+
+public class LoopDetectorsTest {
+
+    private static final int ROAD_SIZE = 1000;
+    private static final int INTERVAL = 70;
+    private static final int STEPS = 1000;          // not a multiple of INTERVAL: the last interval is partial
+
+    // {lane, position}: both lanes, the ends of the road and a shared cell
+    private static final int[][] DETECTORS = {{1, 0}, {2, 0}, {1, 17}, {2, 500}, {1, 999}, {2, 998}, {1, 250}};
+
+    private static final double[] DENSITIES = {0.05, 0.2, 0.4};
+
+    @Test
+    public void testCountsMatchBruteForce() {
+        for (double density : DENSITIES) {
+            for (boolean brokenCar : new boolean[] {true, false}) {
+                for (int engine : new int[] {SimulationConfig.ENGINE_OBJECTS, SimulationConfig.ENGINE_ARRAYS, SimulationConfig.ENGINE_PARALLEL}) {
+                    assertCounts(config(density, brokenCar, engine, false), "engine " + engine + ", density " + density);
+                }
+                assertCounts(config(density, brokenCar, SimulationConfig.ENGINE_ARRAYS, true), "speed kernel, density " + density);
+            }
+        }
+    }
+
+    @Test
+    public void testEnginesAgree() throws IOException {
+        for (double density : DENSITIES) {
+            for (boolean brokenCar : new boolean[] {true, false}) {
+                Road[] roads = {
+                    Road.create(config(density, brokenCar, SimulationConfig.ENGINE_OBJECTS, false)),
+                    Road.create(config(density, brokenCar, SimulationConfig.ENGINE_ARRAYS, false)),
+                    Road.create(config(density, brokenCar, SimulationConfig.ENGINE_ARRAYS, true)),
+                };
+                EnsembleRoadNS ensemble = new EnsembleRoadNS(config(density, brokenCar, SimulationConfig.ENGINE_ARRAYS, false), new long[] {3, 7, 9});
+                for (int step = 0; step < 2*STEPS; step++) {
+                    if (step == STEPS/2) {
+                        for (Road road : roads) road.clearStatistics();
+                        ensemble.getReplica(1).clearStatistics();
+                    }
+                    for (Road road : roads) road.nextState();
+                    ensemble.nextState();
+                }
+                String expected = csv(roads[0].getDetectors());
+                for (int k = 1; k < roads.length; k++) {
+                    assertEquals("road " + k + ", density " + density, expected, csv(roads[k].getDetectors()));
+                }
+                assertEquals("ensemble, density " + density, expected, csv(ensemble.getReplica(1).getDetectors()));
+            }
+        }
+    }
+
+    @Test
+    public void testDetectorsDoNotChangeTheRun() throws Exception {
+        for (double density : DENSITIES) {
+            SimulationConfig config = config(density, true, SimulationConfig.ENGINE_OBJECTS, false);
+            assertEquals("density " + density, run(config), run(config.toBuilder().clearDetectors().build()));
+        }
+    }
+
+    /*
+     * Runs the road STEPS steps and compares its detectors with a count of
+     * the moves of its cars.
+     */
+    private static void assertCounts(SimulationConfig config, String message) {
+        Road road = Road.create(config);
+        int numCars = road.getNumCars();
+        int numTypes = config.vehicleClasses.size();
+
+        // [interval][detector][crossings, sum of speeds, occupied steps, crossings of type 0, 1, ...]
+        List<long[][]> expected = new ArrayList<>();
+        long[][] current = new long[DETECTORS.length][3 + numTypes];
+        int[] oldPosition = new int[numCars];
+        for (int step = 0; step < STEPS; step++) {
+            for (int car = 0; car < numCars; car++) {
+                oldPosition[car] = road.getCarPosition(car);
+            }
+            road.nextState();
+
+            boolean[] occupied = new boolean[DETECTORS.length];
+            for (int car = 0; car < numCars; car++) {
+                int lane = road.getCarLane(car), position = road.getCarPosition(car), speed = road.getCarSpeed(car);
+                for (int d = 0; d < DETECTORS.length; d++) {
+                    if (DETECTORS[d][0] != lane) continue;
+                    int offset = Math.floorMod(DETECTORS[d][1] - oldPosition[car], ROAD_SIZE);
+                    if (offset >= 1 && offset <= speed) {
+                        current[d][0]++;
+                        current[d][1] += speed;
+                        current[d][3 + road.getCarType(car)]++;
+                    }
+                    if (position == DETECTORS[d][1]) occupied[d] = true;
+                }
+            }
+            for (int d = 0; d < DETECTORS.length; d++) {
+                if (occupied[d]) current[d][2]++;
+            }
+            if ((step + 1) % INTERVAL == 0) {
+                expected.add(current);
+                current = new long[DETECTORS.length][3 + numTypes];
+            }
+        }
+        expected.add(current);
+
+        LoopDetectors detectors = road.getDetectors();
+        assertEquals(message + ", intervals", expected.size(), detectors.getNumIntervals());
+        for (int i = 0; i < expected.size(); i++) {
+            for (int d = 0; d < DETECTORS.length; d++) {
+                long[] count = expected.get(i)[d];
+                String at = message + ", interval " + i + ", detector " + d;
+                assertEquals(at, count[0], detectors.getCount(i, d));
+                assertEquals(at, (double) count[2] / detectors.getSteps(i), detectors.getOccupancy(i, d), 1e-12);
+                if (count[0] > 0) assertEquals(at, (double) count[1] / count[0], detectors.getTimeMeanSpeed(i, d), 1e-12);
+                for (int type = 0; type < numTypes; type++) {
+                    assertEquals(at + ", type " + type, count[3 + type], detectors.getCount(i, d, type));
+                }
+            }
+        }
+    }
+
+    private static String csv(LoopDetectors detectors) throws IOException {
+        StringWriter out = new StringWriter();
+        detectors.writeCsv(out);
+        return out.toString();
+    }
+
+    private static String run(SimulationConfig config) throws Exception {
+        AnimatedSimulation simulation = new AnimatedSimulation();
+        simulation.initialiseSimulation(config);
+        return simulation.runSimulation(0).toString();
+    }
+
+    private static SimulationConfig config(double density, boolean brokenCar, int engine, boolean speedKernel) {
+        int totalCars = (int) (ROAD_SIZE * density);
+        int numFastCars = totalCars / 2;
+        SimulationConfig.Builder builder = new SimulationConfig.Builder()
+                .engine(engine)
+                .speedKernel(speedKernel)
+                .seed(7)
+                .roadSize(ROAD_SIZE)
+                .numberOfIterations(STEPS)
+                .density(density)
+                .fastCarRatio(0.5)
+                .numFastCars(numFastCars)
+                .numSlowCars(totalCars - numFastCars + (brokenCar ? 1 : 0))
+                .hasBrokenCar(brokenCar)
+                .breakingDownProbability(brokenCar ? 0.3 : 0)
+                .vehicleClass(new VehicleClass.Builder("truck").replaces(RoadNS.TYPE_CAR_SLOW, 0.3).maxSpeed(2).build())
+                .detectorInterval(INTERVAL);
+        for (int[] detector : DETECTORS) {
+            builder.detector(detector[0], detector[1]);
+        }
+        return builder.build();
+    }
+}
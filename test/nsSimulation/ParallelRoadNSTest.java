@@ -0,0 +1,97 @@
+package nsSimulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/*==============================================================================
+ParallelRoadNS gives the same road whatever its number of segments, and the
+same road every time it runs with the same seed. No two cars ever share a
+cell, also with accelerations which overshoot the max speed.
+==============================================================================*/
+
+public class ParallelRoadNSTest {
+
+    private static final int NUM_SEGMENTS = 4;
+    private static final int ROAD_SIZE = NUM_SEGMENTS * ParallelRoadNS.MIN_SEGMENT_LENGTH;
+    private static final int STEPS = 200;
+
+    @Test
+    public void testSegmentsDoNotChangeTheRoad() {
+        for (int acceleration = 1; acceleration <= 3; acceleration++) {
+            for (double density : new double[] {0.05, 0.3}) {
+                SimulationConfig config = config(density, acceleration);
+                ParallelRoadNS one = new ParallelRoadNS(config.toBuilder().numSegments(1).build());
+                ParallelRoadNS several = new ParallelRoadNS(config.toBuilder().numSegments(NUM_SEGMENTS).build());
+                ParallelRoadNS odd = new ParallelRoadNS(config.toBuilder().numSegments(3).build());
+                assertEquals(1, one.getNumSegments());
+                assertEquals(NUM_SEGMENTS, several.getNumSegments());
+                assertEquals(3, odd.getNumSegments());
+
+                String message = "acceleration " + acceleration + ", density " + density;
+                String expected = run(one);
+                assertEquals(message + ", " + NUM_SEGMENTS + " segments", expected, run(several));
+                assertEquals(message + ", 3 segments", expected, run(odd));
+            }
+        }
+    }
+
+    @Test
+    public void testRunsAreDeterministic() {
+        SimulationConfig config = config(0.15, 2).toBuilder().numSegments(NUM_SEGMENTS).build();
+        String expected = run(new ParallelRoadNS(config));
+        for (int k = 0; k < 2; k++) {
+            assertEquals("run " + k, expected, run(new ParallelRoadNS(config)));
+        }
+        assertTrue(!expected.equals(run(new ParallelRoadNS(config.toBuilder().seed(config.seed + 1).build()))));
+    }
+
+    /*
+     * Runs the road STEPS steps, checking that no cell holds two cars.
+     * @return The final state of every car and the statistics of the run.
+     */
+    private static String run(ParallelRoadNS road) {
+        int numCars = road.getNumCars();
+        int[] occupant = new int[2 * ROAD_SIZE];
+        for (int step = 1; step <= STEPS; step++) {
+            road.nextState();
+            for (int car = 0; car < numCars; car++) {
+                int cell = (road.getCarLane(car) - 1) * ROAD_SIZE + road.getCarPosition(car);
+                if (occupant[cell] == step) throw new AssertionError("two cars in cell " + cell + " after step " + step);
+                occupant[cell] = step;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int car = 0; car < numCars; car++) {
+            sb.append(road.getCarLane(car)).append(',').append(road.getCarPosition(car)).append(',').append(road.getCarSpeed(car))
+                    .append(',').append(road.getTraveledDistance(car)).append(',').append(road.getMaxReachedSpeed(car)).append(' ');
+        }
+        RoadStatistics statistics = road.getStatistics();
+        sb.append(road.getFlow(STEPS)).append(' ').append(road.getFlow2(STEPS)).append(' ').append(statistics.getSteps());
+        for (int type = 1; type <= VehicleClasses.FIRST_ADDITIONAL; type++) {         // the classes of the model and the truck
+            sb.append(' ').append(statistics.getDistance(type)).append('/').append(statistics.getLaneChanges(type));
+        }
+        return sb.toString();
+    }
+
+    private static SimulationConfig config(double density, int acceleration) {
+        int totalCars = (int) (ROAD_SIZE * density);
+        return new SimulationConfig.Builder()
+                .engine(SimulationConfig.ENGINE_PARALLEL)
+                .seed(9)
+                .roadSize(ROAD_SIZE)
+                .numberOfIterations(STEPS)
+                .density(density)
+                .fastCarRatio(0.5)
+                .numFastCars(totalCars / 2)
+                .numSlowCars(totalCars - totalCars / 2 + 1)
+                .hasBrokenCar(true)
+                .breakingDownProbability(0.3)
+                .maxSpeedFastCar(8)
+                .maxAcceleration(acceleration)
+                .vehicleClass(new VehicleClass.Builder("truck").replaces(RoadNS.TYPE_CAR_SLOW, 0.3).maxSpeed(2).build())
+                .build();
+    }
+}
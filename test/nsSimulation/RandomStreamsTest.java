@@ -0,0 +1,139 @@
+package nsSimulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/*==============================================================================
+A run is reproducible from its seed: the same seed gives the same row on
+every engine, and a row of a sweep is given again by its configuration and
+the seed recorded in the row, run on its own. The seed of a run only depends
+on the master seed, the cell and the repetition, not on the other cells.
+==============================================================================*/
+
+public class RandomStreamsTest {
+
+    private static final long MASTER_SEED = 11;
+    private static final int NUM_REPETITIONS = 3;
+
+    @Test
+    public void testSameSeedGivesSameRow() throws Exception {
+        for (int engine : new int[] {SimulationConfig.ENGINE_OBJECTS, SimulationConfig.ENGINE_ARRAYS, SimulationConfig.ENGINE_PARALLEL}) {
+            SimulationConfig config = config(0.15, true).toBuilder().engine(engine).seed(5).build();
+            String expected = run(config, 0);
+            assertEquals("engine " + engine, expected, run(config, 0));
+            assertNotEquals("engine " + engine, expected, run(config.toBuilder().seed(6).build(), 0));
+        }
+    }
+
+    @Test
+    public void testRunSeeds() {
+        long fingerprint = config(0.15, true).fingerprint();
+        assertEquals(RandomStreams.runSeed(MASTER_SEED, fingerprint, 1), RandomStreams.runSeed(MASTER_SEED, fingerprint, 1));
+        assertNotEquals(RandomStreams.runSeed(MASTER_SEED, fingerprint, 0), RandomStreams.runSeed(MASTER_SEED, fingerprint, 1));
+        assertNotEquals(RandomStreams.runSeed(MASTER_SEED, fingerprint, 0), RandomStreams.runSeed(MASTER_SEED + 1, fingerprint, 0));
+        assertNotEquals(RandomStreams.runSeed(MASTER_SEED, fingerprint, 0),
+                RandomStreams.runSeed(MASTER_SEED, config(0.3, true).fingerprint(), 0));
+    }
+
+    @Test
+    public void testRowRerunsFromItsSeed() throws Exception {
+        List<SimulationConfig> cells = cells();
+        List<RunResult> rows = sweep(cells);
+        assertEquals(cells.size() * NUM_REPETITIONS, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            RunResult row = rows.get(i);
+            SimulationConfig cell = cells.get(i / NUM_REPETITIONS);
+            assertEquals("row " + i, i % NUM_REPETITIONS, row.repetition);
+            assertEquals("row " + i, RandomStreams.runSeed(MASTER_SEED, cell.fingerprint(), row.repetition), row.seed);
+
+            AnimatedSimulation simulation = new AnimatedSimulation();
+            simulation.initialiseSimulation(cell.toBuilder().seed(row.seed).build());
+            RunResult rerun = simulation.runSimulation(row.repetition);
+            // the columns of the whole cell are set by the sweep
+            rerun.cellRepetitions = row.cellRepetitions;
+            rerun.cellPrecision = row.cellPrecision;
+            assertEquals("row " + i, row.toString(), rerun.toString());
+        }
+    }
+
+    @Test
+    public void testRowsDoNotDependOnTheOtherCells() throws Exception {
+        List<SimulationConfig> cells = cells();
+        List<String> expected = strings(sweep(cells));
+
+        List<SimulationConfig> reversed = new ArrayList<>(cells);
+        Collections.reverse(reversed);
+        List<String> rows = strings(sweep(reversed));
+        for (int c = 0; c < cells.size(); c++) {
+            int r = cells.size() - 1 - c;
+            assertEquals("cell " + c, expected.subList(c * NUM_REPETITIONS, (c + 1) * NUM_REPETITIONS),
+                    rows.subList(r * NUM_REPETITIONS, (r + 1) * NUM_REPETITIONS));
+            assertEquals("cell " + c + " alone", expected.subList(c * NUM_REPETITIONS, (c + 1) * NUM_REPETITIONS),
+                    strings(sweep(cells.subList(c, c + 1))));
+        }
+    }
+
+    private static List<RunResult> sweep(List<SimulationConfig> cells) throws Exception {
+        SweepExecutor executor = new SweepExecutor(1);
+        try {
+            Rows rows = new Rows();
+            executor.run(cells, NUM_REPETITIONS, MASTER_SEED, rows);
+            return rows.rows;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String run(SimulationConfig config, int repetition) throws Exception {
+        AnimatedSimulation simulation = new AnimatedSimulation();
+        simulation.initialiseSimulation(config);
+        return simulation.runSimulation(repetition).toString();
+    }
+
+    private static List<String> strings(List<RunResult> rows) {
+        List<String> strings = new ArrayList<>();
+        for (RunResult row : rows) strings.add(row.toString());
+        return strings;
+    }
+
+    private static List<SimulationConfig> cells() {
+        List<SimulationConfig> cells = new ArrayList<>();
+        for (double density : new double[] {0.05, 0.15, 0.3}) {
+            cells.add(config(density, true));
+            cells.add(config(density, false));
+        }
+        return cells;
+    }
+
+    private static SimulationConfig config(double density, boolean brokenCar) {
+        int totalCars = (int) (300 * density);
+        return new SimulationConfig.Builder()
+                .roadSize(300)
+                .numberOfIterations(300)
+                .density(density)
+                .fastCarRatio(0.5)
+                .numFastCars(totalCars / 2)
+                .numSlowCars(totalCars - totalCars / 2 + (brokenCar ? 1 : 0))
+                .hasBrokenCar(brokenCar)
+                .breakingDownProbability(brokenCar ? 0.3 : 0)
+                .build();
+    }
+
+    private static final class Rows implements ResultSink {
+        final List<RunResult> rows = new ArrayList<>();
+
+        @Override
+        public void accept(RunResult result) {
+            rows.add(result);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
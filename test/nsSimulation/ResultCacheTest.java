@@ -0,0 +1,185 @@
+package nsSimulation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+/*==============================================================================
+The journal of a ResultCache gives back every complete record when it is
+opened again. A record cut off by a dying JVM, or one which does not match
+its CRC, is dropped with all records after it, a journal with other columns
+is started afresh, and the cache goes on appending after what it kept.
+==============================================================================*/
+
+public class ResultCacheTest {
+
+    private static final int NUM_RESULTS = 10;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 32 + 8 * ResultColumns.NUM_COLUMNS + 4;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File dir = Files.createTempDirectory("cache").toFile();
+        try {
+            List<RunResult> results = fill(dir);
+            try (ResultCache cache = new ResultCache(dir)) {
+                assertEquals(NUM_RESULTS, cache.getNumRecovered());
+                assertResults(cache, results, NUM_RESULTS);
+            }
+            assertEquals(HEADER_SIZE + NUM_RESULTS * RECORD_SIZE, journal(dir).length());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testTornTailIsDropped() throws IOException {
+        for (int cut : new int[] {1, 4, RECORD_SIZE / 2, RECORD_SIZE - 1}) {
+            File dir = Files.createTempDirectory("cache").toFile();
+            try {
+                List<RunResult> results = fill(dir);
+                try (RandomAccessFile file = new RandomAccessFile(journal(dir), "rw")) {
+                    file.setLength(file.length() - cut);
+                }
+                assertReopened(dir, results, NUM_RESULTS - 1);
+            } finally {
+                delete(dir);
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptRecordIsDropped() throws IOException {
+        for (int offset : new int[] {0, 31, 32, RECORD_SIZE - 5, RECORD_SIZE - 1}) {
+            File dir = Files.createTempDirectory("cache").toFile();
+            try {
+                List<RunResult> results = fill(dir);
+                // a flipped bit in the key, the columns or the CRC of the fourth record
+                try (RandomAccessFile file = new RandomAccessFile(journal(dir), "rw")) {
+                    long position = HEADER_SIZE + 3 * RECORD_SIZE + offset;
+                    file.seek(position);
+                    int b = file.read();
+                    file.seek(position);
+                    file.write(b ^ 0x10);
+                }
+                assertReopened(dir, results, 3);
+            } finally {
+                delete(dir);
+            }
+        }
+    }
+
+    @Test
+    public void testJournalOfOtherColumnsStartsAfresh() throws IOException {
+        for (int field = 0; field < 2; field++) {           // the magic number, the number of columns
+            File dir = Files.createTempDirectory("cache").toFile();
+            try {
+                List<RunResult> results = fill(dir);
+                try (RandomAccessFile file = new RandomAccessFile(journal(dir), "rw")) {
+                    file.seek(4 * field);
+                    int value = file.readInt();
+                    file.seek(4 * field);
+                    file.writeInt(value + 1);
+                }
+                try (ResultCache cache = new ResultCache(dir)) {
+                    assertEquals(0, cache.getNumRecovered());
+                    assertNull(cache.get(key(0)));
+                }
+                assertEquals(HEADER_SIZE, journal(dir).length());
+                assertReopened(dir, results, 0);
+            } finally {
+                delete(dir);
+            }
+        }
+    }
+
+    @Test
+    public void testKeys() {
+        SimulationConfig run = new SimulationConfig.Builder().seed(1).build();
+        assertEquals(ResultCache.key(run, false), ResultCache.key(run.toBuilder().build(), false));
+        assertNotEquals(ResultCache.key(run, false), ResultCache.key(run, true));
+        assertNotEquals(ResultCache.key(run, false), ResultCache.key(run.toBuilder().seed(2).build(), false));
+        assertNotEquals(ResultCache.key(run, false), ResultCache.key(run.toBuilder().slack(4).build(), false));
+    }
+
+    /*
+     * Opens the cache with the first numKept results, adds the others
+     * again, and checks that all of them are found after the next opening.
+     */
+    private static void assertReopened(File dir, List<RunResult> results, int numKept) throws IOException {
+        try (ResultCache cache = new ResultCache(dir)) {
+            assertEquals(numKept, cache.getNumRecovered());
+            assertResults(cache, results, numKept);
+            assertEquals(HEADER_SIZE + numKept * RECORD_SIZE, journal(dir).length());
+            for (int i = numKept; i < NUM_RESULTS; i++) {
+                cache.put(key(i), results.get(i));
+            }
+        }
+        try (ResultCache cache = new ResultCache(dir)) {
+            assertEquals(NUM_RESULTS, cache.getNumRecovered());
+            assertResults(cache, results, NUM_RESULTS);
+        }
+    }
+
+    private static void assertResults(ResultCache cache, List<RunResult> results, int numKept) {
+        for (int i = 0; i < NUM_RESULTS; i++) {
+            RunResult cached = cache.get(key(i));
+            if (i < numKept) assertArrayEquals("result " + i, columns(results.get(i)), columns(cached));
+            else assertNull("result " + i, cached);
+        }
+    }
+
+    /*
+     * @return The results written to a new cache in the directory, with random values in every column.
+     */
+    private static List<RunResult> fill(File dir) throws IOException {
+        SplittableRandom random = new SplittableRandom(dir.getName().hashCode());
+        List<RunResult> results = new ArrayList<>();
+        try (ResultCache cache = new ResultCache(dir)) {
+            assertEquals(0, cache.getNumRecovered());
+            for (int i = 0; i < NUM_RESULTS; i++) {
+                RunResult result = new RunResult();
+                for (int c = 0; c < ResultColumns.NUM_COLUMNS; c++) {
+                    ResultColumns.set(result, c, random.nextLong());
+                }
+                cache.put(key(i), result);
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private static String key(int i) {
+        return ResultCache.key(new SimulationConfig.Builder().seed(i).build(), false);
+    }
+
+    private static long[] columns(RunResult result) {
+        long[] columns = new long[ResultColumns.NUM_COLUMNS];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = ResultColumns.get(result, c);
+        }
+        return columns;
+    }
+
+    private static File journal(File dir) {
+        return new File(dir, "results.journal");
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,141 @@
+package nsSimulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Test;
+
+/*==============================================================================
+A road restored from a RoadSnapshot, in memory or from its file, continues
+exactly as the saved road: the same states and statistics, step after step.
+A fork continues with the random numbers of its seed.
+==============================================================================*/
+
+public class RoadSnapshotTest {
+
+    private static final int WARM_UP_STEPS = 600;
+    private static final int STEPS = 400;
+
+    @Test
+    public void testRestoredRoadsMatch() throws IOException {
+        File file = File.createTempFile("road", ".nss");
+        try {
+            for (SimulationConfig config : configs()) {
+                RoadNS road = new RoadNS(config);
+                for (int i = 0; i < WARM_UP_STEPS; i++) road.nextState();
+                RoadSnapshot snapshot = road.snapshot();
+                snapshot.write(file);
+                assertEquals(state(road), state(snapshot.restore()));
+
+                road.clearStatistics();
+                String expected = run(road);
+                assertEquals(expected, run(snapshot.restore()));
+                assertEquals(expected, run(RoadSnapshot.read(file).restore()));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testForks() throws IOException {
+        File file = File.createTempFile("road", ".nss");
+        try {
+            for (SimulationConfig config : configs()) {
+                RoadNS road = new RoadNS(config);
+                for (int i = 0; i < WARM_UP_STEPS; i++) road.nextState();
+                road.snapshot().write(file);
+
+                String fork = run(road.fork(5));
+                assertEquals(fork, run(RoadSnapshot.read(file).fork(5)));
+                assertEquals(fork, run(road.fork(5)));
+                assertNotEquals(fork, run(road.fork(6)));
+                assertEquals(5, road.fork(5).getConfig().seed);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testReadRejectsOtherFiles() throws IOException {
+        File file = File.createTempFile("road", ".nss");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(new byte[64]);
+            }
+            try {
+                RoadSnapshot.read(file);
+                fail("read a file which is not a snapshot");
+            } catch (IOException expected) {
+            }
+
+            RoadNS road = new RoadNS(configs()[0]);
+            road.snapshot().write(file);
+            try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+                f.setLength(f.length() - 1);
+            }
+            try {
+                RoadSnapshot.read(file);
+                fail("read a truncated snapshot");
+            } catch (IOException expected) {
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /*
+     * With and without the broken car, and with a class of vehicle which breaks down and gets repaired.
+     */
+    private static SimulationConfig[] configs() {
+        SimulationConfig.Builder base = new SimulationConfig.Builder()
+                .seed(11)
+                .roadSize(500)
+                .density(0.15)
+                .fastCarRatio(0.5)
+                .numFastCars(37)
+                .numSlowCars(38);
+        return new SimulationConfig[] {
+            base.hasBrokenCar(true).breakingDownProbability(0.3).build(),
+            base.hasBrokenCar(false).numSlowCars(37).build(),
+            base.vehicleClass(new VehicleClass.Builder("truck").replaces(RoadNS.TYPE_CAR_SLOW, 0.4).maxSpeed(2)
+                    .dawdleProbability(0.1).breakdownProbability(0.02).repairProbability(0.3).build()).build()
+        };
+    }
+
+    /*
+     * The states of the steps and the measurement at the end.
+     */
+    private static String run(RoadNS road) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < STEPS; i++) {
+            road.nextState();
+            sb.append(state(road)).append('\n');
+        }
+        RoadStatistics statistics = road.getStatistics();
+        sb.append(statistics.getSteps()).append(' ').append(road.getFlow(STEPS)).append(' ').append(road.getFlow2(STEPS));
+        for (int t = 0; t < road.getConfig().vehicleClasses.size(); t++) {
+            sb.append(' ').append(statistics.getDistance(t)).append('/').append(statistics.getLaneChanges(t))
+                    .append('/').append(statistics.getMaxSpeed(t));
+        }
+        for (int c = 0; c < road.getNumCars(); c++) {
+            sb.append(' ').append(road.getTraveledDistance(c)).append('/').append(road.getMaxReachedSpeed(c));
+        }
+        return sb.toString();
+    }
+
+    private static String state(Road road) {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < road.getNumCars(); c++) {
+            sb.append(road.getCarType(c)).append(',').append(road.getCarLane(c)).append(',').append(road.getCarPosition(c))
+                    .append(',').append(road.getCarSpeed(c)).append(',').append(road.getCarColor(c)).append(';');
+        }
+        return sb.toString();
+    }
+}
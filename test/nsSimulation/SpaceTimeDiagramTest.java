@@ -0,0 +1,105 @@
+package nsSimulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import org.junit.Test;
+
+/*==============================================================================
+Every pixel of a space-time diagram shows the slowest car of its cells and
+steps in the colour of its class and speed, or white, also for the speeds
+above the max speed which an acceleration above 1 reaches.
+==============================================================================*/
+
+public class SpaceTimeDiagramTest {
+
+    private static final int ROAD_SIZE = 300;
+    private static final int STEPS = 200;
+
+    @Test
+    public void testPixelsShowTheCars() {
+        assertPixels(config(1), ROAD_SIZE, STEPS);
+        assertPixels(config(2), ROAD_SIZE, STEPS);
+    }
+
+    @Test
+    public void testPooledPixelsShowTheSlowestCar() {
+        assertPixels(config(2), 100, 50);          // 3 cells per pixel, 4 steps per row
+        assertPixels(config(3), 70, 30);           // partial pixels and rows at the ends
+    }
+
+    /*
+     * Runs the road STEPS steps and compares its diagrams with the colours
+     * of its cars.
+     */
+    private static void assertPixels(SimulationConfig config, int maxWidth, int maxHeight) {
+        Road road = Road.create(config);
+        SpaceTimeDiagram diagram = new SpaceTimeDiagram(config, STEPS, maxWidth, maxHeight);
+        int cellsPerPixel = (ROAD_SIZE + maxWidth - 1) / maxWidth;
+        int stepsPerRow = Math.max(1, (STEPS + maxHeight - 1) / maxHeight);
+        int width = (ROAD_SIZE + cellsPerPixel - 1) / cellsPerPixel;
+        int height = (STEPS + stepsPerRow - 1) / stepsPerRow;
+
+        // [lane - 1][row][x] slowest speed and its type
+        int[][][] speed = new int[RoadNS.NUM_LANES][height][width];
+        int[][][] type = new int[RoadNS.NUM_LANES][height][width];
+        for (int[][] lane : speed) {
+            for (int[] row : lane) Arrays.fill(row, Integer.MAX_VALUE);
+        }
+        int maxSpeed = 0;
+        for (int step = 0; step < STEPS; step++) {
+            road.nextState();
+            diagram.add(road);
+            int row = step / stepsPerRow;
+            for (int car = 0; car < road.getNumCars(); car++) {
+                int l = road.getCarLane(car) - 1, x = road.getCarPosition(car) / cellsPerPixel, v = road.getCarSpeed(car);
+                if (v < speed[l][row][x]) {
+                    speed[l][row][x] = v;
+                    type[l][row][x] = road.getCarType(car);
+                }
+                maxSpeed = Math.max(maxSpeed, v);
+            }
+        }
+        if (config.maxAcceleration > 1) {
+            assertTrue("the fast cars overshoot their max speed", maxSpeed > config.maxSpeedFastCar);
+        }
+
+        for (int lane = RoadNS.RIGHT_LANE; lane <= RoadNS.LEFT_LANE; lane++) {
+            BufferedImage image = diagram.getImage(lane);
+            assertEquals(width, image.getWidth());
+            assertEquals(height, image.getHeight());
+            for (int row = 0; row < height; row++) {
+                for (int x = 0; x < width; x++) {
+                    int v = speed[lane - 1][row][x];
+                    int expected = v == Integer.MAX_VALUE ? 0xffffff : color(config.vehicleClasses, type[lane - 1][row][x], v);
+                    assertEquals("lane " + lane + ", row " + row + ", x " + x, expected, image.getRGB(x, row) & 0xffffff);
+                }
+            }
+        }
+    }
+
+    private static int color(VehicleClasses classes, int type, int speed) {
+        if (!classes.isShaded(type)) return classes.getColor(type);
+        int max = Math.max(1, classes.maxSpeed[type]);
+        return classes.getColor(type) | 130 * Math.max(0, Math.min(speed, max)) / max << 8;
+    }
+
+    private static SimulationConfig config(int acceleration) {
+        return new SimulationConfig.Builder()
+                .seed(5)
+                .roadSize(ROAD_SIZE)
+                .numberOfIterations(STEPS)
+                .density(0.2)
+                .fastCarRatio(0.5)
+                .numFastCars(30)
+                .numSlowCars(31)
+                .hasBrokenCar(true)
+                .breakingDownProbability(0.3)
+                .maxSpeedFastCar(8)
+                .maxAcceleration(acceleration)
+                .vehicleClass(new VehicleClass.Builder("truck").replaces(RoadNS.TYPE_CAR_SLOW, 0.3).maxSpeed(2).acceleration(3).build())
+                .build();
+    }
+}
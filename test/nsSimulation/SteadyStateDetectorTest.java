@@ -0,0 +1,171 @@
+package nsSimulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.SplittableRandom;
+import java.util.function.IntToDoubleFunction;
+import org.junit.Test;
+
+/*==============================================================================
+The warm-up cut discards a transient and nothing but the transient, a
+stationary run stops early once its flow is precise enough, and no run goes
+beyond numberOfIterations. The result of a run covers only the steps after
+the cut, the same with the ensemble engine.
+==============================================================================*/
+
+public class SteadyStateDetectorTest {
+
+    private static final int BATCH_SIZE = 20;
+    private static final double TARGET_PRECISION = 0.02;
+    private static final int CAP = 20_000;
+
+    @Test
+    public void testWarmUpCutsTheTransient() {
+        for (int decay : new int[] {0, 50}) {
+            FlowRoad road = new FlowRoad(7, 1);
+            SteadyStateDetector detector = run(road, step -> 3 - 2 * Math.exp(-(double) step / Math.max(1, decay)));
+            String message = "decay " + decay;
+            int warmUp = detector.getWarmUpSteps();
+            assertTrue(message + ", warm-up " + warmUp, warmUp >= decay && warmUp <= 2 * SteadyStateDetector.MIN_BATCHES * BATCH_SIZE);
+            assertMeasured(message, detector, road, 0.1);
+        }
+    }
+
+    @Test
+    public void testSteadyTrendIsNotCut() {
+        // the flow rises for 500 steps: no truncation point in the first half of the batches until it levels off
+        FlowRoad road = new FlowRoad(7, 0);
+        SteadyStateDetector detector = run(road, step -> Math.min(3, 1 + step / 250.0));
+        assertTrue("warm-up " + detector.getWarmUpSteps(), detector.getWarmUpSteps() >= 500);
+        assertMeasured("trend", detector, road, 1e-9);
+    }
+
+    @Test
+    public void testStationaryRunStopsEarly() throws Exception {
+        for (int engine : new int[] {SimulationConfig.ENGINE_OBJECTS, SimulationConfig.ENGINE_ARRAYS}) {
+            RunResult result = run(config(CAP, TARGET_PRECISION).toBuilder().engine(engine).build());
+            String message = "engine " + engine;
+            assertEquals(message, 0, result.warmUpSteps % BATCH_SIZE);
+            assertEquals(message, 0, result.measuredSteps % BATCH_SIZE);
+            assertTrue(message, result.measuredSteps >= SteadyStateDetector.MIN_BATCHES * BATCH_SIZE);
+            assertTrue(message + ", " + result.warmUpSteps + " + " + result.measuredSteps + " steps",
+                    result.warmUpSteps + result.measuredSteps < CAP / 4);
+        }
+    }
+
+    @Test
+    public void testRunStopsAtTheCap() throws Exception {
+        int cap = 1000;
+        RunResult result = run(config(cap, 1e-6));
+        assertEquals(cap, result.warmUpSteps + result.measuredSteps);
+
+        RunResult fixed = run(config(cap, TARGET_PRECISION).toBuilder().steadyState(false).build());
+        assertEquals(0, fixed.warmUpSteps);
+        assertEquals(cap, fixed.measuredSteps);
+    }
+
+    @Test
+    public void testEnsembleStopsEveryReplicaOnItsOwn() throws Exception {
+        SimulationConfig config = config(CAP, TARGET_PRECISION).toBuilder().engine(SimulationConfig.ENGINE_ARRAYS).build();
+        long[] seeds = {3, 4, 5};
+        RunResult[] ensemble = new AnimatedSimulation().runEnsemble(config, seeds, new int[] {0, 1, 2});
+        for (int k = 0; k < seeds.length; k++) {
+            RunResult expected = new AnimatedSimulation().runEnsemble(config, new long[] {seeds[k]}, new int[] {k})[0];
+            assertEquals("replica " + k, expected.toString(), ensemble[k].toString());
+            assertEquals("replica " + k, run(config.toBuilder().seed(seeds[k]).build(), k).toString(), ensemble[k].toString());
+        }
+    }
+
+    /*
+     * Steps the road with the flow of every step until the detector stops it.
+     */
+    private static SteadyStateDetector run(FlowRoad road, IntToDoubleFunction flow) {
+        SteadyStateDetector detector = new SteadyStateDetector(config(CAP, TARGET_PRECISION));
+        for (int step = 0; !detector.step(road.next(flow.applyAsDouble(step))); step++) {
+            if (step == CAP) throw new AssertionError("no steady state after " + CAP + " steps");
+        }
+        assertFalse(detector.isWarmingUp());
+        assertEquals(0, detector.getWarmUpSteps() % BATCH_SIZE);
+        return detector;
+    }
+
+    /*
+     * Only the steps after the cut are measured, precisely enough, and their
+     * flow is the steady flow 3.
+     */
+    private static void assertMeasured(String message, SteadyStateDetector detector, FlowRoad road, double delta) {
+        RunningStatistics flow = detector.getFlow();
+        assertTrue(message, flow.getCount() >= SteadyStateDetector.MIN_BATCHES);
+        assertTrue(message, flow.getRelativeHalfWidth() <= TARGET_PRECISION);
+        assertEquals(message, 3, flow.getMean(), delta);
+        assertEquals(message, flow.getCount() * BATCH_SIZE * flow.getMean(), road.getTraveledDistance(0), 1e-6);
+    }
+
+    private static RunResult run(SimulationConfig config) throws Exception {
+        return run(config, 0);
+    }
+
+    private static RunResult run(SimulationConfig config, int repetition) throws Exception {
+        AnimatedSimulation simulation = new AnimatedSimulation();
+        simulation.initialiseSimulation(config);
+        return simulation.runSimulation(repetition);
+    }
+
+    private static SimulationConfig config(int numberOfIterations, double targetPrecision) {
+        return new SimulationConfig.Builder()
+                .seed(13)
+                .roadSize(500)
+                .numberOfIterations(numberOfIterations)
+                .density(0.15)
+                .fastCarRatio(0.5)
+                .numFastCars(37)
+                .numSlowCars(39)
+                .hasBrokenCar(true)
+                .breakingDownProbability(0.3)
+                .steadyState(true)
+                .batchSize(BATCH_SIZE)
+                .targetPrecision(targetPrecision)
+                .build();
+    }
+
+    /*
+     * A road of one car which travels the flow given by the test, give or
+     * take noise cells, in every step (the flow the detector sees).
+     */
+    private static final class FlowRoad implements RoadView {
+
+        private final SplittableRandom random;
+        private final double noise;
+        private double traveled = 0;
+        private int distance = 0;
+
+        FlowRoad(long seed, double noise) {
+            random = new SplittableRandom(seed);
+            this.noise = noise;
+        }
+
+        FlowRoad next(double flow) {
+            double next = traveled + flow + noise * (2 * random.nextDouble() - 1);
+            distance += (int) Math.floor(next) - (int) Math.floor(traveled);
+            traveled = next;
+            return this;
+        }
+
+        @Override public void printTrafficSituation() { }
+        @Override public double getFlow(int numIterations) { return (double) distance / numIterations; }
+        @Override public double getFlow2(int numIterations) { return 0; }
+        @Override public void clearStatistics() { distance = 0; }
+        @Override public RoadStatistics getStatistics() { return null; }
+        @Override public LoopDetectors getDetectors() { return null; }
+        @Override public int getNumCars() { return 1; }
+        @Override public int getCarType(int car) { return RoadNS.TYPE_CAR_FAST; }
+        @Override public int getCarLane(int car) { return RoadNS.RIGHT_LANE; }
+        @Override public int getCarPosition(int car) { return 0; }
+        @Override public int getCarSpeed(int car) { return 0; }
+        @Override public int getCarColor(int car) { return 0; }
+        @Override public int getTraveledDistance(int car) { return distance; }
+        @Override public int getMaxReachedSpeed(int car) { return 0; }
+    }
+}
@@ -0,0 +1,187 @@
+package nsSimulation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/*==============================================================================
+A sweep leased to SweepWorkers gives the rows of the same sweep run by one
+SweepExecutor, in the same order, also when a worker dies or hangs holding a
+lease.
+==============================================================================*/
+
+public class SweepCoordinatorTest {
+
+    private static final long SEED = 42;
+    private static final int NUM_REPETITIONS = 2;
+
+    @Test(timeout = 60_000)
+    public void testRowsEqualLocalRows() throws Exception {
+        List<SimulationConfig> cells = cells();
+        List<FutureTask<Integer>> workers;
+        try (SweepCoordinator coordinator = new SweepCoordinator(0, cells, NUM_REPETITIONS, SEED, 2)) {
+            // more workers than shards: some of them wait for work until the sweep is finished
+            workers = startWorkers(coordinator.getPort(), 4);
+            assertEquals(local(cells, false, 0), distributed(coordinator));
+        }
+        assertFinished(workers);
+    }
+
+    @Test(timeout = 60_000)
+    public void testOptionsAreSentWithTheLease() throws Exception {
+        List<SimulationConfig> cells = cells();
+        List<FutureTask<Integer>> workers;
+        try (SweepCoordinator coordinator = new SweepCoordinator(0, cells, NUM_REPETITIONS, SEED, 3)) {
+            coordinator.setEnsemble(true);
+            coordinator.setAdaptiveRepetitions(0.05, 6);
+            workers = startWorkers(coordinator.getPort(), 1);
+            assertEquals(local(cells, true, 0.05), distributed(coordinator));
+        }
+        assertFinished(workers);
+    }
+
+    @Test(timeout = 60_000)
+    public void testLeaseOfDeadWorkerIsReleased() throws Exception {
+        List<SimulationConfig> cells = cells();
+        List<FutureTask<Integer>> workers;
+        try (SweepCoordinator coordinator = new SweepCoordinator(0, cells, NUM_REPETITIONS, SEED, 2)) {
+            FutureTask<List<String>> rows = start(coordinator);
+            // takes the first shard and disconnects
+            takeLease(coordinator.getPort()).close();
+            workers = startWorkers(coordinator.getPort(), 2);
+            assertEquals(local(cells, false, 0), rows.get());
+        }
+        assertFinished(workers);
+    }
+
+    @Test(timeout = 60_000)
+    public void testLeaseOfHungWorkerExpires() throws Exception {
+        List<SimulationConfig> cells = cells();
+        List<FutureTask<Integer>> workers;
+        try (SweepCoordinator coordinator = new SweepCoordinator(0, cells, NUM_REPETITIONS, SEED, 2)) {
+            coordinator.setLeaseTimeout(200);
+            FutureTask<List<String>> rows = start(coordinator);
+            // takes the first shard and never answers
+            Socket hung = takeLease(coordinator.getPort());
+            try {
+                workers = startWorkers(coordinator.getPort(), 2);
+                assertEquals(local(cells, false, 0), rows.get());
+            } finally {
+                hung.close();
+            }
+        }
+        assertFinished(workers);
+    }
+
+    private static List<SimulationConfig> cells() {
+        List<SimulationConfig> cells = new ArrayList<>();
+        for (double density : new double[] {0.05, 0.15, 0.3}) {
+            for (boolean brokenCar : new boolean[] {true, false}) {
+                int totalCars = (int) (200 * density);
+                cells.add(new SimulationConfig.Builder()
+                        .roadSize(200)
+                        .numberOfIterations(300)
+                        .density(density)
+                        .fastCarRatio(0.5)
+                        .numFastCars(totalCars / 2)
+                        .numSlowCars(totalCars - totalCars / 2 + (brokenCar ? 1 : 0))
+                        .hasBrokenCar(brokenCar)
+                        .build());
+            }
+        }
+        return cells;
+    }
+
+    private static List<String> local(List<SimulationConfig> cells, boolean ensemble, double targetPrecision) throws Exception {
+        SweepExecutor executor = new SweepExecutor(1);
+        try {
+            executor.setEnsemble(ensemble);
+            if (targetPrecision > 0) executor.setAdaptiveRepetitions(targetPrecision, 6);
+            Rows rows = new Rows();
+            executor.run(cells, NUM_REPETITIONS, SEED, rows);
+            return rows.rows;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<String> distributed(SweepCoordinator coordinator) throws Exception {
+        Rows rows = new Rows();
+        coordinator.run(rows);
+        return rows.rows;
+    }
+
+    /*
+     * Runs the coordinator on another thread, so that it serves the connections made here.
+     */
+    private static FutureTask<List<String>> start(SweepCoordinator coordinator) {
+        FutureTask<List<String>> rows = new FutureTask<>(() -> distributed(coordinator));
+        Thread thread = new Thread(rows, "coordinator");
+        thread.setDaemon(true);
+        thread.start();
+        return rows;
+    }
+
+    /*
+     * @return The number of shards run by every worker, see SweepWorker.run().
+     */
+    private static List<FutureTask<Integer>> startWorkers(int port, int numWorkers) {
+        List<FutureTask<Integer>> workers = new ArrayList<>();
+        for (int w = 0; w < numWorkers; w++) {
+            FutureTask<Integer> worker = new FutureTask<>(() -> new SweepWorker("localhost", port, 1).run());
+            Thread thread = new Thread(worker, "worker-" + w);
+            thread.setDaemon(true);
+            thread.start();
+            workers.add(worker);
+        }
+        return workers;
+    }
+
+    /*
+     * Every worker was told that the sweep is finished before the
+     * coordinator was closed: SweepWorker.run() returned normally.
+     */
+    private static void assertFinished(List<FutureTask<Integer>> workers) throws Exception {
+        for (FutureTask<Integer> worker : workers) {
+            worker.get(10, TimeUnit.SECONDS);       // throws the exception of a failed worker
+        }
+    }
+
+    /*
+     * Connects as a worker and requests a lease.
+     * @return The connection, after the type of the answer was read.
+     */
+    private static Socket takeLease(int port) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeInt(SweepCoordinator.HELLO);
+        out.writeInt(SweepCoordinator.MAGIC);
+        out.writeInt(SweepCoordinator.VERSION);
+        out.writeInt(ResultColumns.NUM_COLUMNS);
+        out.writeInt(SweepCoordinator.REQUEST);
+        out.flush();
+        assertEquals(SweepCoordinator.LEASE, new DataInputStream(socket.getInputStream()).readInt());
+        return socket;
+    }
+
+    private static final class Rows implements ResultSink {
+        final List<String> rows = new ArrayList<>();
+
+        @Override
+        public void accept(RunResult result) {
+            rows.add(result.toString());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
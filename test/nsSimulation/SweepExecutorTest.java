@@ -0,0 +1,149 @@
+package nsSimulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/*==============================================================================
+With adaptive repetitions every cell runs between numRepetitions and
+maxRepetitions times and stops as soon as it is precise enough. The rows are
+the same with or without a ResultCache, from a cache filled by an earlier
+sweep, and with the ensemble engine.
+==============================================================================*/
+
+public class SweepExecutorTest {
+
+    private static final long SEED = 23;
+    private static final int NUM_REPETITIONS = 2;
+    private static final int MAX_REPETITIONS = 12;
+    private static final double TARGET_PRECISION = 0.02;
+
+    @Test
+    public void testRepetitionsStayWithinBounds() throws Exception {
+        List<SimulationConfig> cells = cells();
+        List<RunResult> rows = sweep(cells, null, false);
+
+        int row = 0, numRepeated = 0, numPrecise = 0;
+        for (int c = 0; c < cells.size(); c++) {
+            RunResult first = rows.get(row);
+            int n = first.cellRepetitions;
+            String message = "cell " + c;
+            assertTrue(message, n >= NUM_REPETITIONS && n <= MAX_REPETITIONS);
+            assertTrue(message, first.cellPrecision <= TARGET_PRECISION || n == MAX_REPETITIONS);
+            for (int rep = 0; rep < n; rep++, row++) {
+                RunResult result = rows.get(row);
+                assertEquals(message, rep, result.repetition);
+                assertEquals(message, n, result.cellRepetitions);
+                assertEquals(message, first.cellPrecision, result.cellPrecision, 0);
+                assertEquals(message, RandomStreams.runSeed(SEED, cells.get(c).fingerprint(), rep), result.seed);
+            }
+            if (n > NUM_REPETITIONS) numRepeated++;
+            if (n < MAX_REPETITIONS) numPrecise++;
+        }
+        assertEquals(rows.size(), row);
+        assertTrue("some cells need more than " + NUM_REPETITIONS + " repetitions", numRepeated > 0);
+        assertTrue("some cells are precise enough before " + MAX_REPETITIONS + " repetitions", numPrecise > 0);
+    }
+
+    @Test
+    public void testRowsEqualWithCacheAndEnsemble() throws Exception {
+        List<SimulationConfig> cells = cells();
+        List<String> expected = strings(sweep(cells, null, false));
+        assertEquals("ensemble", expected, strings(sweep(cells, null, true)));
+
+        File dir = Files.createTempDirectory("cache").toFile();
+        try {
+            try (ResultCache cache = new ResultCache(dir)) {
+                assertEquals("empty cache", expected, strings(sweep(cells, cache, false)));
+            }
+            try (ResultCache cache = new ResultCache(dir)) {
+                assertEquals(expected.size(), cache.getNumRecovered());
+                assertEquals("filled cache", expected, strings(sweep(cells, cache, false)));
+                assertEquals("filled cache, ensemble", expected, strings(sweep(cells, cache, true)));
+            }
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testRejectsRepetitionsOutsideBounds() throws Exception {
+        SweepExecutor executor = new SweepExecutor(1);
+        try {
+            executor.setAdaptiveRepetitions(TARGET_PRECISION, MAX_REPETITIONS);
+            for (int numRepetitions : new int[] {1, MAX_REPETITIONS + 1}) {
+                try {
+                    executor.run(cells(), numRepetitions, SEED, new Rows());
+                    fail(numRepetitions + " repetitions");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<RunResult> sweep(List<SimulationConfig> cells, ResultCache cache, boolean ensemble) throws Exception {
+        SweepExecutor executor = new SweepExecutor(1);
+        try {
+            executor.setAdaptiveRepetitions(TARGET_PRECISION, MAX_REPETITIONS);
+            executor.setCache(cache);
+            executor.setEnsemble(ensemble);
+            Rows rows = new Rows();
+            executor.run(cells, NUM_REPETITIONS, SEED, rows);
+            return rows.rows;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<String> strings(List<RunResult> rows) {
+        List<String> strings = new ArrayList<>();
+        for (RunResult row : rows) strings.add(row.toString());
+        return strings;
+    }
+
+    private static List<SimulationConfig> cells() {
+        List<SimulationConfig> cells = new ArrayList<>();
+        for (double density : new double[] {0.05, 0.15, 0.3}) {
+            for (boolean brokenCar : new boolean[] {true, false}) {
+                int totalCars = (int) (200 * density);
+                cells.add(new SimulationConfig.Builder()
+                        .roadSize(200)
+                        .numberOfIterations(300)
+                        .density(density)
+                        .fastCarRatio(0.5)
+                        .numFastCars(totalCars / 2)
+                        .numSlowCars(totalCars - totalCars / 2 + (brokenCar ? 1 : 0))
+                        .hasBrokenCar(brokenCar)
+                        .breakingDownProbability(brokenCar ? 0.3 : 0)
+                        .build());
+            }
+        }
+        return cells;
+    }
+
+    private static final class Rows implements ResultSink {
+        final List<RunResult> rows = new ArrayList<>();
+
+        @Override
+        public void accept(RunResult result) {
+            rows.add(result);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package nsSimulation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+/*==============================================================================
+A trajectory file reads back the state of the road after every step, in any
+order, up to the highest speed which can be recorded; a configuration whose
+cars can go faster is rejected.
+==============================================================================*/
+
+public class TrajectoryRecorderTest {
+
+    private static final int STEPS = 300;       // several key frames, the last one partial
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        // fast cars reach 13 + 2 - 1 = MAX_SPEED, the broken car starts at -1
+        assertRoundTrip(config(TrajectoryRecorder.MAX_SPEED - 1, 2));
+        assertRoundTrip(config(5, 1));
+    }
+
+    @Test
+    public void testRejectsUnrecordableSpeeds() throws IOException {
+        File file = File.createTempFile("trajectory", ".bin");
+        try {
+            new TrajectoryRecorder(file, config(TrajectoryRecorder.MAX_SPEED, 2)).close();
+            fail("a max speed of MAX_SPEED with an acceleration of 2 reaches MAX_SPEED + 1");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertRoundTrip(SimulationConfig config) throws IOException {
+        File file = File.createTempFile("trajectory", ".bin");
+        try {
+            Road road = Road.create(config);
+            int numCars = road.getNumCars();
+            List<int[][]> states = new ArrayList<>();
+            try (TrajectoryRecorder recorder = new TrajectoryRecorder(file, config)) {
+                for (int step = 0; step <= STEPS; step++) {
+                    if (step > 0) road.nextState();
+                    recorder.record(road);
+                    int[][] state = new int[3][numCars];
+                    for (int car = 0; car < numCars; car++) {
+                        state[0][car] = road.getCarPosition(car);
+                        state[1][car] = road.getCarLane(car);
+                        state[2][car] = road.getCarSpeed(car);
+                    }
+                    states.add(state);
+                }
+            }
+
+            try (TrajectoryReader reader = new TrajectoryReader(file)) {
+                assertEquals(numCars, reader.getNumCars());
+                assertEquals(config.roadSize, reader.getRoadSize());
+                assertEquals(STEPS + 1, reader.getNumFrames());
+                for (int step = 0; step <= STEPS; step++) {
+                    assertState(reader, step, states.get(step));
+                }
+                // backwards and at random, across the key frames
+                SplittableRandom random = new SplittableRandom(1);
+                for (int k = 0; k < 200; k++) {
+                    int step = k < 20 ? STEPS - k : random.nextInt(STEPS + 1);
+                    assertState(reader, step, states.get(step));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertState(TrajectoryReader reader, int step, int[][] expected) throws IOException {
+        int n = reader.getNumCars();
+        int[] position = new int[n], lane = new int[n], speed = new int[n];
+        reader.read(step, position, lane, speed);
+        assertArrayEquals("positions at step " + step, expected[0], position);
+        assertArrayEquals("lanes at step " + step, expected[1], lane);
+        assertArrayEquals("speeds at step " + step, expected[2], speed);
+    }
+
+    private static SimulationConfig config(int maxSpeedFastCar, int acceleration) {
+        return new SimulationConfig.Builder()
+                .seed(3)
+                .roadSize(400)
+                .numberOfIterations(STEPS)
+                .density(0.1)
+                .fastCarRatio(0.5)
+                .numFastCars(20)
+                .numSlowCars(21)
+                .hasBrokenCar(true)
+                .breakingDownProbability(0.3)
+                .maxSpeedSlowCar(0)
+                .maxSpeedFastCar(maxSpeedFastCar)
+                .maxAcceleration(acceleration)
+                .build();
+    }
+}